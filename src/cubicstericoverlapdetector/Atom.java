@@ -18,13 +18,11 @@
 
 package cubicstericoverlapdetector;
 
-import java.util.ArrayList;
-
-/**Class for holding information about Atoms. Each Atom may also,
- * optionally, hold an ArrayList of which Containers in the Space
- * that exist around it. These are the containers that are near the
- * container that this Atom falls in. By pre-calculating these
- * nearby containers, we can save time during the comparison phase.
+/**Class for holding information about Atoms. Each Atom has a type,
+ * which is the index of its element in a RadiusTable, and is used to
+ * look up its clash distance to other Atoms. The containers of the
+ * Space near an Atom are not kept in the Atom, but by the run that
+ * needs them, so that Atoms may be shared between runs.
  *
  * @author Johan Sjöblom
  *
@@ -39,12 +37,32 @@ public class Atom {
     private String   chainID;
     private int      resSeq;
     private String   iCode;
+    private String   element;
+    private int      type = 0;
+    private int      model = 0;
+    private int      index = 0;
+    private double   occupancy = 1;
     private Location centre;
-    private ArrayList<Integer> relevantContainers = null;
 
     /**Constructor for an Atom. The coordinates of the Atom is the last
      * argument, and is in the form of a String array. The data is in
-     * the same order as the *.pdb files.
+     * the same order as the *.pdb files. The element is taken to be
+     * the first letter of the atom name.
+     */
+    public Atom(int serial,
+                String atomName,
+                String altLoc,
+                String resName,
+                String chainId,
+                int resSeq,
+                String iCode,
+                String[] coords) {
+        this(serial, atomName, altLoc, resName, chainId, resSeq, iCode,
+             atomName.length() > 0 ? atomName.substring(0, 1) : "",
+             coords);
+    }
+    /**Constructor for an Atom, where the element symbol (such as "C" or
+     * "FE") is given explicitly.
      */
     public Atom(int serial,
                 String atomName,
@@ -53,6 +71,7 @@ public class Atom {
                 String chainId,
                 int resSeq,
                 String iCode,
+                String element,
                 String[] coords) {
         this.serial   = serial;
         this.atomName = atomName;
@@ -61,6 +80,7 @@ public class Atom {
         this.chainID  = chainId;
         this.resSeq   = resSeq;
         this.iCode    = iCode;
+        this.element  = element;
         this.centre   = new Location(coords);
     }
 
@@ -71,6 +91,11 @@ public class Atom {
     public String   getChainID()  { return chainID;  }
     public int      getResSeq()   { return resSeq;   }
     public String   getICode()    { return iCode;    }
+    public String   getElement()  { return element;  }
+    public int      getType()     { return type;     }
+    public int      getModel()    { return model;    }
+    public int      getIndex()    { return index;    }
+    public double   getOccupancy() { return occupancy; }
     public Location getCentre()   { return centre;   }
 
     /**Returns the coordinate for the given dimension i (i.e. x, y, z).
@@ -82,11 +107,39 @@ public class Atom {
         return centre.getDoubleCoordinate(i);
     }
 
-    public ArrayList<Integer> getRelevantContainers() {
-        return relevantContainers;
-        }
-    public void setRelevantContainers(ArrayList<Integer> arr) {
-        relevantContainers = arr;
+    /**Sets the number of the model (from the MODEL record of the *.pdb
+     * file) that the Atom belongs to.
+     *
+     * @param model The model number.
+     */
+    public void setModel(int model) {
+        this.model = model;
+    }
+    /**Sets the place of the Atom among the Atoms read from its file.
+     * Unlike the serial number, which may repeat, such as in files of
+     * several models, it leads back to a single Atom of the file.
+     *
+     * @param index The place of the Atom, counted from 0.
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+    /**Sets the occupancy of the Atom, which is the fraction of the
+     * molecules of the crystal where it is at this location. Atoms
+     * whose occupancy is not given have occupancy 1.
+     *
+     * @param occupancy The occupancy, from 0 to 1.
+     */
+    public void setOccupancy(double occupancy) {
+        this.occupancy = occupancy;
+    }
+    /**Sets the type of the Atom, which is the index of its element in
+     * a RadiusTable. See RadiusTable.assignTypes().
+     *
+     * @param type The type of the Atom.
+     */
+    public void setType(int type) {
+        this.type = type;
     }
 
     /**Returns whether this Atom clashes with the other Atom, i.e. if the
@@ -96,9 +149,15 @@ public class Atom {
      * @return true if the Atoms clash, false otherwise.
      */
     public boolean clashes(Atom other) {
-        return getDistance(other.getCentre()) < ATOMRADIUS*2;
+        return getSquaredDistance(other) < (ATOMRADIUS*2) * (ATOMRADIUS*2);
     }
-    private double getDistance(Location other) {
-        return centre.getDistance(other);
+    /**Returns the squared distance between the centres of this Atom and
+     * the other Atom.
+     *
+     * @param other Atom to calculate the distance to.
+     * @return The squared distance to the other Atom.
+     */
+    public double getSquaredDistance(Atom other) {
+        return centre.getSquaredDistance(other.getCentre());
     }
 }
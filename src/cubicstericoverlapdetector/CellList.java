@@ -0,0 +1,574 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.Arrays;
+
+/**A cell list over a fixed grid, for molecules whose atoms move, such as
+ * the frames of a trajectory. It plays the same role as the Space and the
+ * hash map of the comparison methods, but everything is kept in arrays of
+ * primitives that are allocated once and reused, so that indexing a new
+ * frame creates no objects.<br /><br />
+ *
+ * The atoms are numbered 0 ... n - 1, and their coordinates are read from
+ * a flat array of doubles (x0, y0, z0, x1, ...). Each cell holds a doubly
+ * linked list of its atoms, so that an atom that has moved can be moved to
+ * its new cell in constant time, and single atoms can be added and
+ * removed without touching the rest of the list. Atoms outside of the grid are placed in
+ * the nearest border cell; since two nearby atoms then still lie within
+ * reach cells of each other, no clashes are missed.<br /><br />
+ *
+ * A periodic cell list instead spans a box whose opposite faces meet, as
+ * the simulation box of a molecular dynamics snapshot. Coordinates are
+ * wrapped into the box to find their cells, the cells near a cell wrap
+ * around the faces, and distances are those to the nearest image of an
+ * atom, so that clashes across the faces are found without copying any
+ * atoms. The same (2 * reach + 1)<sup>3</sup> cells are looked in as for
+ * a list that is not periodic.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class CellList {
+    // Space around the atoms that a cell list is made to span, in
+    // Ångström, so that atoms that move a little stay inside the grid.
+    public final static double MARGIN = 5.0;
+
+    private double[] origin = new double[3];
+    private int[]    dims   = new int[3];
+    private double   unitsize;
+    private int      reach;
+
+    private int[] head;     // First atom of each cell, -1 if empty
+    private int[] next;     // Next atom in the same cell, -1 if last
+    private int[] prev;     // Previous atom in the same cell, -1 if first
+    private int[] cellOf;   // Cell of each atom, -1 if not in the list
+    private int   size;     // Number of atoms in the list
+    private double[] period; // Lengths of the periodic box, null if not periodic
+    // Box holding the grid and every atom put in the list since it was
+    // cleared, which the border cells reach out to.
+    private double[] lower = new double[3];
+    private double[] upper = new double[3];
+
+    /**Creates an empty cell list spanning the box from min to max, with
+     * cells of the given size.
+     *
+     * @param unitsize The size of each cell.
+     * @param reach How many cells away in each dimension that are nearby.
+     *        unitsize * reach must be at least the largest clash distance.
+     * @param min The smallest coordinates of the box.
+     * @param max The largest coordinates of the box.
+     * @param capacity The number of atoms the list can hold before it
+     *        has to grow.
+     */
+    public CellList(double unitsize,
+                    int reach,
+                    double[] min,
+                    double[] max,
+                    int capacity) {
+        this.unitsize = unitsize;
+        this.reach = reach;
+        for(int d = 0; d < 3; d++) {
+            origin[d] = min[d];
+            dims[d] = Math.max(1, (int) Math.floor((max[d] - min[d]) / unitsize) + 1);
+        }
+        allocate(capacity);
+    }
+
+    /**Creates an empty periodic cell list of the box from the origin to
+     * the given lengths, with cells of at least the given size. Each
+     * length is split into whole cells, the last of which also holds
+     * what is left over, so that no cell is smaller than unitsize.
+     *
+     * @param unitsize The smallest size of each cell.
+     * @param reach How many cells away in each dimension that are nearby.
+     *        unitsize * reach must be at least the largest clash distance.
+     * @param box The lengths of the box along x, y and z.
+     * @param capacity The number of atoms the list can hold before it
+     *        has to grow.
+     * @throws IllegalArgumentException If the box is less than twice
+     *         unitsize * reach along any axis, as then an atom could clash
+     *         with more than one image of another.
+     */
+    public CellList(double unitsize,
+                    int reach,
+                    double[] box,
+                    int capacity) {
+        this.unitsize = unitsize;
+        this.reach = reach;
+        for(int d = 0; d < 3; d++) {
+            if(!(box[d] >= 2 * unitsize * reach))
+                throw new IllegalArgumentException("Box of " + box[d] +
+                        " Å is less than twice the clash distance.");
+            dims[d] = Math.max(1, (int) Math.floor(box[d] / unitsize));
+        }
+        period = box.clone();
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        head   = new int[dims[0] * dims[1] * dims[2]];
+        next   = new int[capacity];
+        prev   = new int[capacity];
+        cellOf = new int[capacity];
+        clear();
+    }
+
+    public int    getSize()      { return size;     }
+    public int    getCellCount() { return head.length; }
+    public double getUnitSize()  { return unitsize; }
+    public int    getReach()     { return reach;    }
+    public boolean isPeriodic()  { return period != null; }
+
+    /**Returns the number of cells that hold at least one atom.
+     *
+     * @return The number of occupied cells.
+     */
+    public int getOccupiedCount() {
+        int occupied = 0;
+        for(int i = 0; i < head.length; i++)
+            if(head[i] != -1)
+                occupied++;
+        return occupied;
+    }
+
+    /**Empties the list, without freeing any memory.
+     */
+    public void clear() {
+        Arrays.fill(head, -1);
+        Arrays.fill(cellOf, -1);
+        size = 0;
+        for(int d = 0; d < 3; d++) {
+            lower[d] = origin[d];
+            upper[d] = origin[d] + dims[d] * unitsize;
+        }
+    }
+
+    /**Grows the box of the atoms to hold the given point.
+     */
+    private void extend(double x, double y, double z) {
+        if(x < lower[0]) lower[0] = x; else if(x > upper[0]) upper[0] = x;
+        if(y < lower[1]) lower[1] = y; else if(y > upper[1]) upper[1] = y;
+        if(z < lower[2]) lower[2] = z; else if(z > upper[2]) upper[2] = z;
+    }
+
+    /**Returns whether or not the atom is in the list.
+     *
+     * @param atom The number of the atom.
+     * @return True if the atom is in the list.
+     */
+    public boolean contains(int atom) {
+        return atom < cellOf.length && cellOf[atom] != -1;
+    }
+
+    /**Returns the cell coordinate in dimension d of the given coordinate,
+     * clamped to the grid, or, for a periodic list, wrapped into the box.
+     */
+    private int cellFor(double coord, int d) {
+        if(period != null)
+            coord -= period[d] * Math.floor(coord / period[d]);
+        int c = (int) Math.floor((coord - origin[d]) / unitsize);
+        return c < 0 ? 0 : (c >= dims[d] ? dims[d] - 1 : c);
+    }
+
+    /**Returns the cell ordinal of the given point, clamped to the grid.
+     *
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param z The z coordinate.
+     * @return The ordinal of the cell the point lies in.
+     */
+    public int getCell(double x, double y, double z) {
+        return (cellFor(z, 2) * dims[1] + cellFor(y, 1)) * dims[0] +
+               cellFor(x, 0);
+    }
+
+    /**Returns the first of the cells within r cells of cell c in
+     * dimension d. For a periodic list, it may lie outside of the grid,
+     * and has to be wrapped by wrap(), but if the cells within r cells
+     * would go all the way around, each cell is only included once.
+     */
+    private int first(int c, int d, int r) {
+        if(period == null)
+            return Math.max(0, c - r);
+        return dims[d] > 2 * r ? c - r : 0;
+    }
+
+    /**Returns the last of the cells within r cells of cell c in
+     * dimension d, as first() does.
+     */
+    private int last(int c, int d, int r) {
+        if(period == null)
+            return Math.min(dims[d] - 1, c + r);
+        return dims[d] > 2 * r ? c + r : dims[d] - 1;
+    }
+
+    /**Wraps a cell coordinate given by first() ... last() into the grid.
+     */
+    private int wrap(int c, int d) {
+        return c < 0 ? c + dims[d] : (c >= dims[d] ? c - dims[d] : c);
+    }
+
+    /**Returns the difference of two coordinates in dimension d, or, for
+     * a periodic list, the difference to the nearest image.
+     */
+    private double image(double delta, int d) {
+        if(period == null)
+            return delta;
+        return delta - period[d] * Math.rint(delta / period[d]);
+    }
+
+    private void link(int atom, int cell) {
+        cellOf[atom] = cell;
+        prev[atom] = -1;
+        next[atom] = head[cell];
+        if(head[cell] != -1)
+            prev[head[cell]] = atom;
+        head[cell] = atom;
+    }
+
+    private void unlink(int atom) {
+        int cell = cellOf[atom];
+        if(prev[atom] != -1)
+            next[prev[atom]] = next[atom];
+        else
+            head[cell] = next[atom];
+        if(next[atom] != -1)
+            prev[next[atom]] = prev[atom];
+    }
+
+    /**Makes room for atoms numbered up to capacity - 1.
+     */
+    private void ensureCapacity(int capacity) {
+        if(capacity <= cellOf.length)
+            return;
+        int old = cellOf.length;
+        capacity = Math.max(capacity, old * 2);
+        next   = Arrays.copyOf(next, capacity);
+        prev   = Arrays.copyOf(prev, capacity);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        Arrays.fill(cellOf, old, capacity, -1);
+    }
+
+    /**Puts an atom in the cell of the given point. If the atom is
+     * already in the list, it is moved there.
+     *
+     * @param atom The number of the atom.
+     * @param x The x coordinate of the atom.
+     * @param y The y coordinate of the atom.
+     * @param z The z coordinate of the atom.
+     */
+    public void add(int atom, double x, double y, double z) {
+        ensureCapacity(atom + 1);
+        if(cellOf[atom] != -1) {
+            move(atom, x, y, z);
+            return;
+        }
+        extend(x, y, z);
+        link(atom, getCell(x, y, z));
+        size++;
+    }
+
+    /**Removes an atom from the list, if it is in it.
+     *
+     * @param atom The number of the atom.
+     */
+    public void remove(int atom) {
+        if(!contains(atom))
+            return;
+        unlink(atom);
+        cellOf[atom] = -1;
+        size--;
+    }
+
+    /**Moves an atom of the list to the cell of the given point, if it is
+     * not already in that cell.
+     *
+     * @param atom The number of the atom.
+     * @param x The new x coordinate of the atom.
+     * @param y The new y coordinate of the atom.
+     * @param z The new z coordinate of the atom.
+     * @return True if the atom changed cell.
+     */
+    public boolean move(int atom, double x, double y, double z) {
+        extend(x, y, z);
+        int cell = getCell(x, y, z);
+        if(cell == cellOf[atom])
+            return false;
+        unlink(atom);
+        link(atom, cell);
+        return true;
+    }
+
+    /**Interface for receiving the atoms near a point from visitNear().
+     */
+    public interface AtomVisitor {
+        /**Called once for every atom in the cells near the point.
+         *
+         * @param atom The number of the atom.
+         */
+        void visit(int atom);
+    }
+
+    /**Calls the visitor for every atom in the cells within reach of the
+     * cell of the given point. The visitor has to check the distances.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @param z The z coordinate of the point.
+     * @param visitor AtomVisitor that receives the atoms.
+     */
+    public void visitNear(double x, double y, double z, AtomVisitor visitor) {
+        int cx = cellFor(x, 0), cy = cellFor(y, 1), cz = cellFor(z, 2);
+        int khi = last(cz, 2, reach), jhi = last(cy, 1, reach), ihi = last(cx, 0, reach);
+        for(int k = first(cz, 2, reach); k <= khi; k++)
+        for(int j = first(cy, 1, reach); j <= jhi; j++)
+        for(int i = first(cx, 0, reach); i <= ihi; i++)
+            for(int a = head[(wrap(k, 2) * dims[1] + wrap(j, 1)) * dims[0] + wrap(i, 0)];
+                a != -1; a = next[a])
+                visitor.visit(a);
+    }
+
+    /**Calls the visitor for every atom of the list within the given
+     * distance of the point, which may be larger than the clash distance.
+     * The cells up to distance / unitsize cells away are looked in. For a
+     * periodic list, the distance is that to the nearest image.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @param z The z coordinate of the point.
+     * @param distance The largest distance of the atoms to visit.
+     * @param coords Coordinates of the atoms of the list, as x0, y0, z0,
+     *        x1, ...
+     * @param visitor AtomVisitor that receives the atoms.
+     * @return The number of atoms whose distances were calculated.
+     */
+    public int visitWithin(double x, double y, double z,
+                           double distance,
+                           double[] coords,
+                           AtomVisitor visitor) {
+        int cells = (int) Math.ceil(distance / unitsize);
+        int cx = cellFor(x, 0), cy = cellFor(y, 1), cz = cellFor(z, 2);
+        double limit = distance * distance;
+        int comparisons = 0;
+        int khi = last(cz, 2, cells), jhi = last(cy, 1, cells), ihi = last(cx, 0, cells);
+        for(int k = first(cz, 2, cells); k <= khi; k++)
+        for(int j = first(cy, 1, cells); j <= jhi; j++)
+        for(int i = first(cx, 0, cells); i <= ihi; i++)
+            for(int a = head[(wrap(k, 2) * dims[1] + wrap(j, 1)) * dims[0] + wrap(i, 0)];
+                a != -1; a = next[a]) {
+                comparisons++;
+                double dx = image(coords[a * 3]     - x, 0);
+                double dy = image(coords[a * 3 + 1] - y, 1);
+                double dz = image(coords[a * 3 + 2] - z, 2);
+                if(dx * dx + dy * dy + dz * dz <= limit)
+                    visitor.visit(a);
+            }
+        return comparisons;
+    }
+
+    /**Finds the atoms of the list nearest to the point, and puts them in
+     * the heap, which holds as many atoms as are wanted. The cells are
+     * searched in shells of growing size around the cell of the point:
+     * first the cell itself, then the 26 cells around it, and so on.
+     * Before a shell is searched, the distance from the point to the
+     * nearest cell of the shell is found by shellDistance2(). It only
+     * grows with the shells, so the search stops as soon as the heap is
+     * full and that distance is not less than the farthest atom in it.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @param z The z coordinate of the point.
+     * @param maxDistance Atoms farther away than this are not wanted;
+     *        positive infinity to always find as many atoms as the heap
+     *        holds.
+     * @param coords Coordinates of the atoms of the list, as x0, y0, z0,
+     *        x1, ...
+     * @param heap Empty NeighbourHeap that receives the nearest atoms.
+     * @return The number of atoms whose distances were calculated.
+     * @throws IllegalStateException If the list is periodic, as the
+     *         shells do not wrap around the box.
+     */
+    public int nearest(double x, double y, double z,
+                       double maxDistance,
+                       double[] coords,
+                       NeighbourHeap heap) {
+        if(period != null)
+            throw new IllegalStateException("Nearest atoms are not found in a periodic cell list.");
+        int cx = cellFor(x, 0), cy = cellFor(y, 1), cz = cellFor(z, 2);
+        int shells = Math.max(Math.max(Math.max(cx, dims[0] - 1 - cx),
+                                       Math.max(cy, dims[1] - 1 - cy)),
+                              Math.max(cz, dims[2] - 1 - cz));
+        double limit = maxDistance * maxDistance;
+        double bx = gap2(x, 0, cx), by = gap2(y, 1, cy);
+        int comparisons = 0;
+        for(int s = 0; s <= shells; s++) {
+            if(s > 0) {
+                double bound = shellDistance2(x, y, z, cx, cy, cz, s);
+                if(bound > limit || bound >= heap.getMaxDistance2())
+                    break;
+            }
+            // Planes, rows and cells that are too far away to hold an
+            // atom nearer than those found so far are skipped. In the
+            // dimensions that are not yet chosen, no cell is nearer than
+            // the cell of the point.
+            for(int k = Math.max(0, cz - s); k <= Math.min(dims[2] - 1, cz + s); k++) {
+                double gk = gap2(z, 2, k);
+                if(gk + bx + by > limit || gk + bx + by >= heap.getMaxDistance2())
+                    continue;
+                for(int j = Math.max(0, cy - s); j <= Math.min(dims[1] - 1, cy + s); j++) {
+                    double gj = gk + gap2(y, 1, j);
+                    if(gj + bx > limit || gj + bx >= heap.getMaxDistance2())
+                        continue;
+                    // Inside the shell, only the cells on its faces are new.
+                    boolean face = k == cz - s || k == cz + s || j == cy - s || j == cy + s;
+                    int step = face || s == 0 ? 1 : 2 * s;
+                    for(int i = cx - s; i <= cx + s; i += step) {
+                        if(i < 0 || i >= dims[0])
+                            continue;
+                        double gi = gj + gap2(x, 0, i);
+                        if(gi > limit || gi >= heap.getMaxDistance2())
+                            continue;
+                        for(int a = head[(k * dims[1] + j) * dims[0] + i]; a != -1; a = next[a]) {
+                            comparisons++;
+                            double dx = coords[a * 3]     - x;
+                            double dy = coords[a * 3 + 1] - y;
+                            double dz = coords[a * 3 + 2] - z;
+                            double d2 = dx * dx + dy * dy + dz * dz;
+                            if(d2 <= limit)
+                                heap.offer(a, d2);
+                        }
+                    }
+                }
+            }
+        }
+        return comparisons;
+    }
+
+    /**Returns the squared distance from the point to the nearest cell of
+     * the shell s cells away from the cell (cx, cy, cz) of the point. A
+     * cell of the shell is s cells away in at least one dimension, and at
+     * most s cells away in the others, where the cell of the point itself
+     * is nearest. The border cells reach out to the box of the atoms, as
+     * the atoms outside of the grid are put in them.
+     */
+    private double shellDistance2(double x, double y, double z,
+                                  int cx, int cy, int cz, int s) {
+        double bx = gap2(x, 0, cx), by = gap2(y, 1, cy), bz = gap2(z, 2, cz);
+        double sx = Math.min(gap2(x, 0, cx - s), gap2(x, 0, cx + s));
+        double sy = Math.min(gap2(y, 1, cy - s), gap2(y, 1, cy + s));
+        double sz = Math.min(gap2(z, 2, cz - s), gap2(z, 2, cz + s));
+        return Math.min(sx + by + bz, Math.min(bx + sy + bz, bx + by + sz));
+    }
+
+    /**Returns the squared distance in dimension d from the coordinate to
+     * cell c of that dimension, or positive infinity if there is no such
+     * cell.
+     */
+    private double gap2(double coord, int d, int c) {
+        if(c < 0 || c >= dims[d])
+            return Double.POSITIVE_INFINITY;
+        double lo = c == 0 ? lower[d] : origin[d] + c * unitsize;
+        double hi = c == dims[d] - 1 ? upper[d] : origin[d] + (c + 1) * unitsize;
+        double gap = coord < lo ? lo - coord : (coord > hi ? coord - hi : 0);
+        return gap * gap;
+    }
+
+    /**Empties the list and puts atoms 0 ... n - 1 in their cells.
+     *
+     * @param coords Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param n The number of atoms.
+     */
+    public void rebuild(double[] coords, int n) {
+        ensureCapacity(n);
+        clear();
+        for(int i = 0; i < n; i++) {
+            extend(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]);
+            link(i, getCell(coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]));
+        }
+        size = n;
+    }
+
+    /**Moves the atoms whose coordinates now lie in another cell than the
+     * one they are in.
+     *
+     * @param coords New coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @return The number of atoms that were moved to another cell.
+     */
+    public int update(double[] coords) {
+        int moved = 0;
+        for(int i = 0; i < cellOf.length; i++) {
+            if(cellOf[i] != -1 &&
+               move(i, coords[i * 3], coords[i * 3 + 1], coords[i * 3 + 2]))
+                moved++;
+        }
+        return moved;
+    }
+
+    /**Counts the clashes between a set of query atoms and the atoms of the
+     * list. For each query atom, the atoms of the cells within reach of
+     * its cell are compared against it. For a periodic list, the cells
+     * wrap around the box, and each atom is compared with the nearest
+     * image of the query atom.
+     *
+     * @param query Coordinates of the query atoms, as x0, y0, z0, x1, ...
+     * @param queryTypes RadiusTable types of the query atoms.
+     * @param n The number of query atoms.
+     * @param coords Coordinates of the atoms of the list.
+     * @param types RadiusTable types of the atoms of the list.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param counters Array of length 2, which will have the number of
+     *        comparisons and visited cells added to it.
+     * @return The number of clashing pairs.
+     */
+    public long countClashes(double[] query,
+                             int[] queryTypes,
+                             int n,
+                             double[] coords,
+                             int[] types,
+                             RadiusTable radii,
+                             long[] counters) {
+        long clashes = 0;
+        long comparisons = 0;
+        long visited = 0;
+        for(int q = 0; q < n; q++) {
+            double x = query[q * 3], y = query[q * 3 + 1], z = query[q * 3 + 2];
+            int cx = cellFor(x, 0), cy = cellFor(y, 1), cz = cellFor(z, 2);
+            int type = queryTypes[q];
+            int khi = last(cz, 2, reach), jhi = last(cy, 1, reach), ihi = last(cx, 0, reach);
+            for(int k = first(cz, 2, reach); k <= khi; k++)
+            for(int j = first(cy, 1, reach); j <= jhi; j++)
+            for(int i = first(cx, 0, reach); i <= ihi; i++) {
+                visited++;
+                for(int a = head[(wrap(k, 2) * dims[1] + wrap(j, 1)) * dims[0] + wrap(i, 0)];
+                    a != -1; a = next[a]) {
+                    comparisons++;
+                    double dx = image(coords[a * 3]     - x, 0);
+                    double dy = image(coords[a * 3 + 1] - y, 1);
+                    double dz = image(coords[a * 3 + 2] - z, 2);
+                    if(dx * dx + dy * dy + dz * dz < radii.getCutoff2(type, types[a]))
+                        clashes++;
+                }
+            }
+        }
+        counters[0] += comparisons;
+        counters[1] += visited;
+        return clashes;
+    }
+}
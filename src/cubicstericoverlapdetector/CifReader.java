@@ -0,0 +1,392 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**Reads the atoms of an mmCIF (PDBx) file, the format that the PDB uses
+ * for structures too large for *.pdb files, with more than 99999 atoms
+ * or residue numbers of more than four digits. Only the loop of the
+ * _atom_site category is read; its columns are found by name from the
+ * header of the loop, so they may come in any order.<br /><br />
+ *
+ * The file is read line by line, and each line is split into tokens by
+ * hand, without regular expressions. A token is only kept as its line
+ * and the positions of its first and last character, and numbers are
+ * parsed straight from the line. Names, elements and chain IDs repeat
+ * often, so they are taken from a small cache of Strings instead of
+ * being created for every atom. The Atoms are the same as those read
+ * from a *.pdb file: the author's residue numbers, chain IDs and atom
+ * names are used where the file has them, as those are the ones of the
+ * *.pdb file of the same structure. A Selection is tested on the tokens
+ * of each row, so rows that are not selected never become Atoms.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class CifReader {
+    private final static String CATEGORY = "_atom_site.";
+
+    // The columns of _atom_site that are read. Where both a label_ and an
+    // auth_ column exist, the auth_ one is used if present.
+    private final static String[] COLUMNS = {
+        "group_PDB", "id", "type_symbol", "label_atom_id", "auth_atom_id",
+        "label_alt_id", "label_comp_id", "auth_comp_id", "label_asym_id",
+        "auth_asym_id", "label_seq_id", "auth_seq_id", "pdbx_PDB_ins_code",
+        "Cartn_x", "Cartn_y", "Cartn_z", "pdbx_PDB_model_num", "occupancy"
+    };
+    private final static int GROUP = 0, ID = 1, ELEMENT = 2, LABELATOM = 3,
+            AUTHATOM = 4, ALTLOC = 5, LABELCOMP = 6, AUTHCOMP = 7,
+            LABELASYM = 8, AUTHASYM = 9, LABELSEQ = 10, AUTHSEQ = 11,
+            ICODE = 12, X = 13, Y = 14, Z = 15, MODEL = 16, OCCUPANCY = 17;
+
+    private final static int CACHESIZE = 1024;
+
+    private final String filename;
+    private final Selection selection;
+    private final String[] cache = new String[CACHESIZE];
+
+    // The tokens of the row being read, per column of the loop: the line
+    // they are in (null for missing values), and their first and last
+    // positions.
+    private String[] tokenLine = new String[0];
+    private int[] tokenStart = new int[0];
+    private int[] tokenEnd = new int[0];
+    private int columns;
+    // Column of the loop of each of COLUMNS, or -1 if it is missing.
+    private final int[] column = new int[COLUMNS.length];
+
+    // The fields of the row being read, for the Selection.
+    private final Selection.Record record = new Selection.Record() {
+        @Override
+        public boolean is(Selection.Field field, String value) {
+            int col = column[columnOf(field)];
+            if(field == Selection.Field.ELEMENT && (col < 0 || tokenLine[col] == null)) {
+                // Without an element, it is the first letter of the name,
+                // as in makeAtom().
+                col = column[columnOf(Selection.Field.NAME)];
+                if(col < 0 || tokenLine[col] == null)
+                    return value.length() == 0;
+                return value.length() == 1 &&
+                       tokenLine[col].regionMatches(true, tokenStart[col], value, 0, 1);
+            }
+            if(col < 0 || tokenLine[col] == null)
+                return value.length() == 0;
+            int start = tokenStart[col];
+            return tokenEnd[col] - start == value.length() &&
+                   tokenLine[col].regionMatches(field == Selection.Field.ELEMENT,
+                                                start, value, 0, value.length());
+        }
+        @Override
+        public int getResSeq() throws IOException {
+            return number(column[AUTHSEQ] >= 0 ? AUTHSEQ : LABELSEQ);
+        }
+    };
+
+    private CifReader(String filename, Selection selection) {
+        this.filename = filename;
+        this.selection = selection;
+    }
+
+    /**Returns whether the file is an mmCIF file, as told by its name.
+     *
+     * @param filename Name of the file.
+     * @return True if the name ends with .cif or .mmcif, possibly followed
+     *         by .gz.
+     */
+    public static boolean isCif(String filename) {
+        String name = filename.toLowerCase(Locale.ROOT);
+        if(name.endsWith(".gz"))
+            name = name.substring(0, name.length() - 3);
+        return name.endsWith(".cif") || name.endsWith(".mmcif");
+    }
+
+    /**Reads the atoms of an mmCIF file, as Utils.readPDB() does for a
+     * *.pdb file.
+     *
+     * @param arr ArrayList which will contain all atoms of the file.
+     * @param filename Name of the mmCIF file to read.
+     * @param dmin If not null, this list will contain the smallest
+     *        coordinates of all the Atoms.
+     * @param dmax If not null, this list will contain the largest
+     *        coordinates of all the Atoms.
+     * @throws IOException If the file could not be read, or holds an
+     *         invalid number or no coordinates.
+     */
+    public static void read(ArrayList<Atom> arr,
+                            String filename,
+                            Double[] dmin,
+                            Double[] dmax) throws IOException {
+        read(arr, filename, dmin, dmax, Selection.ALL);
+    }
+
+    /**Same as read(arr, filename, dmin, dmax), but only the atoms chosen
+     * by the Selection are read.
+     *
+     * @param arr ArrayList which will contain the selected atoms of the
+     *        file.
+     * @param filename Name of the mmCIF file to read.
+     * @param dmin If not null, this list will contain the smallest
+     *        coordinates of the selected Atoms.
+     * @param dmax If not null, this list will contain the largest
+     *        coordinates of the selected Atoms.
+     * @param selection Selection of the atoms to read.
+     * @throws IOException If the file could not be read, or holds an
+     *         invalid number or no coordinates.
+     */
+    public static void read(ArrayList<Atom> arr,
+                            String filename,
+                            Double[] dmin,
+                            Double[] dmax,
+                            Selection selection) throws IOException {
+        BufferedReader br = Utils.openReader(filename);
+        try {
+            new CifReader(filename, selection).read(br, arr, dmin, dmax);
+        } finally {
+            br.close();
+        }
+    }
+
+    private void read(BufferedReader br, ArrayList<Atom> arr,
+                      Double[] dmin, Double[] dmax) throws IOException {
+        String line = br.readLine();
+        while(line != null) {
+            if(!line.trim().equals("loop_")) {
+                line = br.readLine();
+                continue;
+            }
+
+            // Read the names of the columns of the loop.
+            ArrayList<String> names = new ArrayList<String>();
+            while((line = br.readLine()) != null && line.trim().startsWith("_"))
+                names.add(line.trim().split("\\s")[0]);
+            if(names.size() == 0 || !names.get(0).startsWith(CATEGORY))
+                continue;
+            setColumns(names);
+
+            // Read the rows, which may span several lines, until the loop
+            // ends with a new item, loop or data block.
+            int filled = 0;
+            for(; line != null; line = br.readLine()) {
+                if(line.startsWith(";")) {
+                    // A text field, which is a single value.
+                    while((line = br.readLine()) != null && !line.startsWith(";"))
+                        ;
+                    tokenLine[filled++] = null;
+                    if(filled == columns) {
+                        addAtom(arr, dmin, dmax);
+                        filled = 0;
+                    }
+                    if(line == null)
+                        break;
+                }
+                else {
+                    int i = 0;
+                    int n = line.length();
+                    while(true) {
+                        while(i < n && isSpace(line.charAt(i)))
+                            i++;
+                        if(i >= n || line.charAt(i) == '#')
+                            break;
+                        char c = line.charAt(i);
+                        if(filled == 0 && (c == '_' || startsWord(line, i, "loop_") ||
+                                           startsWord(line, i, "data_")))
+                            return;
+                        int start = i;
+                        int end;
+                        if(c == '\'' || c == '"') {
+                            // A quoted value ends at a quote followed by
+                            // white space.
+                            start++;
+                            end = start;
+                            while(end < n && !(line.charAt(end) == c &&
+                                  (end + 1 == n || isSpace(line.charAt(end + 1)))))
+                                end++;
+                            i = end + 1;
+                        }
+                        else {
+                            while(i < n && !isSpace(line.charAt(i)))
+                                i++;
+                            end = i;
+                            if(end - start == 1 && (c == '.' || c == '?')) {
+                                tokenLine[filled++] = null;
+                                if(filled == columns) {
+                                    addAtom(arr, dmin, dmax);
+                                    filled = 0;
+                                }
+                                continue;
+                            }
+                        }
+                        tokenLine[filled]  = line;
+                        tokenStart[filled] = start;
+                        tokenEnd[filled]   = end;
+                        filled++;
+                        if(filled == columns) {
+                            addAtom(arr, dmin, dmax);
+                            filled = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**Finds the columns of the _atom_site loop from the names of its
+     * columns, and makes room for the tokens of a row.
+     */
+    private void setColumns(ArrayList<String> names) throws IOException {
+        columns = names.size();
+        tokenLine  = new String[columns];
+        tokenStart = new int[columns];
+        tokenEnd   = new int[columns];
+        for(int k = 0; k < COLUMNS.length; k++)
+            column[k] = names.indexOf(CATEGORY + COLUMNS[k]);
+        if(column[X] < 0 || column[Y] < 0 || column[Z] < 0)
+            throw new IOException("No coordinates in " + filename);
+    }
+
+    /**Returns the one of COLUMNS that holds the given field, preferring
+     * the auth_ columns as makeAtom() does.
+     */
+    private int columnOf(Selection.Field field) {
+        switch(field) {
+        case GROUP:   return GROUP;
+        case CHAIN:   return column[AUTHASYM] >= 0 ? AUTHASYM : LABELASYM;
+        case RESNAME: return column[AUTHCOMP] >= 0 ? AUTHCOMP : LABELCOMP;
+        case NAME:    return column[AUTHATOM] >= 0 ? AUTHATOM : LABELATOM;
+        case ELEMENT: return ELEMENT;
+        default:      return ALTLOC;
+        }
+    }
+
+    /**Adds an Atom of the row that was read to arr, if the row is
+     * selected.
+     */
+    private void addAtom(ArrayList<Atom> arr, Double[] dmin, Double[] dmax)
+            throws IOException {
+        if(selection.matches(record))
+            arr.add(makeAtom(dmin, dmax));
+    }
+
+    /**Creates an Atom from the tokens of the row that was read.
+     */
+    private Atom makeAtom(Double[] dmin, Double[] dmax) throws IOException {
+        String atomName = text(column[AUTHATOM] >= 0 ? AUTHATOM : LABELATOM);
+        String resName  = text(column[AUTHCOMP] >= 0 ? AUTHCOMP : LABELCOMP);
+        String chainID  = text(column[AUTHASYM] >= 0 ? AUTHASYM : LABELASYM);
+        int resSeq      = number(column[AUTHSEQ] >= 0 ? AUTHSEQ : LABELSEQ);
+        String element  = text(ELEMENT);
+        if(element.length() == 0 && atomName.length() > 0)
+            element = atomName.substring(0, 1);
+        String[] coords = {raw(X), raw(Y), raw(Z)};
+
+        Atom atom = new Atom(number(ID),
+                             atomName,
+                             text(ALTLOC),
+                             resName,
+                             chainID,
+                             resSeq,
+                             text(ICODE),
+                             element,
+                             coords);
+        atom.setModel(number(MODEL));
+        if(column[OCCUPANCY] >= 0 && tokenLine[column[OCCUPANCY]] != null)
+            atom.setOccupancy(Double.parseDouble(raw(OCCUPANCY)));
+        if(dmin != null && dmax != null)
+            Utils.updateBounds(atom, dmin, dmax);
+        return atom;
+    }
+
+    /**Returns the value of the given one of COLUMNS from the cache, or ""
+     * if it is missing. A slot of the cache is chosen from the hash of
+     * the characters, and a String is only created if the slot holds
+     * another value.
+     */
+    private String text(int k) {
+        int col = column[k];
+        if(col < 0 || tokenLine[col] == null)
+            return "";
+        String line = tokenLine[col];
+        int start = tokenStart[col];
+        int length = tokenEnd[col] - start;
+        int hash = 0;
+        for(int i = start; i < start + length; i++)
+            hash = 31 * hash + line.charAt(i);
+        int slot = (hash ^ (hash >>> 16)) & (CACHESIZE - 1);
+        String s = cache[slot];
+        if(s == null || s.length() != length ||
+           !line.regionMatches(start, s, 0, length)) {
+            s = line.substring(start, start + length);
+            cache[slot] = s;
+        }
+        return s;
+    }
+
+    /**Returns the value of the given one of COLUMNS as a new String.
+     */
+    private String raw(int k) throws IOException {
+        int col = column[k];
+        if(tokenLine[col] == null)
+            throw new IOException("Missing coordinate in " + filename);
+        return tokenLine[col].substring(tokenStart[col], tokenEnd[col]);
+    }
+
+    /**Parses the integer value of the given one of COLUMNS, which is 0
+     * if it is missing.
+     */
+    private int number(int k) throws IOException {
+        int col = column[k];
+        if(col < 0 || tokenLine[col] == null)
+            return 0;
+        String line = tokenLine[col];
+        int i = tokenStart[col];
+        int end = tokenEnd[col];
+        boolean negative = i < end && line.charAt(i) == '-';
+        if(negative || (i < end && line.charAt(i) == '+'))
+            i++;
+        if(i == end)
+            throw invalid(col);
+        long value = 0;
+        for(; i < end; i++) {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9')
+                throw invalid(col);
+            value = value * 10 + (c - '0');
+            if(value > Integer.MAX_VALUE)
+                throw invalid(col);
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private IOException invalid(int col) {
+        return new IOException("Invalid number in " + filename + ": " +
+                tokenLine[col].substring(tokenStart[col], tokenEnd[col]));
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean startsWord(String line, int i, String word) {
+        return line.regionMatches(true, i, word, 0, word.length());
+    }
+}
@@ -0,0 +1,55 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+/**The clashing pairs that appeared and disappeared between two calls to
+ * EditableIndex.takeDelta(). A pair is given as a long, holding the
+ * number of the atom of the first molecule in the upper 32 bits and the
+ * number of the atom of the second molecule in the lower 32 bits; use
+ * getFirst() and getSecond() to take it apart.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class ClashDelta {
+    private long[] added;
+    private long[] removed;
+
+    public ClashDelta(long[] added, long[] removed) {
+        this.added = added;
+        this.removed = removed;
+    }
+
+    public long[] getAdded()   { return added;   }
+    public long[] getRemoved() { return removed; }
+
+    /**Returns whether or not no pairs appeared or disappeared.
+     *
+     * @return True if the clashes are the same as before.
+     */
+    public boolean isEmpty() {
+        return added.length == 0 && removed.length == 0;
+    }
+
+    public static long getPair(int first, int second) {
+        return ((long) first << 32) | (second & 0xffffffffL);
+    }
+    public static int getFirst(long pair)  { return (int) (pair >>> 32); }
+    public static int getSecond(long pair) { return (int) pair; }
+}
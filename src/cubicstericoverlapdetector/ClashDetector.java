@@ -0,0 +1,405 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**Entry point for using the clash detection from other Java programs.
+ * A ClashDetector builds a ClashIndex of one molecule, from coordinates,
+ * Atoms or a *.pdb file, and queries it with other molecules, giving a
+ * ClashResult with the clashing pairs and counters of the work done.
+ * Large molecules may be indexed outside of the heap, in direct memory or
+ * in a memory mapped index file that can be loaded by other processes.
+ * The coordinates of the indexes are kept in the Precision given to the
+ * ClashDetector; see ClashIndex.<br /><br />
+ *
+ * Unlike the methods of Utils, nothing here is logged or written to an
+ * OutputStream, and there is no global state: problems are reported by
+ * exceptions, and all results are returned. A ClashDetector and the
+ * ClashIndexes it builds are immutable, so one index may be queried by
+ * any number of threads at once.<br /><br />
+ *
+ * The queries that return a ClashResult allocate the result. Where that
+ * matters, each thread may instead keep a QueryContext, get the types of
+ * its atoms once from getTypes(), and query with those; such a query
+ * creates no objects once the buffers of the context have grown to fit.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public final class ClashDetector {
+    private final RadiusTable radii;
+    private final ClashIndex.Precision precision;
+
+    // Scratch space of the queries that return a ClashResult, one per
+    // thread, so that concurrent queries do not share any buffers.
+    private final ThreadLocal<QueryContext> contexts =
+            new ThreadLocal<QueryContext>() {
+        protected QueryContext initialValue() {
+            return new QueryContext();
+        }
+    };
+
+    /**Creates a ClashDetector where every atom has the radius
+     * Atom.ATOMRADIUS, as the command line program has by default.
+     */
+    public ClashDetector() {
+        this(RadiusTable.uniform(Atom.ATOMRADIUS));
+    }
+
+    /**Creates a ClashDetector with the given radii.
+     *
+     * @param radii RadiusTable with the radius of each element.
+     */
+    public ClashDetector(RadiusTable radii) {
+        this(radii, ClashIndex.Precision.DOUBLE);
+    }
+
+    /**Creates a ClashDetector with the given radii, whose indexes keep
+     * their coordinates in the given precision.
+     *
+     * @param radii RadiusTable with the radius of each element.
+     * @param precision How the indexes keep their coordinates.
+     */
+    public ClashDetector(RadiusTable radii, ClashIndex.Precision precision) {
+        if(radii == null)
+            throw new IllegalArgumentException("No RadiusTable given");
+        if(precision == null)
+            throw new IllegalArgumentException("No Precision given");
+        this.radii = radii;
+        this.precision = precision;
+    }
+
+    public RadiusTable getRadii()                { return radii;     }
+    public ClashIndex.Precision getPrecision()   { return precision; }
+
+    /**Indexes the atoms with the given coordinates and elements.
+     *
+     * @param coords Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param elements Element symbols of the atoms, such as "C" or "FE".
+     * @return The index of the atoms.
+     */
+    public ClashIndex index(double[] coords, String[] elements) {
+        checkLength(coords, elements.length);
+        return ClashIndex.build(coords, getTypes(elements), null, radii,
+                                precision);
+    }
+
+    /**Indexes the given Atoms.
+     *
+     * @param atoms The Atoms to index.
+     * @return The index of the atoms.
+     */
+    public ClashIndex index(List<Atom> atoms) {
+        int[] serials = new int[atoms.size()];
+        for(int i = 0; i < serials.length; i++)
+            serials[i] = atoms.get(i).getSerial();
+        return ClashIndex.build(getCoordinates(atoms), getTypes(atoms),
+                                serials, radii, precision);
+    }
+
+    /**Reads and indexes the atoms of a *.pdb file.
+     *
+     * @param filename Name of the *.pdb file to read.
+     * @return The index of the atoms.
+     * @throws IOException If the file could not be read.
+     */
+    public ClashIndex index(String filename) throws IOException {
+        return index(readAtoms(filename));
+    }
+
+    /**Reads and indexes the atoms of a *.pdb file outside of the heap.
+     * No Atom objects are made; the coordinates are read straight into
+     * direct buffers, so that the heap used does not depend on the size
+     * of the molecule.
+     *
+     * @param filename Name of the *.pdb file to read.
+     * @return The index of the atoms, in direct memory.
+     * @throws IOException If the file could not be read.
+     */
+    public ClashIndex indexOffHeap(String filename) throws IOException {
+        return indexPDB(filename, ClashIndex.Storage.DIRECT, null);
+    }
+
+    /**Reads and indexes the atoms of a *.pdb file into an index file,
+     * which is memory mapped. The index file can later be mapped again by
+     * load(), also by other processes, without reading the *.pdb file.
+     * An existing index file is overwritten.
+     *
+     * @param filename Name of the *.pdb file to read.
+     * @param indexfile Name of the index file to write.
+     * @return The index of the atoms, mapped from the index file.
+     * @throws IOException If a file could not be read or written.
+     */
+    public ClashIndex indexToFile(String filename, String indexfile)
+            throws IOException {
+        FileChannel file = FileChannel.open(Paths.get(indexfile),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return indexPDB(filename, ClashIndex.Storage.MAPPED, file);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**Maps an index file written by indexToFile(), for reading only.
+     * The index keeps the precision it was written with.
+     *
+     * @param indexfile Name of the index file.
+     * @return The index, mapped from the file.
+     * @throws IOException If the file could not be read, or was built
+     *         with other radii than those of this ClashDetector.
+     */
+    public ClashIndex load(String indexfile) throws IOException {
+        FileChannel file = FileChannel.open(Paths.get(indexfile),
+                                            StandardOpenOption.READ);
+        try {
+            return ClashIndex.load(file, radii);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**Reads the ATOM and HETATM records of a *.pdb file into direct
+     * buffers, and indexes them. The file is read twice: first to count
+     * the atoms, and then to read them. An mmCIF file is instead read
+     * into Atoms, which are copied to the buffers.
+     */
+    private ClashIndex indexPDB(String filename, ClashIndex.Storage storage,
+                                FileChannel file) throws IOException {
+        if(CifReader.isCif(filename)) {
+            List<Atom> atoms = readAtoms(filename);
+            int n = atoms.size();
+            checkCount(n, filename);
+            DoubleBuffer coords = allocateDoubles(n * 3);
+            IntBuffer types = allocateInts(n);
+            IntBuffer serials = allocateInts(n);
+            for(int i = 0; i < n; i++) {
+                Atom atom = atoms.get(i);
+                for(int d = 0; d < 3; d++)
+                    coords.put(i * 3 + d, atom.getCoordinate(d));
+                types.put(i, radii.getType(atom.getElement()));
+                serials.put(i, atom.getSerial());
+            }
+            return ClashIndex.build(coords, types, serials, n, radii, storage,
+                                    precision, file);
+        }
+
+        int n = 0;
+        BufferedReader br = Utils.openReader(filename);
+        try {
+            String line;
+            while((line = br.readLine()) != null)
+                if(line.startsWith("ATOM") || line.startsWith("HETATM"))
+                    n++;
+        } finally {
+            br.close();
+        }
+        checkCount(n, filename);
+
+        DoubleBuffer coords = allocateDoubles(n * 3);
+        IntBuffer types = allocateInts(n);
+        IntBuffer serials = allocateInts(n);
+        int i = 0;
+        br = Utils.openReader(filename);
+        try {
+            String line;
+            while((line = br.readLine()) != null && i < n) {
+                boolean hetatm = line.startsWith("HETATM");
+                if(!hetatm && !line.startsWith("ATOM"))
+                    continue;
+                // The coordinates end in column 54.
+                if(line.length() < 54)
+                    throw new IOException("Too short line in " + filename +
+                                          ": " + line);
+                serials.put(i, Integer.parseInt(line.substring(6, 12).trim()));
+                coords.put(i * 3,     TrajectoryReader.parseFixed(line, 30, 38));
+                coords.put(i * 3 + 1, TrajectoryReader.parseFixed(line, 38, 46));
+                coords.put(i * 3 + 2, TrajectoryReader.parseFixed(line, 46, 54));
+                String element = line.length() >= 78 ?
+                                 line.substring(76, 78).trim() : "";
+                if(element.length() == 0)
+                    element = Utils.guessElement(line.substring(12, 16), hetatm);
+                types.put(i, radii.getType(element));
+                i++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + filename + ": " +
+                                  e.getMessage());
+        } finally {
+            br.close();
+        }
+        return ClashIndex.build(coords, types, serials, i, radii, storage,
+                                precision, file);
+    }
+
+    /**Throws an IOException if the buffers of n atoms would be too large
+     * to allocate.
+     */
+    private static void checkCount(int n, String filename) throws IOException {
+        if(n > Integer.MAX_VALUE / 24)
+            throw new IOException("Too many atoms in " + filename);
+    }
+
+    /**Allocates a direct buffer of n doubles, in the native byte order.
+     */
+    private static DoubleBuffer allocateDoubles(int n) {
+        return ByteBuffer.allocateDirect(n * 8)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    /**Allocates a direct buffer of n ints, in the native byte order.
+     */
+    private static IntBuffer allocateInts(int n) {
+        return ByteBuffer.allocateDirect(n * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**Finds the clashes between the atoms with the given coordinates and
+     * elements and the atoms of the index.
+     *
+     * @param index ClashIndex built by this ClashDetector.
+     * @param coords Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param elements Element symbols of the atoms.
+     * @return The clashing pairs.
+     */
+    public ClashResult query(ClashIndex index, double[] coords, String[] elements) {
+        checkIndex(index);
+        checkLength(coords, elements.length);
+        QueryContext context = contexts.get();
+        int[] types = context.getTypes(elements.length);
+        for(int i = 0; i < elements.length; i++)
+            types[i] = radii.getType(elements[i]);
+        index.query(coords, types, elements.length, context);
+        return context.toResult();
+    }
+
+    /**Finds the clashes between the atoms with the given coordinates and
+     * types and the atoms of the index, and puts them in the context. No
+     * objects are created, once the buffers of the context are big enough.
+     *
+     * @param index ClashIndex built by this ClashDetector.
+     * @param coords Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param types Types of the atoms, as given by getTypes().
+     * @param context QueryContext of the calling thread, which receives
+     *        the clashing pairs.
+     * @return The number of clashing pairs.
+     */
+    public int query(ClashIndex index, double[] coords, int[] types,
+                     QueryContext context) {
+        checkIndex(index);
+        checkLength(coords, types.length);
+        index.query(coords, types, types.length, context);
+        return context.size();
+    }
+
+    /**Returns the types of the given elements in the RadiusTable of the
+     * detector, for queries with a QueryContext.
+     *
+     * @param elements Element symbols, such as "C" or "FE".
+     * @return The type of each element.
+     */
+    public int[] getTypes(String[] elements) {
+        int[] types = new int[elements.length];
+        for(int i = 0; i < elements.length; i++)
+            types[i] = radii.getType(elements[i]);
+        return types;
+    }
+
+    /**Finds the clashes between the given Atoms and the atoms of the index.
+     *
+     * @param index ClashIndex built by this ClashDetector.
+     * @param atoms The Atoms to query with.
+     * @return The clashing pairs, with the query atoms numbered in the
+     *         order of the list.
+     */
+    public ClashResult query(ClashIndex index, List<Atom> atoms) {
+        checkIndex(index);
+        QueryContext context = contexts.get();
+        int[] types = getTypes(atoms);
+        index.query(getCoordinates(atoms), types, types.length, context);
+        return context.toResult();
+    }
+
+    /**Finds the clashes between the atoms of a *.pdb file and the atoms
+     * of the index.
+     *
+     * @param index ClashIndex built by this ClashDetector.
+     * @param filename Name of the *.pdb file to read.
+     * @return The clashing pairs, with the query atoms numbered in the
+     *         order of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public ClashResult query(ClashIndex index, String filename)
+            throws IOException {
+        return query(index, readAtoms(filename));
+    }
+
+    /**Reads the ATOM and HETATM records of a *.pdb file, or the atoms of
+     * an mmCIF file whose name ends with .cif or .mmcif.
+     *
+     * @param filename Name of the *.pdb or mmCIF file to read.
+     * @return The Atoms of the file, in order.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    public static List<Atom> readAtoms(String filename) throws IOException {
+        ArrayList<Atom> atoms = new ArrayList<Atom>();
+        Utils.readPDB(atoms, filename, null, null);
+        return atoms;
+    }
+
+    private void checkIndex(ClashIndex index) {
+        if(index.getRadii() != radii)
+            throw new IllegalArgumentException(
+                    "The index was built with other radii");
+    }
+
+    private static void checkLength(double[] coords, int atoms) {
+        if(coords.length != atoms * 3)
+            throw new IllegalArgumentException(
+                    coords.length + " coordinates given for " +
+                    atoms + " atoms");
+    }
+
+    private int[] getTypes(List<Atom> atoms) {
+        int[] types = new int[atoms.size()];
+        for(int i = 0; i < types.length; i++)
+            types[i] = radii.getType(atoms.get(i).getElement());
+        return types;
+    }
+
+    private static double[] getCoordinates(List<Atom> atoms) {
+        double[] coords = new double[atoms.size() * 3];
+        for(int i = 0; i < atoms.size(); i++)
+            for(int d = 0; d < 3; d++)
+                coords[i * 3 + d] = atoms.get(i).getCoordinate(d);
+        return coords;
+    }
+}
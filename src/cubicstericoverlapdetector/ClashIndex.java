@@ -0,0 +1,628 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**An immutable index of the atoms of a molecule, built by a ClashDetector.
+ * The atoms are sorted by the cell of a grid they lie in, and stored in
+ * compressed rows: the atoms of cell c are those at positions
+ * cellStart[c] ... cellStart[c + 1] - 1 of the arrays of coordinates,
+ * types and atom numbers. The atoms of a cell thus lie next to each other
+ * in memory, and no objects are made per atom or per cell.<br /><br />
+ *
+ * The arrays are kept in buffers, which depending on the Storage are
+ * backed by arrays on the heap, by direct memory outside of the heap, or
+ * by a memory mapped index file. With the last two, the heap used by an
+ * index does not depend on the number of atoms, and an index file may be
+ * mapped by several processes at once. The index file holds a header,
+ * followed by the arrays, all in little endian order.<br /><br />
+ *
+ * The coordinates are kept with the Precision the index was built with.
+ * In FIXED precision, they are ints of thousandths of an Ångström, which
+ * is the precision of *.pdb files and of Location. The distances are
+ * then compared exactly, as longs, against the squared clash distances
+ * rounded to thousandths, so the result does not depend on rounding of
+ * doubles, and the coordinates take half the memory. FLOAT precision
+ * also halves the memory, but rounds the coordinates of the index to
+ * floats; the largest error this gave is kept by the index.<br /><br />
+ *
+ * The size of the cells is chosen from how densely the atoms are packed,
+ * as buildIndex() does for the Space. All fields are final and never
+ * changed after construction, so an index may be shared between threads
+ * and queried by all of them at once, without locking.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public final class ClashIndex {
+    /**Where the arrays of an index are kept.
+     */
+    public enum Storage { HEAP, DIRECT, MAPPED }
+
+    /**How the coordinates of an index are kept: as doubles, as ints of
+     * thousandths of an Ångström, or as floats.
+     */
+    public enum Precision { DOUBLE, FIXED, FLOAT }
+
+    // Units per Ångström of the coordinates in FIXED precision.
+    public final static int FIXEDSCALE = 1000;
+
+    private final static byte[] MAGIC   = "CSODIDX1".getBytes(StandardCharsets.US_ASCII);
+    private final static int    VERSION = 2;
+    // Bytes of the header before the radii of the RadiusTable.
+    private final static int    FIXEDHEADER = 120;
+
+    private final RadiusTable  radii;
+    private final Storage      storage;
+    private final Precision    precision;
+    private final double[]     origin;
+    private final double[]     end;
+    private final int[]        dims;
+    private final double       unitsize;
+    private final int          reach;
+    private final int          atoms;
+    private final IntBuffer    cellStart;
+    private final DoubleBuffer coords;
+    private final IntBuffer    fixed;
+    private final FloatBuffer  floats;
+    private final IntBuffer    types;
+    private final IntBuffer    ids;
+    private final IntBuffer    serials;
+    private final double       maxError;
+    // Squared clash distances of each pair of types in FIXED precision.
+    private final long[]       fixedCutoff2;
+
+    private ClashIndex(RadiusTable radii,
+                       Storage storage,
+                       Precision precision,
+                       double[] origin,
+                       double[] end,
+                       int[] dims,
+                       double unitsize,
+                       int reach,
+                       int atoms,
+                       IntBuffer cellStart,
+                       DoubleBuffer coords,
+                       IntBuffer fixed,
+                       FloatBuffer floats,
+                       IntBuffer types,
+                       IntBuffer ids,
+                       IntBuffer serials,
+                       double maxError) {
+        this.radii     = radii;
+        this.storage   = storage;
+        this.precision = precision;
+        this.origin    = origin;
+        this.end       = end;
+        this.dims      = dims;
+        this.unitsize  = unitsize;
+        this.reach     = reach;
+        this.atoms     = atoms;
+        this.cellStart = cellStart;
+        this.coords    = coords;
+        this.fixed     = fixed;
+        this.floats    = floats;
+        this.types     = types;
+        this.ids       = ids;
+        this.serials   = serials;
+        this.maxError  = maxError;
+
+        int n = radii.getTypeCount();
+        fixedCutoff2 = new long[n * n];
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < n; j++) {
+                double cutoff = Math.max(0, radii.getRadius(i) + radii.getRadius(j) -
+                                            radii.getTolerance());
+                long c = Math.round(cutoff * FIXEDSCALE);
+                fixedCutoff2[i * n + j] = c * c;
+            }
+        }
+    }
+
+    /**Indexes the given atoms on the heap.
+     *
+     * @param coords Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param types RadiusTable types of the atoms.
+     * @param serials Serial numbers of the atoms, or null to number them
+     *        from 1.
+     * @param radii RadiusTable that gave the types.
+     * @param precision How to keep the coordinates.
+     * @return The index.
+     */
+    static ClashIndex build(double[] coords, int[] types, int[] serials,
+                            RadiusTable radii, Precision precision) {
+        try {
+            return build(DoubleBuffer.wrap(coords), IntBuffer.wrap(types),
+                         serials == null ? null : IntBuffer.wrap(serials),
+                         types.length, radii, Storage.HEAP, precision, null);
+        } catch (IOException e) {
+            // Only index files can fail.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**Indexes the given atoms.
+     *
+     * @param src Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param srcTypes RadiusTable types of the atoms.
+     * @param srcSerials Serial numbers of the atoms, or null to number
+     *        them from 1.
+     * @param n The number of atoms.
+     * @param radii RadiusTable that gave the types.
+     * @param storage Where to keep the arrays of the index.
+     * @param precision How to keep the coordinates.
+     * @param file If storage is MAPPED, the index file to write, which
+     *        must be opened for reading and writing.
+     * @return The index.
+     * @throws IOException If the index file could not be written.
+     * @throws IllegalArgumentException If a coordinate is too large to
+     *         be kept in FIXED precision.
+     */
+    static ClashIndex build(DoubleBuffer src,
+                            IntBuffer srcTypes,
+                            IntBuffer srcSerials,
+                            int n,
+                            RadiusTable radii,
+                            Storage storage,
+                            Precision precision,
+                            FileChannel file) throws IOException {
+        // The atoms are placed in cells by their rounded coordinates, so
+        // that the cells agree with the distances that are compared.
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for(int i = 0; i < n; i++) {
+            for(int d = 0; d < 3; d++) {
+                double c = src.get(i * 3 + d);
+                if(precision == Precision.FIXED &&
+                   !(Math.abs(c) * FIXEDSCALE <= Integer.MAX_VALUE))
+                    throw new IllegalArgumentException(
+                            "Coordinate " + c + " is too large for FIXED precision");
+                c = round(c, precision);
+                min[d] = Math.min(min[d], c);
+                max[d] = Math.max(max[d], c);
+            }
+        }
+        if(n == 0) {
+            min = new double[3];
+            max = new double[3];
+        }
+
+        // Measure how many atoms there are per occupied cell of the size
+        // of the clash distance, and choose the size of the cells.
+        double cutoff = radii.getMaxCutoff();
+        int reach = n == 0 ? 1 : Space.chooseReach(
+                (double) n / countOccupied(src, n, min, max, cutoff, storage,
+                                           precision), 3);
+        double unitsize = cutoff / reach;
+        int[] dims = new int[3];
+        int cells = gridSize(min, max, unitsize, dims);
+
+        // Allocate the arrays; only the one of the precision is used
+        // for the coordinates.
+        long[] offsets = layout(n, cells, radii.getTypeCount(), precision);
+        DoubleBuffer coords = null;
+        IntBuffer    fixed  = null;
+        FloatBuffer  floats = null;
+        if(precision == Precision.FIXED)
+            fixed = allocateInts(file, storage, offsets[0], offsets[1]);
+        else if(precision == Precision.FLOAT)
+            floats = storage == Storage.HEAP ? FloatBuffer.allocate(n * 3) :
+                     allocate(file, storage, offsets[0], offsets[1]).asFloatBuffer();
+        else
+            coords = storage == Storage.HEAP ? DoubleBuffer.allocate(n * 3) :
+                     allocate(file, storage, offsets[0], offsets[1]).asDoubleBuffer();
+        IntBuffer cellStart = allocateInts(file, storage, offsets[1], offsets[2]);
+        IntBuffer types     = allocateInts(file, storage, offsets[2], offsets[3]);
+        IntBuffer ids       = allocateInts(file, storage, offsets[3], offsets[4]);
+        IntBuffer serials   = allocateInts(file, storage, offsets[4], offsets[5]);
+
+        // Sort the atoms by cell, by counting the atoms of each cell.
+        // While the atoms are placed, cellStart[c] is moved on to the
+        // start of cell c + 1, so it is shifted back afterwards.
+        for(int i = 0; i < n; i++) {
+            int cell = getCell(src, i, precision, min, dims, unitsize);
+            cellStart.put(cell + 1, cellStart.get(cell + 1) + 1);
+        }
+        for(int c = 0; c < cells; c++)
+            cellStart.put(c + 1, cellStart.get(c + 1) + cellStart.get(c));
+        double maxError = 0;
+        for(int i = 0; i < n; i++) {
+            int cell = getCell(src, i, precision, min, dims, unitsize);
+            int p = cellStart.get(cell);
+            cellStart.put(cell, p + 1);
+            for(int d = 0; d < 3; d++) {
+                double c = src.get(i * 3 + d);
+                if(fixed != null)
+                    fixed.put(p * 3 + d, (int) Math.round(c * FIXEDSCALE));
+                else if(floats != null)
+                    floats.put(p * 3 + d, (float) c);
+                else
+                    coords.put(p * 3 + d, c);
+                maxError = Math.max(maxError, Math.abs(round(c, precision) - c));
+            }
+            types.put(p, srcTypes.get(i));
+            ids.put(p, i);
+            serials.put(i, srcSerials == null ? i + 1 : srcSerials.get(i));
+        }
+        for(int c = cells; c > 0; c--)
+            cellStart.put(c, cellStart.get(c - 1));
+        cellStart.put(0, 0);
+
+        if(storage == Storage.MAPPED) {
+            ByteBuffer header = file.map(FileChannel.MapMode.READ_WRITE, 0, offsets[0]);
+            writeHeader(header.order(ByteOrder.LITTLE_ENDIAN), n, cells, reach,
+                        unitsize, min, max, dims, radii, precision, maxError);
+        }
+        return new ClashIndex(radii, storage, precision, min, max, dims, unitsize,
+                              reach, n, cellStart, coords, fixed, floats, types,
+                              ids, serials, maxError);
+    }
+
+    /**Maps an index file written by build(), for reading only.
+     *
+     * @param file The index file, opened for reading.
+     * @param radii RadiusTable that the index must have been built with.
+     * @return The index.
+     * @throws IOException If the file could not be read, is not an index
+     *         file, or was built with other radii.
+     */
+    static ClashIndex load(FileChannel file, RadiusTable radii) throws IOException {
+        if(file.size() < FIXEDHEADER)
+            throw new IOException("Not an index file");
+        ByteBuffer header = file.map(FileChannel.MapMode.READ_ONLY, 0, FIXEDHEADER)
+                                .order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < MAGIC.length; i++)
+            if(header.get(i) != MAGIC[i])
+                throw new IOException("Not an index file");
+        if(header.getInt(8) != VERSION)
+            throw new IOException("Unknown version of index file: " + header.getInt(8));
+        int n       = header.getInt(12);
+        int cells   = header.getInt(16);
+        int reach   = header.getInt(20);
+        double unitsize = header.getDouble(24);
+        double[] min = new double[3];
+        double[] max = new double[3];
+        int[] dims = new int[3];
+        for(int d = 0; d < 3; d++) {
+            min[d]  = header.getDouble(32 + d * 8);
+            max[d]  = header.getDouble(56 + d * 8);
+            dims[d] = header.getInt(80 + d * 4);
+        }
+        int typeCount = header.getInt(92);
+        int mode = header.getInt(104);
+        if(mode < 0 || mode >= Precision.values().length)
+            throw new IOException("Unknown precision of index file: " + mode);
+        Precision precision = Precision.values()[mode];
+        double maxError = header.getDouble(112);
+        long[] offsets = layout(n, cells, typeCount, precision);
+        if(file.size() < offsets[5])
+            throw new IOException("Index file is truncated");
+
+        // The types of the atoms are only valid for the same radii.
+        ByteBuffer table = file.map(FileChannel.MapMode.READ_ONLY, 0, offsets[0])
+                               .order(ByteOrder.LITTLE_ENDIAN);
+        boolean same = typeCount == radii.getTypeCount() &&
+                       table.getDouble(96) == radii.getTolerance();
+        for(int t = 0; same && t < typeCount; t++)
+            same = table.getDouble(FIXEDHEADER + t * 8) == radii.getRadius(t);
+        if(!same)
+            throw new IOException("The index file was built with other radii");
+
+        ByteBuffer coordBytes = map(file, offsets[0], offsets[1]);
+        IntBuffer cellStart = map(file, offsets[1], offsets[2]).asIntBuffer();
+        IntBuffer types     = map(file, offsets[2], offsets[3]).asIntBuffer();
+        IntBuffer ids       = map(file, offsets[3], offsets[4]).asIntBuffer();
+        IntBuffer serials   = map(file, offsets[4], offsets[5]).asIntBuffer();
+        return new ClashIndex(radii, Storage.MAPPED, precision, min, max, dims,
+                              unitsize, reach, n, cellStart,
+                              precision == Precision.DOUBLE ? coordBytes.asDoubleBuffer() : null,
+                              precision == Precision.FIXED  ? coordBytes.asIntBuffer()    : null,
+                              precision == Precision.FLOAT  ? coordBytes.asFloatBuffer()  : null,
+                              types, ids, serials, maxError);
+    }
+
+    private static void writeHeader(ByteBuffer header, int n, int cells,
+                                    int reach, double unitsize, double[] min,
+                                    double[] max, int[] dims, RadiusTable radii,
+                                    Precision precision, double maxError) {
+        for(int i = 0; i < MAGIC.length; i++)
+            header.put(i, MAGIC[i]);
+        header.putInt(8, VERSION);
+        header.putInt(12, n);
+        header.putInt(16, cells);
+        header.putInt(20, reach);
+        header.putDouble(24, unitsize);
+        for(int d = 0; d < 3; d++) {
+            header.putDouble(32 + d * 8, min[d]);
+            header.putDouble(56 + d * 8, max[d]);
+            header.putInt(80 + d * 4, dims[d]);
+        }
+        header.putInt(92, radii.getTypeCount());
+        header.putDouble(96, radii.getTolerance());
+        header.putInt(104, precision.ordinal());
+        header.putDouble(112, maxError);
+        for(int t = 0; t < radii.getTypeCount(); t++)
+            header.putDouble(FIXEDHEADER + t * 8, radii.getRadius(t));
+    }
+
+    /**Returns the offsets in the index file of the arrays of coordinates,
+     * cell starts, types, atom numbers and serial numbers, followed by the
+     * size of the file. Each array starts at a multiple of 8 bytes.
+     */
+    private static long[] layout(int n, int cells, int typeCount,
+                                 Precision precision) {
+        long[] sizes = {(long) n * 3 * (precision == Precision.DOUBLE ? 8 : 4),
+                        ((long) cells + 1) * 4,
+                        (long) n * 4, (long) n * 4, (long) n * 4};
+        long[] offsets = new long[sizes.length + 1];
+        offsets[0] = FIXEDHEADER + (long) typeCount * 8;
+        for(int i = 0; i < sizes.length; i++) {
+            if(sizes[i] > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many atoms or cells to index");
+            offsets[i + 1] = (offsets[i] + sizes[i] + 7) / 8 * 8;
+        }
+        return offsets;
+    }
+
+    /**Returns a zeroed buffer for the bytes from offset to next of the
+     * layout, in direct memory or mapped from the index file. The file
+     * must not hold anything there before.
+     */
+    private static ByteBuffer allocate(FileChannel file, Storage storage,
+                                       long offset, long next) throws IOException {
+        int bytes = (int) (next - offset);
+        ByteBuffer buffer = storage == Storage.MAPPED ?
+                file.map(FileChannel.MapMode.READ_WRITE, offset, bytes) :
+                ByteBuffer.allocateDirect(bytes);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**Returns a zeroed buffer of ints for the bytes from offset to next of
+     * the layout, kept as the storage says.
+     */
+    private static IntBuffer allocateInts(FileChannel file, Storage storage,
+                                          long offset, long next) throws IOException {
+        if(storage == Storage.HEAP)
+            return IntBuffer.allocate((int) ((next - offset) / 4));
+        return allocate(file, storage, offset, next).asIntBuffer();
+    }
+
+    private static ByteBuffer map(FileChannel file, long offset, long next)
+            throws IOException {
+        return file.map(FileChannel.MapMode.READ_ONLY, offset, next - offset)
+                   .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**Counts the cells of the given size that hold at least one atom,
+     * using a bitmap kept as the storage says.
+     */
+    private static int countOccupied(DoubleBuffer src, int n, double[] min,
+                                     double[] max, double unitsize,
+                                     Storage storage, Precision precision) {
+        int[] dims = new int[3];
+        int cells = gridSize(min, max, unitsize, dims);
+        ByteBuffer bits = storage == Storage.HEAP ?
+                          ByteBuffer.allocate(cells / 8 + 1) :
+                          ByteBuffer.allocateDirect(cells / 8 + 1);
+        int occupied = 0;
+        for(int i = 0; i < n; i++) {
+            int cell = getCell(src, i, precision, min, dims, unitsize);
+            byte b = bits.get(cell >> 3);
+            if((b & (1 << (cell & 7))) == 0) {
+                bits.put(cell >> 3, (byte) (b | (1 << (cell & 7))));
+                occupied++;
+            }
+        }
+        return occupied;
+    }
+
+    /**Sets the number of cells of the grid in each dimension, and returns
+     * the total number of cells.
+     */
+    private static int gridSize(double[] min, double[] max, double unitsize,
+                                int[] dims) {
+        long cells = 1;
+        for(int d = 0; d < 3; d++) {
+            dims[d] = Math.max(1, (int) Math.floor((max[d] - min[d]) / unitsize) + 1);
+            cells *= dims[d];
+        }
+        if(cells >= Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many cells to index");
+        return (int) cells;
+    }
+
+    /**Returns the cell of atom i of src, by its coordinates rounded to
+     * the precision.
+     */
+    private static int getCell(DoubleBuffer src, int i, Precision precision,
+                               double[] origin, int[] dims, double unitsize) {
+        double x = round(src.get(i * 3),     precision);
+        double y = round(src.get(i * 3 + 1), precision);
+        double z = round(src.get(i * 3 + 2), precision);
+        return (cellFor(z, origin[2], dims[2], unitsize) * dims[1] +
+                cellFor(y, origin[1], dims[1], unitsize)) * dims[0] +
+                cellFor(x, origin[0], dims[0], unitsize);
+    }
+
+    /**Returns the coordinate as it is kept in the given precision.
+     */
+    private static double round(double coord, Precision precision) {
+        if(precision == Precision.FIXED)
+            return Math.round(coord * FIXEDSCALE) / (double) FIXEDSCALE;
+        if(precision == Precision.FLOAT)
+            return (float) coord;
+        return coord;
+    }
+
+    /**Returns the cell coordinate of the given coordinate, clamped to the
+     * grid.
+     */
+    private static int cellFor(double coord, double origin, int dim,
+                               double unitsize) {
+        int c = (int) Math.floor((coord - origin) / unitsize);
+        return c < 0 ? 0 : (c >= dim ? dim - 1 : c);
+    }
+
+    private int cellFor(double coord, int d) {
+        return cellFor(coord, origin[d], dims[d], unitsize);
+    }
+
+    public RadiusTable getRadii()     { return radii;     }
+    public Storage getStorage()       { return storage;   }
+    public Precision getPrecision()   { return precision; }
+    public int    getAtomCount()      { return atoms;     }
+    public int    getCellCount()      { return dims[0] * dims[1] * dims[2]; }
+    public double getUnitSize()       { return unitsize;  }
+    public int    getReach()          { return reach;     }
+
+    /**Returns the serial number of an atom, from the *.pdb file it was
+     * read from, or its number plus 1 for atoms given by coordinates.
+     *
+     * @param atom The number of the atom.
+     * @return The serial number of the atom.
+     */
+    public int getSerial(int atom) { return serials.get(atom); }
+
+    /**Returns the largest difference between a coordinate given to the
+     * index and the coordinate kept by it, which is 0 in DOUBLE precision,
+     * and in FIXED precision for coordinates with at most three decimals,
+     * as in *.pdb files. A distance found by the index differs from the
+     * distance between the given coordinates by at most the square root
+     * of 3 times this, plus the same for the rounding of the query atoms
+     * in FIXED precision.
+     *
+     * @return The largest error of a coordinate, in Å.
+     */
+    public double getMaxError() { return maxError; }
+
+    /**Finds the clashes between the given atoms and the atoms of the
+     * index, and puts them in the context. Query atoms further than the
+     * largest clash distance outside the box of the index are skipped;
+     * the others are compared against the atoms of the cells within reach
+     * of their cell, which are clamped to the grid. In FIXED precision, the
+     * query atoms are rounded to thousandths of an Ångström as well, and
+     * the distances compared as longs. Only the context is
+     * written to, so any number of threads may query the index at once,
+     * each with its own context.
+     *
+     * @param query Coordinates of the query atoms, as x0, y0, z0, x1, ...
+     * @param queryTypes RadiusTable types of the query atoms.
+     * @param n The number of query atoms.
+     * @param context QueryContext that receives the clashing pairs, sorted
+     *        by query atom and then by atom of the index.
+     */
+    void query(double[] query, int[] queryTypes, int n, QueryContext context) {
+        long start = System.nanoTime();
+        double cutoff = radii.getMaxCutoff();
+        long comparisons = 0;
+        long visited = 0;
+        context.clear();
+
+        for(int q = 0; q < n; q++) {
+            double x = query[q * 3], y = query[q * 3 + 1], z = query[q * 3 + 2];
+            if(fixed != null) {
+                x = round(x, precision);
+                y = round(y, precision);
+                z = round(z, precision);
+            }
+            if(x < origin[0] - cutoff || x > end[0] + cutoff ||
+               y < origin[1] - cutoff || y > end[1] + cutoff ||
+               z < origin[2] - cutoff || z > end[2] + cutoff)
+                continue;
+            int cx = cellFor(x, 0), cy = cellFor(y, 1), cz = cellFor(z, 2);
+            int type = queryTypes[q];
+            int first = context.size();
+            for(int k = Math.max(0, cz - reach); k <= Math.min(dims[2] - 1, cz + reach); k++)
+            for(int j = Math.max(0, cy - reach); j <= Math.min(dims[1] - 1, cy + reach); j++)
+            for(int i = Math.max(0, cx - reach); i <= Math.min(dims[0] - 1, cx + reach); i++) {
+                int cell = (k * dims[1] + j) * dims[0] + i;
+                visited++;
+                int from = cellStart.get(cell);
+                int last = cellStart.get(cell + 1);
+                comparisons += last - from;
+                if(fixed != null)
+                    compareFixed(from, last, q, x, y, z, type, context);
+                else if(floats != null)
+                    compareFloat(from, last, q, x, y, z, type, context);
+                else
+                    compareDouble(from, last, q, x, y, z, type, context);
+            }
+            context.sortFrom(first);
+        }
+        context.setCounters(comparisons, visited, System.nanoTime() - start);
+    }
+
+    /**Compares query atom q against the atoms at positions from ... last - 1
+     * in DOUBLE precision, and adds the clashing pairs to the context.
+     */
+    private void compareDouble(int from, int last, int q, double x, double y,
+                               double z, int type, QueryContext context) {
+        for(int p = from; p < last; p++) {
+            double dx = coords.get(p * 3)     - x;
+            double dy = coords.get(p * 3 + 1) - y;
+            double dz = coords.get(p * 3 + 2) - z;
+            double dist2 = dx * dx + dy * dy + dz * dz;
+            if(dist2 < radii.getCutoff2(type, types.get(p)))
+                context.add(q, ids.get(p), Math.sqrt(dist2));
+        }
+    }
+
+    /**As compareDouble(), with the atoms of the index kept as floats.
+     */
+    private void compareFloat(int from, int last, int q, double x, double y,
+                              double z, int type, QueryContext context) {
+        for(int p = from; p < last; p++) {
+            double dx = floats.get(p * 3)     - x;
+            double dy = floats.get(p * 3 + 1) - y;
+            double dz = floats.get(p * 3 + 2) - z;
+            double dist2 = dx * dx + dy * dy + dz * dz;
+            if(dist2 < radii.getCutoff2(type, types.get(p)))
+                context.add(q, ids.get(p), Math.sqrt(dist2));
+        }
+    }
+
+    /**As compareDouble(), in FIXED precision. The query coordinates are
+     * already rounded, so they convert to whole thousandths exactly, and
+     * the squared distance is computed and compared without rounding.
+     */
+    private void compareFixed(int from, int last, int q, double x, double y,
+                              double z, int type, QueryContext context) {
+        long fx = Math.round(x * FIXEDSCALE);
+        long fy = Math.round(y * FIXEDSCALE);
+        long fz = Math.round(z * FIXEDSCALE);
+        int row = type * radii.getTypeCount();
+        for(int p = from; p < last; p++) {
+            long dx = fixed.get(p * 3)     - fx;
+            long dy = fixed.get(p * 3 + 1) - fy;
+            long dz = fixed.get(p * 3 + 2) - fz;
+            long dist2 = dx * dx + dy * dy + dz * dz;
+            if(dist2 < fixedCutoff2[row + types.get(p)])
+                context.add(q, ids.get(p), Math.sqrt(dist2) / FIXEDSCALE);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**Class for counting clashes between groups of atoms, such as the chains
+ * or the models of a *.pdb file. The groups are given names when they
+ * are added, and are numbered in the order they are added. The counts
+ * are kept in a symmetric matrix, of which only the upper half is
+ * stored.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class ClashMatrix {
+    private List<String> names = new ArrayList<String>();
+    private Map<String, Integer> groups = new HashMap<String, Integer>();
+    private long[] counts = new long[0];
+
+    /**Returns the number of the group with the given name, adding the
+     * group if it has not been seen before.
+     *
+     * @param name Name of the group.
+     * @return The number of the group.
+     */
+    public int getGroup(String name) {
+        Integer group = groups.get(name);
+        if(group != null)
+            return group;
+
+        // Grow the matrix by one row and column.
+        int n = names.size();
+        long[] grown = new long[(n + 1) * (n + 2) / 2];
+        for(int i = 0; i < n; i++)
+            for(int j = i; j < n; j++)
+                grown[index(i, j, n + 1)] = counts[index(i, j, n)];
+        counts = grown;
+
+        names.add(name);
+        groups.put(name, n);
+        return n;
+    }
+
+    // Index of (i, j), i <= j, in the upper half of an n x n matrix.
+    private static int index(int i, int j, int n) {
+        return i * n - i * (i - 1) / 2 + (j - i);
+    }
+
+    /**Counts a clash between the two groups.
+     *
+     * @param g0 Number of the first group.
+     * @param g1 Number of the second group.
+     */
+    public void add(int g0, int g1) {
+        int i = Math.min(g0, g1), j = Math.max(g0, g1);
+        counts[index(i, j, names.size())]++;
+    }
+
+    public int getSize() { return names.size(); }
+
+    /**Returns the number of clashes counted between the two groups.
+     *
+     * @param g0 Number of the first group.
+     * @param g1 Number of the second group.
+     * @return The number of clashes between the groups.
+     */
+    public long getCount(int g0, int g1) {
+        int i = Math.min(g0, g1), j = Math.max(g0, g1);
+        return counts[index(i, j, names.size())];
+    }
+
+    /**Returns the total number of clashes counted between different
+     * groups.
+     *
+     * @return The number of clashes between groups.
+     */
+    public long getTotal() {
+        long total = 0;
+        for(int i = 0; i < names.size(); i++)
+            for(int j = i + 1; j < names.size(); j++)
+                total += getCount(i, j);
+        return total;
+    }
+
+    /**Writes the matrix to output, with a header row and column of group
+     * names, followed by the total number of clashes between groups.
+     *
+     * @param output OutputStream to write data to.
+     */
+    public void write(OutputStream output) {
+        Formatter fmt = new Formatter(output);
+        int width = 8;
+        for(int i = 0; i < names.size(); i++)
+            width = Math.max(width, names.get(i).length() + 1);
+
+        fmt.format("%" + width + "s", "");
+        for(int i = 0; i < names.size(); i++)
+            fmt.format("%" + width + "s", names.get(i));
+        fmt.format("%n");
+        for(int i = 0; i < names.size(); i++) {
+            fmt.format("%" + width + "s", names.get(i));
+            for(int j = 0; j < names.size(); j++)
+                fmt.format("%" + width + "d", i == j ? 0 : getCount(i, j));
+            fmt.format("%n");
+        }
+        fmt.format("Number of clashing pairs between groups: %d%n", getTotal());
+        fmt.flush();
+        fmt.close();
+    }
+}
@@ -0,0 +1,73 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+/**The result of a query against a ClashIndex: the clashing pairs, each
+ * given by the number of the query atom, the number of the atom of the
+ * index and the distance between them, together with counters of the
+ * work done. Atoms are numbered in the order they were given. The pairs
+ * are sorted by query atom, and then by atom of the index. A ClashResult
+ * is never changed after it has been created.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public final class ClashResult {
+    private final int[]    queryAtoms;
+    private final int[]    indexAtoms;
+    private final double[] distances;
+    private final int      size;
+    private final long     comparisons;
+    private final long     cellsVisited;
+    private final long     nanos;
+
+    ClashResult(int[] queryAtoms,
+                int[] indexAtoms,
+                double[] distances,
+                int size,
+                long comparisons,
+                long cellsVisited,
+                long nanos) {
+        this.queryAtoms   = queryAtoms;
+        this.indexAtoms   = indexAtoms;
+        this.distances    = distances;
+        this.size         = size;
+        this.comparisons  = comparisons;
+        this.cellsVisited = cellsVisited;
+        this.nanos        = nanos;
+    }
+
+    /**Returns the number of clashing pairs.
+     *
+     * @return The number of clashing pairs.
+     */
+    public int size() { return size; }
+
+    public int    getQueryAtom(int i)  { check(i); return queryAtoms[i]; }
+    public int    getIndexAtom(int i)  { check(i); return indexAtoms[i]; }
+    public double getDistance(int i)   { check(i); return distances[i];  }
+    public long   getComparisons()     { return comparisons;  }
+    public long   getCellsVisited()    { return cellsVisited; }
+    public long   getNanos()           { return nanos;        }
+
+    private void check(int i) {
+        if(i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Pair " + i + " of " + size);
+    }
+}
@@ -0,0 +1,136 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**Class for handling the alternate locations (altLocs) of atoms. In a
+ * high resolution structure, parts of a residue may be modelled in two
+ * or more conformers, each with its own altLoc ID and occupancy, and
+ * the atoms that are the same in every conformer have no altLoc. Only
+ * one conformer exists at a time, so the copies of an atom should not
+ * all be compared and reported. The Mode tells how they are handled:<br />
+ * ALL: every atom is compared, as if the conformers coexisted.<br />
+ * OCCUPANCY: each residue keeps only the conformer of the highest mean
+ * occupancy when it is read, so there is only one copy of each atom.<br />
+ * EACH: every conformer is compared as a molecule of its own, made of
+ * the atoms without altLoc and those of the conformer. All atoms are
+ * indexed once, and a pair of atoms of different conformers is skipped
+ * before their distance is calculated. Atoms are of the same conformer
+ * if they have the same altLoc ID, so when two molecules are compared,
+ * EACH assumes that their altLoc IDs name the same conformers, such as
+ * for two poses of one structure. For unrelated files, it may skip
+ * pairs of atoms that do clash.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Conformers {
+    /**How the alternate locations of atoms are handled.
+     */
+    public enum Mode { ALL, OCCUPANCY, EACH }
+
+    /**Parses the name of a Mode, in any case.
+     *
+     * @param name "all", "occupancy" or "each".
+     * @return The Mode of the name.
+     * @throws IllegalArgumentException If there is no such Mode.
+     */
+    public static Mode parseMode(String name) {
+        return Mode.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**Returns whether the two Atoms may exist at the same time, which is
+     * the case unless they belong to different conformers.
+     *
+     * @param a First Atom.
+     * @param b Second Atom.
+     * @return False if both Atoms have altLocs, and they differ.
+     */
+    public static boolean isSameConformer(Atom a, Atom b) {
+        String altLoc0 = a.getAltLoc();
+        String altLoc1 = b.getAltLoc();
+        return altLoc0.length() == 0 || altLoc1.length() == 0 ||
+               altLoc0.equals(altLoc1);
+    }
+
+    /**Removes the Atoms of all conformers but one from each residue of
+     * arr. The conformer whose Atoms have the highest mean occupancy is
+     * kept, or the first one listed if several are equally high. Atoms
+     * without altLoc are always kept. Residues are split as
+     * Residue.group() does, so a residue whose conformers are different
+     * kinds of residues is still one residue.
+     *
+     * @param arr ArrayList of Atoms, in the order of the *.pdb file.
+     * @return The number of Atoms that were removed.
+     */
+    public static int keepHighestOccupancy(ArrayList<Atom> arr) {
+        ArrayList<String> altLocs = new ArrayList<String>();
+        double[] sums = new double[4];
+        int[] counts = new int[4];
+        int kept = 0;
+        int start = 0;
+        while(start < arr.size()) {
+            int end = start + 1;
+            while(end < arr.size() && Residue.sameResidue(arr.get(start), arr.get(end)))
+                end++;
+
+            // Find the mean occupancy of each conformer of the residue.
+            altLocs.clear();
+            for(int i = start; i < end; i++) {
+                Atom atom = arr.get(i);
+                if(atom.getAltLoc().length() == 0)
+                    continue;
+                int k = altLocs.indexOf(atom.getAltLoc());
+                if(k < 0) {
+                    k = altLocs.size();
+                    altLocs.add(atom.getAltLoc());
+                    if(k == sums.length) {
+                        sums = Arrays.copyOf(sums, 2 * k);
+                        counts = Arrays.copyOf(counts, 2 * k);
+                    }
+                    sums[k] = 0;
+                    counts[k] = 0;
+                }
+                sums[k] += atom.getOccupancy();
+                counts[k]++;
+            }
+            String best = "";
+            double bestMean = Double.NEGATIVE_INFINITY;
+            for(int k = 0; k < altLocs.size(); k++) {
+                if(sums[k] / counts[k] > bestMean) {
+                    bestMean = sums[k] / counts[k];
+                    best = altLocs.get(k);
+                }
+            }
+
+            for(int i = start; i < end; i++) {
+                Atom atom = arr.get(i);
+                if(atom.getAltLoc().length() == 0 || atom.getAltLoc().equals(best))
+                    arr.set(kept++, atom);
+            }
+            start = end;
+        }
+        int removed = arr.size() - kept;
+        arr.subList(kept, arr.size()).clear();
+        return removed;
+    }
+}
@@ -0,0 +1,186 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.Arrays;
+
+/**Sparse map of the contacts between the residues of two molecules.
+ * Each residue pair in contact is keyed by a long holding the ordinal
+ * of the residue of the first molecule in its upper half, and the
+ * ordinal of the residue of the second molecule in its lower half. For
+ * each pair, the number of atom pairs in contact is counted, and the
+ * closest of them is kept, along with its squared distance.<br /><br />
+ *
+ * The keys and values are kept in parallel arrays of primitives, with
+ * open addressing and linear probing, so no object is created for a
+ * contact; the arrays are only replaced when the map grows. Only one
+ * thread may use a ContactMap at a time, so threads that count contacts
+ * should each have one, and add them together with addAll() when done.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class ContactMap {
+    // Residue ordinals are not negative, so no key is ever -1.
+    private final static long EMPTY = -1;
+
+    private long[]   keys;
+    private int[]    counts;
+    private double[] closest2;
+    private int[]    atoms0;
+    private int[]    atoms1;
+    private int size = 0;
+
+    /**Creates an empty map.
+     */
+    public ContactMap() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        closest2 = new double[capacity];
+        atoms0 = new int[capacity];
+        atoms1 = new int[capacity];
+    }
+
+    /**Returns the key of a pair of residues.
+     *
+     * @param residue0 Ordinal of the residue of the first molecule.
+     * @param residue1 Ordinal of the residue of the second molecule.
+     * @return The key of the pair.
+     */
+    public static long key(int residue0, int residue1) {
+        return ((long) residue0 << 32) | (residue1 & 0xffffffffL);
+    }
+
+    public static int getResidue0(long key) { return (int) (key >>> 32); }
+    public static int getResidue1(long key) { return (int) key; }
+
+    public int size() { return size; }
+
+    /**Notes a contact between two atoms.
+     *
+     * @param residue0 Ordinal of the residue of the atom of the first
+     *        molecule.
+     * @param residue1 Ordinal of the residue of the atom of the second
+     *        molecule.
+     * @param atom0 The atom of the first molecule.
+     * @param atom1 The atom of the second molecule.
+     * @param dist2 The squared distance between the atoms.
+     */
+    public void add(int residue0, int residue1, int atom0, int atom1, double dist2) {
+        add(key(residue0, residue1), 1, atom0, atom1, dist2);
+    }
+
+    /**Adds the contacts of another map to this one.
+     *
+     * @param other The ContactMap to add.
+     */
+    public void addAll(ContactMap other) {
+        for(int i = 0; i < other.keys.length; i++) {
+            if(other.keys[i] != EMPTY)
+                add(other.keys[i], other.counts[i], other.atoms0[i],
+                    other.atoms1[i], other.closest2[i]);
+        }
+    }
+
+    private void add(long key, int count, int atom0, int atom1, double dist2) {
+        int slot = find(key);
+        if(keys[slot] == EMPTY) {
+            // Keep the table at most half full, so that probes stay short.
+            if(2 * (size + 1) > keys.length) {
+                grow();
+                slot = find(key);
+            }
+            keys[slot] = key;
+            closest2[slot] = Double.POSITIVE_INFINITY;
+            size++;
+        }
+        counts[slot] += count;
+        if(dist2 < closest2[slot]) {
+            closest2[slot] = dist2;
+            atoms0[slot] = atom0;
+            atoms1[slot] = atom1;
+        }
+    }
+
+    /**Returns the slot holding the key, or the empty slot where it would
+     * be put.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        // Mixes the bits of the key, as the ordinals of nearby residues
+        // only differ in their lowest bits.
+        long h = key * 0x9e3779b97f4a7c15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while(keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        double[] oldClosest2 = closest2;
+        int[] oldAtoms0 = atoms0;
+        int[] oldAtoms1 = atoms1;
+        allocate(oldKeys.length * 2);
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == EMPTY)
+                continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+            closest2[slot] = oldClosest2[i];
+            atoms0[slot] = oldAtoms0[i];
+            atoms1[slot] = oldAtoms1[i];
+        }
+    }
+
+    /**Returns the keys of the residue pairs in contact, sorted by the
+     * residue of the first molecule, and then by the residue of the
+     * second one.
+     *
+     * @return Sorted array of the keys.
+     */
+    public long[] getKeys() {
+        long[] sorted = new long[size];
+        int n = 0;
+        for(int i = 0; i < keys.length; i++)
+            if(keys[i] != EMPTY)
+                sorted[n++] = keys[i];
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**Returns the slot of a key given by getKeys(), for the getters below.
+     *
+     * @param key The key of a residue pair in the map.
+     * @return The slot of the key.
+     */
+    public int getSlot(long key) { return find(key); }
+
+    public int    getCount(int slot)     { return counts[slot];   }
+    public double getClosest2(int slot)  { return closest2[slot]; }
+    public int    getAtom0(int slot)     { return atoms0[slot];   }
+    public int    getAtom1(int slot)     { return atoms1[slot];   }
+}
@@ -0,0 +1,305 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**Class holding the crystal lattice of a molecule: the unit cell of the
+ * CRYST1 record of a *.pdb file, and the symmetry operators of its space
+ * group, as given by the SMTRY lines of REMARK 290. Each operator maps
+ * orthogonal coordinates x to R x + t, and a symmetry mate of the
+ * asymmetric unit is the image of one operator, moved by a whole number
+ * of unit cells along each of the cell axes a, b and c.<br /><br />
+ *
+ * There are infinitely many mates, but only the few whose bounding box
+ * comes within the clash distance of the box of the asymmetric unit can
+ * clash with it. findMates() finds them from the boxes alone, without
+ * moving any atoms, so only the mates that may clash need to be made.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Crystal {
+    // Largest difference from the identity of an operator that leaves
+    // the molecule where it is.
+    private final static double IDENTITY = 1e-3;
+
+    private final double[] cell;
+    private final String spaceGroup;
+    // The cell axes a, b and c in orthogonal coordinates.
+    private final double[][] axes = new double[3][3];
+    // Matrix from orthogonal to fractional coordinates.
+    private final double[][] fractional = new double[3][3];
+    // Each operator as r00, r01, r02, t0, r10, ..., t2.
+    private final ArrayList<double[]> operators;
+
+    /**Creates the lattice of a unit cell. The cell axes are placed as
+     * *.pdb files do: a along x, and b in the plane of x and y.
+     *
+     * @param cell The lengths a, b and c of the cell, in Å, and the
+     *        angles alpha, beta and gamma between them, in degrees.
+     * @param spaceGroup The name of the space group.
+     * @param operators The symmetry operators, as 12 values each. If
+     *        empty, only the identity is used.
+     */
+    public Crystal(double[] cell, String spaceGroup, ArrayList<double[]> operators) {
+        this.cell = cell;
+        this.spaceGroup = spaceGroup;
+        this.operators = operators;
+        if(operators.isEmpty())
+            operators.add(new double[] {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0});
+
+        double cosA = Math.cos(Math.toRadians(cell[3]));
+        double cosB = Math.cos(Math.toRadians(cell[4]));
+        double cosG = Math.cos(Math.toRadians(cell[5]));
+        double sinG = Math.sin(Math.toRadians(cell[5]));
+        double cy = (cosA - cosB * cosG) / sinG;
+        axes[0][0] = cell[0];
+        axes[1][0] = cell[1] * cosG;
+        axes[1][1] = cell[1] * sinG;
+        axes[2][0] = cell[2] * cosB;
+        axes[2][1] = cell[2] * cy;
+        axes[2][2] = cell[2] * Math.sqrt(1 - cosB * cosB - cy * cy);
+
+        // The axes are the columns of the matrix to orthogonal
+        // coordinates, which is upper triangular, so its inverse is too.
+        fractional[0][0] = 1 / axes[0][0];
+        fractional[0][1] = -axes[1][0] / (axes[0][0] * axes[1][1]);
+        fractional[0][2] = (axes[1][0] * axes[2][1] - axes[2][0] * axes[1][1]) /
+                           (axes[0][0] * axes[1][1] * axes[2][2]);
+        fractional[1][1] = 1 / axes[1][1];
+        fractional[1][2] = -axes[2][1] / (axes[1][1] * axes[2][2]);
+        fractional[2][2] = 1 / axes[2][2];
+    }
+
+    /**Reads the unit cell and symmetry operators of a *.pdb file. Only
+     * the header before the first atom is read.
+     *
+     * @param filename Name of the *.pdb file to read.
+     * @return The Crystal of the file, or null if it has no CRYST1
+     *         record.
+     * @throws IOException If the file could not be read, or holds an
+     *         invalid number.
+     */
+    public static Crystal read(String filename) throws IOException {
+        BufferedReader br = Utils.openReader(filename);
+        double[] cell = null;
+        String spaceGroup = "";
+        ArrayList<double[]> operators = new ArrayList<double[]>();
+        String line;
+        try {
+            while((line = br.readLine()) != null) {
+                String record = line.substring(0, Math.min(6, line.length())).trim();
+                if(record.equals("ATOM") || record.equals("HETATM") ||
+                   record.equals("MODEL"))
+                    break;
+                if(record.equals("CRYST1") && line.length() >= 54) {
+                    cell = new double[6];
+                    for(int i = 0; i < 3; i++) {
+                        cell[i]     = Double.parseDouble(line.substring(6 + 9 * i, 15 + 9 * i).trim());
+                        cell[i + 3] = Double.parseDouble(line.substring(33 + 7 * i, 40 + 7 * i).trim());
+                    }
+                    if(line.length() > 55)
+                        spaceGroup = line.substring(55, Math.min(66, line.length())).trim();
+                }
+                else if(record.equals("REMARK") && line.startsWith("REMARK 290   SMTRY")) {
+                    // REMARK 290   SMTRYr   n  rr0  rr1  rr2  tr
+                    String[] words = line.trim().split("\\s+");
+                    int row = Integer.parseInt(words[2].substring(5)) - 1;
+                    int number = Integer.parseInt(words[3]);
+                    if(row < 0 || row > 2 || number < 1 || words.length < 8)
+                        throw new NumberFormatException(line);
+                    while(operators.size() < number)
+                        operators.add(new double[12]);
+                    for(int i = 0; i < 4; i++)
+                        operators.get(number - 1)[row * 4 + i] =
+                                Double.parseDouble(words[4 + i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in " + filename + ": " +
+                                  e.getMessage());
+        } finally {
+            br.close();
+        }
+        return cell == null ? null : new Crystal(cell, spaceGroup, operators);
+    }
+
+    public double[] getCell()          { return cell;       }
+    public String   getSpaceGroup()    { return spaceGroup; }
+    public int      getOperatorCount() { return operators.size(); }
+
+    /**Returns the lengths of the unit cell, if it is a rectangular box,
+     * as the periodic box of a molecular dynamics snapshot is.
+     *
+     * @return The lengths a, b and c of the cell, or null if any of its
+     *         angles is not 90 degrees.
+     */
+    public double[] getBox() {
+        for(int i = 3; i < 6; i++)
+            if(Math.abs(cell[i] - 90) > IDENTITY)
+                return null;
+        return new double[] {cell[0], cell[1], cell[2]};
+    }
+
+    /**Moves the coordinates of n atoms to those of a symmetry mate.
+     *
+     * @param mate The mate, as the operator and the number of cells
+     *        along a, b and c.
+     * @param in Coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param out Array that receives the moved coordinates, which may
+     *        be the same as in.
+     * @param n The number of atoms.
+     */
+    public void transform(int[] mate, double[] in, double[] out, int n) {
+        double[] op = operators.get(mate[0]);
+        double[] shift = getShift(mate);
+        for(int a = 0; a < n; a++) {
+            double x = in[a * 3], y = in[a * 3 + 1], z = in[a * 3 + 2];
+            for(int d = 0; d < 3; d++)
+                out[a * 3 + d] = op[d * 4] * x + op[d * 4 + 1] * y +
+                                 op[d * 4 + 2] * z + shift[d];
+        }
+    }
+
+    /**Returns the translation of the mate: that of its operator, and
+     * that of its cells.
+     */
+    private double[] getShift(int[] mate) {
+        double[] op = operators.get(mate[0]);
+        double[] shift = new double[3];
+        for(int d = 0; d < 3; d++)
+            shift[d] = op[d * 4 + 3] + mate[1] * axes[0][d] +
+                       mate[2] * axes[1][d] + mate[3] * axes[2][d];
+        return shift;
+    }
+
+    /**Returns whether the mate is the asymmetric unit itself.
+     */
+    private boolean isIdentity(int[] mate) {
+        double[] op = operators.get(mate[0]);
+        double[] shift = getShift(mate);
+        for(int d = 0; d < 3; d++) {
+            for(int e = 0; e < 3; e++)
+                if(Math.abs(op[d * 4 + e] - (d == e ? 1 : 0)) > IDENTITY)
+                    return false;
+            if(Math.abs(shift[d]) > IDENTITY)
+                return false;
+        }
+        return true;
+    }
+
+    /**Finds the symmetry mates whose bounding boxes come within the
+     * cutoff of the box of the asymmetric unit. For each operator, the
+     * box of its image is found from the corners of the box of the
+     * asymmetric unit. In fractional coordinates, the cells that the
+     * image can be moved by to reach the box are a small range along
+     * each axis, and the mates of that range whose boxes do not come
+     * within the cutoff are culled. The asymmetric unit itself is not
+     * a mate.
+     *
+     * @param min The smallest coordinates of the asymmetric unit.
+     * @param max The largest coordinates of the asymmetric unit.
+     * @param cutoff The largest clash distance.
+     * @param tested Array of length 1, which will have the number of
+     *        mates whose boxes were tested added to it.
+     * @return The mates that may clash with the asymmetric unit, as the
+     *         operator and the number of cells along a, b and c.
+     */
+    public ArrayList<int[]> findMates(double[] min, double[] max,
+                                      double cutoff, long[] tested) {
+        double[] reachMin = new double[3], reachMax = new double[3];
+        for(int d = 0; d < 3; d++) {
+            reachMin[d] = min[d] - cutoff;
+            reachMax[d] = max[d] + cutoff;
+        }
+        double[][] reach = fractionalBox(reachMin, reachMax);
+
+        ArrayList<int[]> mates = new ArrayList<int[]>();
+        double[] corners = new double[8 * 3];
+        double[] imageMin = new double[3], imageMax = new double[3];
+        for(int o = 0; o < operators.size(); o++) {
+            for(int c = 0; c < 8; c++)
+                for(int d = 0; d < 3; d++)
+                    corners[c * 3 + d] = (c >> d & 1) == 0 ? min[d] : max[d];
+            transform(new int[] {o, 0, 0, 0}, corners, corners, 8);
+            box(corners, 8, imageMin, imageMax);
+            double[][] image = fractionalBox(imageMin, imageMax);
+
+            int[] low = new int[3], high = new int[3];
+            for(int d = 0; d < 3; d++) {
+                low[d]  = (int) Math.ceil(reach[0][d] - image[1][d]);
+                high[d] = (int) Math.floor(reach[1][d] - image[0][d]);
+            }
+            for(int u = low[0]; u <= high[0]; u++)
+            for(int v = low[1]; v <= high[1]; v++)
+            for(int w = low[2]; w <= high[2]; w++) {
+                int[] mate = {o, u, v, w};
+                if(isIdentity(mate))
+                    continue;
+                tested[0]++;
+                boolean near = true;
+                for(int d = 0; d < 3; d++) {
+                    double offset = u * axes[0][d] + v * axes[1][d] + w * axes[2][d];
+                    if(imageMin[d] + offset > reachMax[d] ||
+                       imageMax[d] + offset < reachMin[d])
+                        near = false;
+                }
+                if(near)
+                    mates.add(mate);
+            }
+        }
+        return mates;
+    }
+
+    /**Returns the box of the fractional coordinates of the corners of a
+     * box, as its smallest and largest coordinates.
+     */
+    private double[][] fractionalBox(double[] min, double[] max) {
+        double[] corners = new double[8 * 3];
+        for(int c = 0; c < 8; c++) {
+            for(int d = 0; d < 3; d++) {
+                double f = 0;
+                for(int e = 0; e < 3; e++)
+                    f += fractional[d][e] * ((c >> e & 1) == 0 ? min[e] : max[e]);
+                corners[c * 3 + d] = f;
+            }
+        }
+        double[][] box = new double[2][3];
+        box(corners, 8, box[0], box[1]);
+        return box;
+    }
+
+    /**Sets min and max to the smallest and largest of n coordinates.
+     */
+    private static void box(double[] coords, int n, double[] min, double[] max) {
+        for(int d = 0; d < 3; d++) {
+            min[d] = Double.POSITIVE_INFINITY;
+            max[d] = Double.NEGATIVE_INFINITY;
+        }
+        for(int a = 0; a < n; a++) {
+            for(int d = 0; d < 3; d++) {
+                min[d] = Math.min(min[d], coords[a * 3 + d]);
+                max[d] = Math.max(max[d], coords[a * 3 + d]);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**A long-running clash detection service, which keeps named, indexed
+ * molecules in memory so that probing them does not cost the start of a
+ * JVM and the indexing of the molecule. Clients connect to a TCP socket
+ * on the loopback interface and send requests of one line each, some of
+ * them followed by the ATOM and HETATM lines of a molecule and a line
+ * reading END. Every request is answered by a line starting with OK or
+ * ERROR:<br /><br />
+ *
+ * LOAD name FILE.pdb : Reads and registers a molecule from a file.<br />
+ * REGISTER name : Registers the molecule that follows.<br />
+ * PROBE name : Finds the clashes between the molecule that follows and
+ * the registered one. The answer "OK clashes comparisons" is followed by
+ * one line "probeSerial serial distance" per clashing pair, and by a line
+ * reading END.<br />
+ * PROBE name r11 r12 r13 r21 r22 r23 r31 r32 r33 tx ty tz : As above,
+ * but each atom x of the molecule that follows is first moved to
+ * R x + t.<br />
+ * DROP name : Forgets a registered molecule.<br />
+ * LIST : Answers "OK n" followed by a line "name atoms" per molecule.<br />
+ * QUIT : Closes the connection.<br />
+ * SHUTDOWN : Stops the daemon.<br /><br />
+ *
+ * Each connection is handled by a thread of its own; virtual threads are
+ * used if the JVM has them. No more than a fixed number of connections
+ * are handled at once. Further clients are not accepted until one of
+ * them closes, so they wait in the backlog of the socket.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Daemon {
+    public final static int DEFAULTPORT = 7380;
+    public final static int STOPSECONDS = 30;
+
+    private Map<String, ResidentMolecule> molecules =
+            new ConcurrentHashMap<String, ResidentMolecule>();
+    private ClashDetector detector;
+    private Semaphore     permits;
+    private ServerSocket server;
+    private volatile boolean running = true;
+
+    /**Creates a daemon, which is started by serve().
+     *
+     * @param radii RadiusTable with the radius of each element.
+     * @param connections How many connections to handle at once.
+     */
+    public Daemon(RadiusTable radii, int connections) {
+        detector = new ClashDetector(radii);
+        permits = new Semaphore(Math.max(1, connections));
+    }
+
+    /**Listens for connections on the given port of the loopback interface,
+     * until a SHUTDOWN request is received. The connections being handled
+     * are then given STOPSECONDS seconds to finish before it returns.
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the socket could not be opened.
+     */
+    public void serve(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ExecutorService executor = newExecutor();
+        Utils.log("Listening on " + server.getLocalSocketAddress() + ".");
+        try {
+            while(running) {
+                permits.acquireUninterruptibly();
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    permits.release();
+                    if(running)
+                        Utils.log("Failed to accept a connection: " + e.getMessage());
+                    continue;
+                }
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            if(!server.isClosed())
+                server.close();
+        }
+        try {
+            if(!executor.awaitTermination(STOPSECONDS, TimeUnit.SECONDS))
+                Utils.log("Stopped with connections still open.");
+        } catch (InterruptedException e) {
+            Utils.log("Interrupted while waiting for connections to close.");
+        }
+    }
+
+    /**Stops the daemon. No more connections are accepted, and serve()
+     * returns once the connections being handled are finished, or after
+     * STOPSECONDS seconds.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if(server != null)
+                server.close();
+        } catch (IOException e) {
+            Utils.log("Failed to close the socket: " + e.getMessage());
+        }
+    }
+
+    /**Returns an executor that runs each task in a new virtual thread, if
+     * the JVM supports it, and in a new daemon thread otherwise. The
+     * number of tasks is bounded by the permits of the daemon.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "csod-connection");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**Answers the requests of a connection, until the client closes it or
+     * sends QUIT. A request that fails is answered by an ERROR line, and
+     * the socket is closed however the connection ends.
+     */
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            PrintWriter out = new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), "US-ASCII"));
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+                if(words[0].equals("QUIT"))
+                    break;
+                try {
+                    answer(words, in, out);
+                } catch (IllegalArgumentException e) {
+                    out.print("ERROR " + e.getMessage() + "\n");
+                } catch (RuntimeException e) {
+                    Utils.log("Failed to answer " + words[0] + ": " + e);
+                    out.print("ERROR " + e + "\n");
+                }
+                out.flush();
+                if(words[0].equals("SHUTDOWN"))
+                    break;
+            }
+        } catch (IOException e) {
+            Utils.log("Connection failed: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Utils.log("Failed to close a connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**Answers a single request.
+     *
+     * @throws IllegalArgumentException If the request is invalid.
+     */
+    private void answer(String[] words, BufferedReader in, PrintWriter out)
+            throws IOException {
+        String command = words[0];
+        if(command.equals("LOAD") && words.length == 3) {
+            ArrayList<Atom> atoms = new ArrayList<Atom>();
+            Utils.readPDBFile(atoms, words[2], null, null);
+            register(words[1], atoms, out);
+        }
+        else if(command.equals("REGISTER") && words.length == 2) {
+            register(words[1], readMolecule(in), out);
+        }
+        else if(command.equals("PROBE") && (words.length == 2 || words.length == 14)) {
+            ResidentMolecule target = molecules.get(words[1]);
+            ArrayList<Atom> atoms = readMolecule(in);
+            if(target == null)
+                throw new IllegalArgumentException("No molecule named " + words[1]);
+            probe(target, atoms, words.length == 14 ? parseTransform(words) : null, out);
+        }
+        else if(command.equals("DROP") && words.length == 2) {
+            if(molecules.remove(words[1]) == null)
+                throw new IllegalArgumentException("No molecule named " + words[1]);
+            out.print("OK\n");
+        }
+        else if(command.equals("LIST") && words.length == 1) {
+            out.print("OK " + molecules.size() + "\n");
+            for(ResidentMolecule molecule : molecules.values())
+                out.print(molecule.getName() + " " + molecule.getAtomCount() + "\n");
+        }
+        else if(command.equals("SHUTDOWN") && words.length == 1) {
+            out.print("OK\n");
+            stop();
+        }
+        else
+            throw new IllegalArgumentException("Invalid request: " + command);
+    }
+
+    private void register(String name, ArrayList<Atom> atoms, PrintWriter out) {
+        if(atoms.size() == 0)
+            throw new IllegalArgumentException("No atoms in " + name);
+        molecules.put(name, new ResidentMolecule(name, atoms, detector));
+        out.print("OK " + name + " " + atoms.size() + "\n");
+    }
+
+    /**Reads the ATOM and HETATM lines of a molecule, up to a line reading
+     * END. Other lines are ignored.
+     *
+     * @throws IllegalArgumentException If a line could not be parsed.
+     */
+    private static ArrayList<Atom> readMolecule(BufferedReader in)
+            throws IOException {
+        ArrayList<Atom> atoms = new ArrayList<Atom>();
+        String line;
+        String error = null;
+        while((line = in.readLine()) != null && !line.trim().equals("END")) {
+            if(error != null ||
+               !(line.startsWith("ATOM") || line.startsWith("HETATM")))
+                continue;
+            try {
+                atoms.add(Utils.parseAtom(line));
+            } catch (RuntimeException e) {
+                // Read the rest of the molecule before answering.
+                error = "Invalid line: " + line;
+            }
+        }
+        if(error != null)
+            throw new IllegalArgumentException(error);
+        return atoms;
+    }
+
+    /**Parses the rotation matrix and translation of a PROBE request.
+     */
+    private static double[] parseTransform(String[] words) {
+        double[] transform = new double[12];
+        try {
+            for(int i = 0; i < transform.length; i++)
+                transform[i] = Double.parseDouble(words[i + 2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid transform: " + e.getMessage());
+        }
+        return transform;
+    }
+
+    /**Probes a registered molecule with the given atoms, moved by the
+     * transform if it is not null, and writes the clashing pairs.
+     */
+    private void probe(ResidentMolecule target,
+                       ArrayList<Atom> atoms,
+                       double[] transform,
+                       PrintWriter out) {
+        int n = atoms.size();
+        double[] query = new double[n * 3];
+        String[] elements = new String[n];
+        for(int i = 0; i < n; i++) {
+            Atom atom = atoms.get(i);
+            elements[i] = atom.getElement();
+            double x = atom.getCoordinate(0);
+            double y = atom.getCoordinate(1);
+            double z = atom.getCoordinate(2);
+            for(int d = 0; d < 3; d++)
+                query[i * 3 + d] = transform == null ?
+                        atom.getCoordinate(d) :
+                        transform[d * 3] * x + transform[d * 3 + 1] * y +
+                        transform[d * 3 + 2] * z + transform[9 + d];
+        }
+
+        ClashResult result = detector.query(target.getIndex(), query, elements);
+        StringBuilder sb = new StringBuilder();
+        sb.append("OK ").append(result.size()).append(' ')
+          .append(result.getComparisons()).append('\n');
+        for(int i = 0; i < result.size(); i++) {
+            sb.append(atoms.get(result.getQueryAtom(i)).getSerial()).append(' ')
+              .append(target.getAtom(result.getIndexAtom(i)).getSerial()).append(' ')
+              .append(String.format(Locale.ROOT, "%.3f", result.getDistance(i)))
+              .append('\n');
+        }
+        sb.append("END\n");
+        out.print(sb);
+    }
+}
@@ -0,0 +1,266 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**An index of two molecules that can be edited, for interactive work
+ * where a side chain or a ligand is moved and the clashes are wanted at
+ * once. Both molecules are kept in a CellList, and the clashing pairs
+ * between them are kept in a set. Moving, adding or removing an atom only
+ * changes the cell of that atom, and only that atom is compared against
+ * the atoms near it in the other molecule: the pairs found at its old
+ * position are taken out of the set, and the pairs found at its new
+ * position are put in. The cost of an edit is thus independent of the
+ * size of the molecules.<br /><br />
+ *
+ * The atoms of each molecule are numbered in the order they were given,
+ * followed by the atoms added later. Numbers of removed atoms are not
+ * reused. The index keeps its own coordinates; the Atom objects are only
+ * read for their elements, and are not changed when an atom is moved.
+ * The changes to the clashing pairs since the last call are given by
+ * takeDelta().<br /><br />
+ *
+ * An EditableIndex is not thread safe.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class EditableIndex {
+    private RadiusTable radii;
+    private List<List<Atom>> atoms = new ArrayList<List<Atom>>();
+    private CellList[] cells  = new CellList[2];
+    private double[][] coords = new double[2][];
+    private int[][]    types  = new int[2][];
+    private int[]      counts = new int[2];
+
+    private Set<Long> clashes = new HashSet<Long>();
+    private Set<Long> added   = new HashSet<Long>();
+    private Set<Long> removed = new HashSet<Long>();
+    private long comparisons;
+
+    /**Indexes the two molecules and finds the clashes between them.
+     *
+     * @param mol0 Atoms of the first molecule.
+     * @param mol1 Atoms of the second molecule.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     */
+    public EditableIndex(List<Atom> mol0, List<Atom> mol1, RadiusTable radii) {
+        this.radii = radii;
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        List<List<Atom>> molecules = new ArrayList<List<Atom>>();
+        molecules.add(mol0);
+        molecules.add(mol1);
+        for(int m = 0; m < 2; m++) {
+            List<Atom> mol = molecules.get(m);
+            atoms.add(new ArrayList<Atom>(mol.size()));
+            coords[m] = new double[Math.max(1, mol.size()) * 3];
+            types[m]  = new int[Math.max(1, mol.size())];
+            for(int i = 0; i < mol.size(); i++) {
+                for(int d = 0; d < 3; d++) {
+                    double coord = mol.get(i).getCoordinate(d);
+                    min[d] = Math.min(min[d], coord - CellList.MARGIN);
+                    max[d] = Math.max(max[d], coord + CellList.MARGIN);
+                }
+            }
+        }
+        if(min[0] > max[0]) {
+            Arrays.fill(min, 0);
+            Arrays.fill(max, 0);
+        }
+        for(int m = 0; m < 2; m++)
+            cells[m] = new CellList(radii.getMaxCutoff(), 1, min, max,
+                                    types[m].length);
+
+        // Index the first molecule, and probe it with the second one.
+        for(int i = 0; i < mol0.size(); i++)
+            addAtom(0, mol0.get(i));
+        for(int i = 0; i < mol1.size(); i++)
+            addAtom(1, mol1.get(i));
+        added.clear();
+    }
+
+    /**Adds an atom to one of the molecules.
+     *
+     * @param molecule 0 for the first molecule, 1 for the second.
+     * @param atom The Atom to add, at its coordinates.
+     * @return The number of the new atom.
+     */
+    public int addAtom(int molecule, Atom atom) {
+        int id = counts[molecule]++;
+        if(id >= types[molecule].length) {
+            types[molecule]  = Arrays.copyOf(types[molecule], id * 2);
+            coords[molecule] = Arrays.copyOf(coords[molecule], id * 6);
+        }
+        atoms.get(molecule).add(atom);
+        types[molecule][id] = radii.getType(atom.getElement());
+        for(int d = 0; d < 3; d++)
+            coords[molecule][id * 3 + d] = atom.getCoordinate(d);
+        cells[molecule].add(id, coords[molecule][id * 3],
+                            coords[molecule][id * 3 + 1],
+                            coords[molecule][id * 3 + 2]);
+        probe(molecule, id, true);
+        return id;
+    }
+
+    /**Removes an atom from one of the molecules.
+     *
+     * @param molecule 0 for the first molecule, 1 for the second.
+     * @param id The number of the atom.
+     */
+    public void removeAtom(int molecule, int id) {
+        if(!cells[molecule].contains(id))
+            return;
+        probe(molecule, id, false);
+        cells[molecule].remove(id);
+    }
+
+    /**Moves an atom of one of the molecules to new coordinates.
+     *
+     * @param molecule 0 for the first molecule, 1 for the second.
+     * @param id The number of the atom.
+     * @param x The new x coordinate.
+     * @param y The new y coordinate.
+     * @param z The new z coordinate.
+     */
+    public void moveAtom(int molecule, int id, double x, double y, double z) {
+        if(!cells[molecule].contains(id))
+            return;
+        probe(molecule, id, false);
+        coords[molecule][id * 3]     = x;
+        coords[molecule][id * 3 + 1] = y;
+        coords[molecule][id * 3 + 2] = z;
+        cells[molecule].move(id, x, y, z);
+        probe(molecule, id, true);
+    }
+
+    /**Compares an atom against the atoms near it in the other molecule,
+     * and puts the clashing pairs in, or takes them out of, the set of
+     * clashes.
+     */
+    private void probe(final int molecule, final int id, final boolean add) {
+        final int other = 1 - molecule;
+        final double x = coords[molecule][id * 3];
+        final double y = coords[molecule][id * 3 + 1];
+        final double z = coords[molecule][id * 3 + 2];
+        final int type = types[molecule][id];
+        cells[other].visitNear(x, y, z, new CellList.AtomVisitor() {
+            public void visit(int atom) {
+                comparisons++;
+                double dx = coords[other][atom * 3]     - x;
+                double dy = coords[other][atom * 3 + 1] - y;
+                double dz = coords[other][atom * 3 + 2] - z;
+                if(dx * dx + dy * dy + dz * dz >=
+                   radii.getCutoff2(type, types[other][atom]))
+                    return;
+                long pair = molecule == 0 ? ClashDelta.getPair(id, atom) :
+                                            ClashDelta.getPair(atom, id);
+                if(add)
+                    addClash(pair);
+                else
+                    removeClash(pair);
+            }
+        });
+    }
+
+    private void addClash(long pair) {
+        clashes.add(pair);
+        if(!removed.remove(pair))
+            added.add(pair);
+    }
+
+    private void removeClash(long pair) {
+        clashes.remove(pair);
+        if(!added.remove(pair))
+            removed.add(pair);
+    }
+
+    /**Returns the pairs that started or stopped clashing since the last
+     * call, or since the index was created.
+     *
+     * @return The changes to the clashing pairs.
+     */
+    public ClashDelta takeDelta() {
+        ClashDelta delta = new ClashDelta(toSortedArray(added),
+                                          toSortedArray(removed));
+        added.clear();
+        removed.clear();
+        return delta;
+    }
+
+    /**Returns all clashing pairs, sorted by the first atom and then by
+     * the second.
+     *
+     * @return The clashing pairs, as described by ClashDelta.
+     */
+    public long[] getClashes() {
+        return toSortedArray(clashes);
+    }
+
+    private static long[] toSortedArray(Set<Long> set) {
+        long[] arr = new long[set.size()];
+        int i = 0;
+        for(Long pair : set)
+            arr[i++] = pair;
+        Arrays.sort(arr);
+        return arr;
+    }
+
+    /**Returns whether or not the two atoms clash.
+     *
+     * @param id0 The number of an atom of the first molecule.
+     * @param id1 The number of an atom of the second molecule.
+     * @return True if the atoms clash.
+     */
+    public boolean clashes(int id0, int id1) {
+        return clashes.contains(ClashDelta.getPair(id0, id1));
+    }
+
+    public int  getClashCount()  { return clashes.size(); }
+    public long getComparisons() { return comparisons;    }
+    public int  getAtomCount(int molecule) { return cells[molecule].getSize(); }
+    public Atom getAtom(int molecule, int id) { return atoms.get(molecule).get(id); }
+
+    /**Returns whether or not an atom is in the index, that is, whether it
+     * has been added and not removed.
+     *
+     * @param molecule 0 for the first molecule, 1 for the second.
+     * @param id The number of the atom.
+     * @return True if the atom is in the index.
+     */
+    public boolean containsAtom(int molecule, int id) {
+        return cells[molecule].contains(id);
+    }
+
+    /**Returns a coordinate of an atom, as last set.
+     *
+     * @param molecule 0 for the first molecule, 1 for the second.
+     * @param id The number of the atom.
+     * @param dimension 0, 1 or 2 for x, y and z.
+     * @return The coordinate.
+     */
+    public double getCoordinate(int molecule, int id, int dimension) {
+        return coords[molecule][id * 3 + dimension];
+    }
+}
@@ -0,0 +1,92 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+/**The buffers needed to count the clashes of one frame of a trajectory:
+ * the coordinates of the two selections, and a CellList of the second
+ * selection. A FrameBuffer is reused for frame after frame, so that the
+ * coordinates and cells, which grow with the number of atoms, are never
+ * allocated per frame; only the small arrays of counters returned by
+ * countClashes() are. Only one thread may use a FrameBuffer at a time.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class FrameBuffer {
+    private double[] query;     // Coordinates of the first selection
+    private double[] index;     // Coordinates of the second selection
+    private CellList cells;     // Cell list of the second selection
+    private boolean  indexed = false;
+    private int      model;
+
+    /**Creates the buffers for frames of the given sizes.
+     *
+     * @param queryAtoms Number of atoms in the first selection.
+     * @param indexAtoms Number of atoms in the second selection.
+     * @param cells An empty CellList able to hold indexAtoms atoms.
+     */
+    public FrameBuffer(int queryAtoms, int indexAtoms, CellList cells) {
+        query = new double[queryAtoms * 3];
+        index = new double[indexAtoms * 3];
+        this.cells = cells;
+    }
+
+    public double[] getQuery() { return query; }
+    public double[] getIndex() { return index; }
+    public int      getModel() { return model; }
+    public void     setModel(int model) { this.model = model; }
+
+    /**Counts the clashes between the two selections of the frame held in
+     * the buffers. The CellList is rebuilt for the frame, or, if update
+     * is true and the list already holds an earlier frame, only the atoms
+     * that have moved to another cell are moved.
+     *
+     * @param queryTypes RadiusTable types of the first selection.
+     * @param indexTypes RadiusTable types of the second selection.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param update Whether to only move the atoms that changed cell.
+     * @return A new array of the model number, the number of clashing
+     *         pairs, the number of comparisons, the number of visited
+     *         cells, and the number of atoms put in a cell, in that order.
+     *         It is not kept by the FrameBuffer, as it is read after the
+     *         buffer has been given the next frame.
+     */
+    public long[] countClashes(int[] queryTypes,
+                               int[] indexTypes,
+                               RadiusTable radii,
+                               boolean update) {
+        long[] result = new long[5];
+        int n = index.length / 3;
+        if(update && indexed)
+            result[4] = cells.update(index);
+        else {
+            cells.rebuild(index, n);
+            result[4] = n;
+        }
+        indexed = true;
+
+        long[] counters = new long[2];
+        result[0] = model;
+        result[1] = cells.countClashes(query, queryTypes, query.length / 3,
+                                       index, indexTypes, radii, counters);
+        result[2] = counters[0];
+        result[3] = counters[1];
+        return result;
+    }
+}
@@ -364,7 +364,7 @@ public class Gui extends JFrame {
                     boolean success = Utils.run(hash,
                                                 fstTextField.getText(),
                                                 sndTextField.getText(),
-                                                ps);
+                                                ps) != null;
 
                     // Fill output area and re-enable buttons
                     if(success) {
@@ -0,0 +1,171 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**InputStream that decompresses a gzip stream in a background thread.
+ * The thread inflates the stream into a ring of BUFFERS byte arrays of
+ * BUFFERSIZE bytes, and hands each filled buffer to the reader through a
+ * queue. Once the reader has used a buffer, it goes back to the thread to
+ * be filled again. The file is thus read and inflated while the previous
+ * buffers are parsed, and no buffers are allocated after the first ones.
+ * Streams of several gzip members, as made by concatenating gzip files,
+ * are read as one.<br /><br />
+ *
+ * An InflatingInputStream must only be read by one thread. If the stream
+ * is closed before its end, the background thread stops when it next
+ * needs a free buffer.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class InflatingInputStream extends InputStream {
+    public final static int BUFFERS    = 4;
+    public final static int BUFFERSIZE = 1 << 16;
+
+    // Marks the end of the stream in the queue of filled buffers.
+    private final static Chunk END = new Chunk(0);
+
+    private final BlockingQueue<Chunk> free =
+            new ArrayBlockingQueue<Chunk>(BUFFERS);
+    // One more than BUFFERS, so that END always fits.
+    private final BlockingQueue<Chunk> full =
+            new ArrayBlockingQueue<Chunk>(BUFFERS + 1);
+    private final Thread thread;
+    private volatile IOException error;
+    private Chunk current;
+    private int position;
+    private final byte[] single = new byte[1];
+
+    /**A buffer of the ring, and the number of bytes inflated into it.
+     */
+    private static class Chunk {
+        final byte[] bytes;
+        int length;
+
+        Chunk(int size) { bytes = new byte[size]; }
+    }
+
+    /**Starts inflating the given gzip stream in the background. The
+     * header of the stream is read before returning.
+     *
+     * @param compressed The gzip stream, which is closed when the end is
+     *        reached or this stream is closed.
+     * @throws IOException If the stream is not in the gzip format.
+     */
+    public InflatingInputStream(InputStream compressed) throws IOException {
+        final GZIPInputStream gzip;
+        try {
+            gzip = new GZIPInputStream(compressed, BUFFERSIZE);
+        } catch (IOException e) {
+            compressed.close();
+            throw e;
+        }
+        for(int i = 0; i < BUFFERS; i++)
+            free.add(new Chunk(BUFFERSIZE));
+        thread = new Thread(new Runnable() {
+            public void run() {
+                inflate(gzip);
+            }
+        }, "Inflater");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**Fills free buffers from the gzip stream and queues them, until the
+     * stream ends, fails or this stream is closed.
+     */
+    private void inflate(GZIPInputStream gzip) {
+        try {
+            while(true) {
+                Chunk chunk = free.take();
+                int n = 0;
+                int read = 0;
+                while(n < chunk.bytes.length &&
+                      (read = gzip.read(chunk.bytes, n, chunk.bytes.length - n)) >= 0)
+                    n += read;
+                chunk.length = n;
+                if(n > 0)
+                    full.put(chunk);
+                if(read < 0)
+                    break;
+            }
+            full.put(END);
+        } catch (IOException e) {
+            error = e;
+            full.offer(END);
+        } catch (InterruptedException e) {
+            // Closed by the reader, which no longer waits for buffers.
+        } finally {
+            try {
+                gzip.close();
+            } catch (IOException e) {
+                // Nothing more is read from it.
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0)
+            return 0;
+        if(current == null || position == current.length) {
+            if(current == END)
+                return -1;
+            if(current != null)
+                free.offer(current);
+            try {
+                current = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while inflating");
+            }
+            position = 0;
+            if(current == END) {
+                if(error != null)
+                    throw error;
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+}
@@ -116,6 +116,16 @@ public class Location {
      * @return The distance to the other Location.
      */
     public double getDistance(Location other) {
+        return Math.sqrt(getSquaredDistance(other));
+    }
+    /**Given an other Location, this will calculate the squared
+     * Euclidean distance to it. Comparing squared distances
+     * avoids taking the square root.
+     *
+     * @param other Location to calculate the squared distance to.
+     * @return The squared distance to the other Location.
+     */
+    public double getSquaredDistance(Location other) {
         if(dimension != other.getDimension())
             throw new RuntimeException("Dimensions don't agree");
 
@@ -123,7 +133,7 @@ public class Location {
         BigDecimal result = new BigDecimal("0.0");
         for(int i = 0; i < dimension; i++)
             result = result.add(otherdata[i].subtract(a[i]).pow(2));
-        return Math.sqrt(result.doubleValue());
+        return result.doubleValue();
     }
 
     public int compareTo(Location other, int coord) {
@@ -20,7 +20,14 @@ package cubicstericoverlapdetector;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**Main class. Reads two *pdb-files, calculates the number of Atom clashes
  * between them, and writes the clashing Atoms to a file. The calculations
@@ -83,6 +90,14 @@ import java.io.PrintStream;
 public class Main {
     private static Gui gui = null;
 
+    // Options given as "--name value" anywhere among the arguments.
+    private final static String[] VALUEOPTIONS = {"--radii", "--tolerance", "--threads",
+                                                    "--connections", "--precision",
+                                                    "--select", "--altloc"};
+    // Options given as "--name" anywhere among the arguments.
+    private final static String[] FLAGOPTIONS = {"--update-moved", "--periodic"};
+    private static Map<String, String> options = new HashMap<String, String>();
+
     /**Main method. If given no parameters (args.length == 0), the GUI will
      * start. If the wrong amount of parameters are given, usage info will
      * be printed and the program will quit.
@@ -96,12 +111,41 @@ public class Main {
      */
     public static void main(String[] args) {
 
-        if(args.length == 0) {
+        args = parseOptions(args);
+        // With only options given, there is no mode, and the usage is
+        // printed below.
+        String mode = args.length > 0 ? args[0] : "";
+        if(args.length == 0 && options.isEmpty()) {
             gui = new Gui();
         }
-        else if(args.length != 3 && args.length != 4) {
-            if(args[0].compareTo("--version") == 0 ||
-                    args[0].compareTo("-v") == 0) {
+        else if(mode.equals("--generate") || mode.equals("-g")) {
+            System.exit(generate(args) ? 0 : 1);
+        }
+        else if(mode.equals("--self") || mode.equals("-s")) {
+            System.exit(self(args) ? 0 : 1);
+        }
+        else if(mode.equals("--symmetry")) {
+            System.exit(symmetry(args) ? 0 : 1);
+        }
+        else if(mode.equals("--chains") || mode.equals("--models")) {
+            System.exit(interfaces(args) ? 0 : 1);
+        }
+        else if(mode.equals("--frames") || mode.equals("-f")) {
+            System.exit(frames(args) ? 0 : 1);
+        }
+        else if(mode.equals("--daemon") || mode.equals("-d")) {
+            System.exit(daemon(args) ? 0 : 1);
+        }
+        else if(mode.equals("--index") || mode.equals("--query")) {
+            System.exit(indexFile(args) ? 0 : 1);
+        }
+        else if(mode.equals("--nearest") || mode.equals("--interface") ||
+                mode.equals("--contacts")) {
+            System.exit(neighbours(args) ? 0 : 1);
+        }
+        else if(args.length < 3 || args.length > 5) {
+            if(mode.compareTo("--version") == 0 ||
+                    mode.compareTo("-v") == 0) {
                 Utils.log(Utils.PROGRAMNAME + " " + Utils.PROGRAMVERSION);
                 Utils.log(Utils.PROGRAMDATE);
                 Utils.log("Written by " + Utils.AUTHORNAME + ",  " +
@@ -109,20 +153,138 @@ public class Main {
                 Utils.log(Utils.AUTHORWEBSITE);
                 System.exit(0);
             }
-            if(args[0].compareTo("--license") == 0 ||
-                    args[0].compareTo("-l") == 0) {
+            if(mode.compareTo("--license") == 0 ||
+                    mode.compareTo("-l") == 0) {
                 Utils.log(Utils.getLicenseText());
                 System.exit(0);
             }
             Utils.log(Utils.PROGRAMNAME + ".  Usage:");
-            Utils.log("java -jar csod.jar INPUT1.pdb INPUT2.pdb -METHOD OUTPUT.txt\n");
+            Utils.log("java -jar csod.jar INPUT1.pdb INPUT2.pdb -METHOD OUTPUT.txt STATS.json\n");
             Utils.log("Arguments:");
-            Utils.log("INPUT1.pdb and INPUT2.pdb  :  Filenames to *.pdb files to compare");
+            Utils.log("INPUT1.pdb and INPUT2.pdb  :  Filenames to *.pdb files to compare.");
+            Utils.log("                              Files ending with .cif or .mmcif");
+            Utils.log("                              are read as mmCIF files.");
             Utils.log("METHOD                     :  Valid options are '-h' or '-b' for");
             Utils.log("                              hash comparison or bruteforce");
-            Utils.log("                              comparison, respectively.");
+            Utils.log("                              comparison, respectively, or '-r'");
+            Utils.log("                              for comparing only the atoms of");
+            Utils.log("                              residues whose bounding spheres");
+            Utils.log("                              are near each other.");
             Utils.log("OUTPUT.txt                 :  File to write result to. Optional,");
-            Utils.log("                              'output.txt' is used as default.\n");
+            Utils.log("                              'output.txt' is used as default.");
+            Utils.log("STATS.json                 :  File to write timings and counters");
+            Utils.log("                              of the run to, as JSON. Optional.\n");
+            Utils.log("Options:");
+            Utils.log("--radii vdw|RADII.txt      :  Use per-element radii, either the");
+            Utils.log("                              built-in van der Waals radii or a file");
+            Utils.log("                              of 'ELEMENT RADIUS' lines. Without it,");
+            Utils.log("                              every atom has radius " + Atom.ATOMRADIUS + ".");
+            Utils.log("--tolerance T              :  Allowed overlap of the radii, in Å.");
+            Utils.log("                              Optional, 0 is used as default.");
+            Utils.log("--select EXPRESSION        :  Only read the atoms chosen by the");
+            Utils.log("                              expression, e.g. 'chain A and not");
+            Utils.log("                              water and not element H'. Terms are");
+            Utils.log("                              chain, resname, name, element and");
+            Utils.log("                              altloc with comma separated values,");
+            Utils.log("                              resseq with numbers or ranges such");
+            Utils.log("                              as '1-50,60', and water, hydrogen,");
+            Utils.log("                              hetatm and all, joined by and, or,");
+            Utils.log("                              not and parentheses. Also used by");
+            Utils.log("                              --self, --chains, --models and");
+            Utils.log("                              --symmetry.");
+            Utils.log("--altloc all|occupancy|each:  How atoms with alternate locations");
+            Utils.log("                              are handled: 'all' compares every");
+            Utils.log("                              copy, 'occupancy' only reads the");
+            Utils.log("                              conformer of each residue with the");
+            Utils.log("                              highest occupancy, and 'each' never");
+            Utils.log("                              compares atoms of different");
+            Utils.log("                              conformers. 'each' takes atoms of");
+            Utils.log("                              the two files with the same altLoc");
+            Utils.log("                              ID to be of the same conformer, so");
+            Utils.log("                              it is only meaningful for files that");
+            Utils.log("                              share their altLoc IDs, such as two");
+            Utils.log("                              poses of one structure. Optional,");
+            Utils.log("                              'all' is used as default. Also used");
+            Utils.log("                              by --self, --chains and --models,");
+            Utils.log("                              which never compare different");
+            Utils.log("                              conformers.\n");
+            Utils.log("java -jar csod.jar --self INPUT.pdb OUTPUT.txt\n");
+            Utils.log("Finds the clashing pairs of atoms within a single molecule,");
+            Utils.log("ignoring atoms that are bonded or bonded to the same atom.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --chains|--models INPUT.pdb OUTPUT.txt\n");
+            Utils.log("Counts the clashing pairs of atoms between every pair of");
+            Utils.log("chains, or every pair of models, of a single molecule.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --symmetry INPUT.pdb OUTPUT.txt\n");
+            Utils.log("Finds the clashing pairs of atoms between a molecule and its");
+            Utils.log("symmetry mates in the crystal, as given by the CRYST1 record");
+            Utils.log("and the SMTRY lines of REMARK 290 of the *.pdb file.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --frames INPUT.pdb CHAINS1 CHAINS2 OUTPUT.txt\n");
+            Utils.log("Counts the clashing pairs of atoms between two selections of");
+            Utils.log("chains in every model of a multi-model *.pdb file, such as an");
+            Utils.log("NMR ensemble or a trajectory. Every model must hold the same");
+            Utils.log("atoms in the same order.");
+            Utils.log("CHAINS1 and CHAINS2        :  Chain IDs of each selection, e.g. 'AB'.");
+            Utils.log("                              '-' is a blank chain, and '*' all");
+            Utils.log("                              chains not in the other selection.");
+            Utils.log("--threads N                :  Number of threads counting models.");
+            Utils.log("                              Optional, the number of processors");
+            Utils.log("                              is used as default.");
+            Utils.log("--update-moved             :  Only move the atoms that changed cell");
+            Utils.log("                              instead of rebuilding the cell list");
+            Utils.log("                              for every model. Each cell list is");
+            Utils.log("                              updated from the model 2 * N models");
+            Utils.log("                              earlier, so this saves the most with");
+            Utils.log("                              few threads.");
+            Utils.log("--periodic                 :  The models lie in the periodic box");
+            Utils.log("                              given by the CRYST1 record, which");
+            Utils.log("                              must be rectangular. Atoms clash");
+            Utils.log("                              across the faces of the box.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --daemon PORT\n");
+            Utils.log("Keeps named molecules indexed in memory, and answers requests");
+            Utils.log("to register and probe them on a TCP port of the loopback");
+            Utils.log("interface. PORT is optional, " + Daemon.DEFAULTPORT + " is used as default.");
+            Utils.log("--connections N            :  Number of connections handled at once.");
+            Utils.log("                              Optional, twice the number of");
+            Utils.log("                              processors is used as default.\n");
+            Utils.log("java -jar csod.jar --index INPUT.pdb INDEX.idx\n");
+            Utils.log("Indexes a molecule into an index file, outside of the heap.");
+            Utils.log("The file is memory mapped, and can be shared by processes.");
+            Utils.log("--precision P              :  How the coordinates are kept: 'double',");
+            Utils.log("                              'fixed' for exact integer thousandths");
+            Utils.log("                              of an Ångström, or 'float'. Optional,");
+            Utils.log("                              'double' is used as default.\n");
+            Utils.log("java -jar csod.jar --query INDEX.idx INPUT.pdb OUTPUT.txt\n");
+            Utils.log("Finds the clashing pairs of atoms between a molecule and an");
+            Utils.log("index file, which must have been made with the same radii.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --nearest INPUT1.pdb INPUT2.pdb K OUTPUT.txt\n");
+            Utils.log("Finds the K atoms of the second molecule nearest to each atom");
+            Utils.log("of the first one, and their distances.\n");
+            Utils.log("java -jar csod.jar --interface INPUT1.pdb INPUT2.pdb DISTANCE OUTPUT.txt\n");
+            Utils.log("Lists the residues of each molecule with an atom within");
+            Utils.log("DISTANCE Å of an atom of the other molecule.\n");
+            Utils.log("java -jar csod.jar --contacts INPUT1.pdb INPUT2.pdb DISTANCE OUTPUT.txt\n");
+            Utils.log("Writes the contact map of the residues of the molecules: one line");
+            Utils.log("for each pair of residues with atoms within DISTANCE Å, with the");
+            Utils.log("number of atom pairs in contact and the closest pair of them.");
+            Utils.log("All three use --threads and --select as described above.");
+            Utils.log("OUTPUT.txt is optional, 'output.txt' is used as default.\n");
+            Utils.log("java -jar csod.jar --generate SOURCE ATOMS OUT1.pdb OUT2.pdb [DENSITY [OVERLAP [SEED]]]\n");
+            Utils.log("Generates two synthetic molecules for scaling tests:");
+            Utils.log("SOURCE                     :  'spheres' for randomly packed atoms, or");
+            Utils.log("                              a *.pdb file to replicate with random");
+            Utils.log("                              rotations.");
+            Utils.log("ATOMS                      :  Number of atoms in each molecule.");
+            Utils.log("DENSITY                    :  Atoms per cubic Ångström. Optional,");
+            Utils.log("                              " + MoleculeGenerator.PROTEINDENSITY + " is used as default.");
+            Utils.log("OVERLAP                    :  Fraction of the second molecule that");
+            Utils.log("                              overlaps the first. Optional, 0.1 is");
+            Utils.log("                              used as default.");
+            Utils.log("SEED                       :  Seed for the random numbers. Optional.\n");
             Utils.log("If no arguments are given, the GUI will start up.");
             System.exit(1);
         }
@@ -130,10 +292,20 @@ public class Main {
             String in0 = args[0];
             String in1 = args[1];
             String outfile = "output.txt";
-            if(args.length == 4) {
+            String statsfile = null;
+            if(args.length >= 4) {
                 outfile = args[3];
             }
+            if(args.length == 5) {
+                statsfile = args[4];
+            }
             boolean hash = args[2].equals("-h") | args[2].equals("h");
+            boolean residues = args[2].equals("-r") | args[2].equals("r");
+            RadiusTable radii = getRadiusTable();
+            Selection selection = getSelection();
+            Conformers.Mode altLocs = getAltLocs();
+            if(radii == null || selection == null || altLocs == null)
+                System.exit(1);
 
             PrintStream ps = null;
             try {
@@ -144,12 +316,523 @@ public class Main {
                 System.exit(1);
             }
 
-            if(Utils.run(hash, in0, in1, ps))
-                Utils.log("Result written to " + outfile);
-            else
+            Statistics stats = residues ?
+                               Utils.runResidues(in0, in1, ps, radii, selection, altLocs) :
+                               Utils.run(hash, in0, in1, ps, radii, selection, altLocs);
+            ps.close();
+            if(stats == null) {
                 Utils.log("Errors during computation.");
+                System.exit(1);
+            }
+            Utils.log("Result written to " + outfile);
+
+            if(statsfile != null) {
+                try {
+                    PrintStream statsStream = new PrintStream(new File(statsfile));
+                    stats.writeJson(statsStream);
+                    statsStream.close();
+                    Utils.log("Statistics written to " + statsfile);
+                } catch (FileNotFoundException e) {
+                    Utils.log("Cannot open file " + statsfile + " for writing.");
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+
+    /**Removes all options of the form "--name value", where the name is
+     * one of VALUEOPTIONS, and "--name", where the name is one of
+     * FLAGOPTIONS, from the arguments and stores them in the options map.
+     *
+     * @param args Parameters to the program.
+     * @return The parameters that were not options.
+     */
+    private static String[] parseOptions(String[] args) {
+        List<String> rest = new ArrayList<String>();
+        List<String> names = Arrays.asList(VALUEOPTIONS);
+        List<String> flags = Arrays.asList(FLAGOPTIONS);
+        for(int i = 0; i < args.length; i++) {
+            if(names.contains(args[i]) && i + 1 < args.length)
+                options.put(args[i], args[++i]);
+            else if(flags.contains(args[i]))
+                options.put(args[i], "");
+            else
+                rest.add(args[i]);
+        }
+        return rest.toArray(new String[rest.size()]);
+    }
+
+    /**Creates the RadiusTable given by the --radii and --tolerance
+     * options. If no radii are given, every atom gets the radius
+     * Atom.ATOMRADIUS, and the tolerance still applies.
+     *
+     * @return The RadiusTable, or null if it could not be created.
+     */
+    private static RadiusTable getRadiusTable() {
+        String radii = options.get("--radii");
+        double tolerance = 0;
+        try {
+            if(options.containsKey("--tolerance"))
+                tolerance = Double.parseDouble(options.get("--tolerance"));
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid tolerance: " + options.get("--tolerance"));
+            return null;
+        }
+        if(radii == null)
+            return RadiusTable.uniform(Atom.ATOMRADIUS, tolerance);
+        if(radii.equals("vdw"))
+            return RadiusTable.vanDerWaals(tolerance);
+        return RadiusTable.read(radii, tolerance);
+    }
+
+    /**Parses the Selection given by the --select option. If no selection
+     * is given, every atom is selected.
+     *
+     * @return The Selection, or null if the expression is not valid.
+     */
+    private static Selection getSelection() {
+        if(!options.containsKey("--select"))
+            return Selection.ALL;
+        try {
+            return Selection.parse(options.get("--select"));
+        } catch (IllegalArgumentException e) {
+            Utils.log("Invalid selection: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**Returns how alternate locations are handled, as given by the
+     * --altloc option. Without it, every atom is compared.
+     *
+     * @return The Conformers.Mode, or null if the option is not valid.
+     */
+    private static Conformers.Mode getAltLocs() {
+        if(!options.containsKey("--altloc"))
+            return Conformers.Mode.ALL;
+        try {
+            return Conformers.parseMode(options.get("--altloc"));
+        } catch (IllegalArgumentException e) {
+            Utils.log("Invalid altloc handling: " + options.get("--altloc"));
+            return null;
+        }
+    }
+
+    /**Finds the clashes within the molecule of a single *.pdb file, as
+     * described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --self.
+     * @return True if the result was written, false otherwise.
+     */
+    private static boolean self(String[] args) {
+        if(args.length < 2 || args.length > 3) {
+            Utils.log("Usage: java -jar csod.jar --self INPUT.pdb OUTPUT.txt");
+            return false;
+        }
+        String outfile = args.length == 3 ? args[2] : "output.txt";
+        RadiusTable radii = getRadiusTable();
+        Selection selection = getSelection();
+        Conformers.Mode altLocs = getAltLocs();
+        if(radii == null || selection == null || altLocs == null)
+            return false;
+
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new File(outfile));
+        } catch (FileNotFoundException e) {
+            Utils.log("Cannot open file " + outfile + " for writing.");
+            return false;
+        }
+        Statistics stats = Utils.runSelf(args[1], ps, radii, selection, altLocs);
+        ps.close();
+        if(stats == null)
+            return false;
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Finds the clashes between the molecule of a single *.pdb file and
+     * its symmetry mates, as described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --symmetry.
+     * @return True if the result was written, false otherwise.
+     */
+    private static boolean symmetry(String[] args) {
+        if(args.length < 2 || args.length > 3) {
+            Utils.log("Usage: java -jar csod.jar --symmetry INPUT.pdb OUTPUT.txt");
+            return false;
+        }
+        String outfile = args.length == 3 ? args[2] : "output.txt";
+        RadiusTable radii = getRadiusTable();
+        Selection selection = getSelection();
+        Conformers.Mode altLocs = getAltLocs();
+        if(radii == null || selection == null || altLocs == null)
+            return false;
+
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new File(outfile));
+        } catch (FileNotFoundException e) {
+            Utils.log("Cannot open file " + outfile + " for writing.");
+            return false;
+        }
+        Statistics stats = Utils.runSymmetry(args[1], ps, radii, selection, altLocs);
+        ps.close();
+        if(stats == null)
+            return false;
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Counts the clashes between the chains or models of a single *.pdb
+     * file, as described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --chains or
+     *        --models.
+     * @return True if the result was written, false otherwise.
+     */
+    private static boolean interfaces(String[] args) {
+        if(args.length < 2 || args.length > 3) {
+            Utils.log("Usage: java -jar csod.jar " + args[0] +
+                      " INPUT.pdb OUTPUT.txt");
+            return false;
+        }
+        String outfile = args.length == 3 ? args[2] : "output.txt";
+        RadiusTable radii = getRadiusTable();
+        Selection selection = getSelection();
+        Conformers.Mode altLocs = getAltLocs();
+        if(radii == null || selection == null || altLocs == null)
+            return false;
+
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new File(outfile));
+        } catch (FileNotFoundException e) {
+            Utils.log("Cannot open file " + outfile + " for writing.");
+            return false;
+        }
+        Statistics stats = Utils.runInterfaces(args[1], ps, radii,
+                                               args[0].equals("--models"),
+                                               selection, altLocs);
+        ps.close();
+        if(stats == null)
+            return false;
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Counts the clashes between two selections of chains in every model
+     * of a single *.pdb file, as described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --frames.
+     * @return True if the result was written, false otherwise.
+     */
+    private static boolean frames(String[] args) {
+        if(args.length < 4 || args.length > 5) {
+            Utils.log("Usage: java -jar csod.jar --frames INPUT.pdb " +
+                      "CHAINS1 CHAINS2 OUTPUT.txt");
+            return false;
+        }
+        String outfile = args.length == 5 ? args[4] : "output.txt";
+        RadiusTable radii = getRadiusTable();
+        if(radii == null)
+            return false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if(options.containsKey("--threads"))
+                threads = Integer.parseInt(options.get("--threads"));
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid number of threads: " + options.get("--threads"));
+            return false;
+        }
+        double[] box = null;
+        if(options.containsKey("--periodic")) {
+            box = getPeriodicBox(args[1]);
+            if(box == null)
+                return false;
+        }
+
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new File(outfile));
+        } catch (FileNotFoundException e) {
+            Utils.log("Cannot open file " + outfile + " for writing.");
+            return false;
+        }
+        Statistics stats = Utils.runFrames(args[1], args[2], args[3], ps,
+                                           radii, threads,
+                                           options.containsKey("--update-moved"),
+                                           box);
+        ps.close();
+        if(stats == null)
+            return false;
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Returns the periodic box of a *.pdb file, as the lengths of the
+     * rectangular unit cell of its CRYST1 record. Problems are logged.
+     *
+     * @param filename Name of the *.pdb file.
+     * @return The lengths of the box, or null if there is none.
+     */
+    private static double[] getPeriodicBox(String filename) {
+        Crystal crystal;
+        try {
+            crystal = Crystal.read(filename);
+        } catch (IOException e) {
+            Utils.log(e.getMessage());
+            return null;
+        }
+        if(crystal == null) {
+            Utils.log("No CRYST1 record in " + filename + ".");
+            return null;
+        }
+        double[] box = crystal.getBox();
+        if(box == null)
+            Utils.log("The box of " + filename + " is not rectangular.");
+        return box;
+    }
+
+    /**Runs the clash detection service until it is shut down, as
+     * described by the usage info and by the Daemon class.
+     *
+     * @param args Parameters to the program, starting with --daemon.
+     * @return True if the daemon was shut down, false if it failed.
+     */
+    private static boolean daemon(String[] args) {
+        if(args.length > 2) {
+            Utils.log("Usage: java -jar csod.jar --daemon PORT");
+            return false;
+        }
+        RadiusTable radii = getRadiusTable();
+        if(radii == null)
+            return false;
+        int port = Daemon.DEFAULTPORT;
+        int connections = 2 * Runtime.getRuntime().availableProcessors();
+        try {
+            if(args.length == 2)
+                port = Integer.parseInt(args[1]);
+            if(options.containsKey("--connections"))
+                connections = Integer.parseInt(options.get("--connections"));
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid number: " + e.getMessage());
+            return false;
+        }
+
+        try {
+            new Daemon(radii, connections).serve(port);
+        } catch (IOException e) {
+            Utils.log("Cannot listen on port " + port + ": " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**Writes or queries an index file, as described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --index or
+     *        --query.
+     * @return True if the index or result was written, false otherwise.
+     */
+    private static boolean indexFile(String[] args) {
+        boolean query = args[0].equals("--query");
+        if(args.length < 3 || args.length > (query ? 4 : 3)) {
+            Utils.log(query ?
+                      "Usage: java -jar csod.jar --query INDEX.idx INPUT.pdb OUTPUT.txt" :
+                      "Usage: java -jar csod.jar --index INPUT.pdb INDEX.idx");
+            return false;
+        }
+        RadiusTable radii = getRadiusTable();
+        if(radii == null)
+            return false;
+        ClashIndex.Precision precision = ClashIndex.Precision.DOUBLE;
+        if(options.containsKey("--precision")) {
+            try {
+                precision = ClashIndex.Precision.valueOf(
+                        options.get("--precision").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                Utils.log("Invalid precision: " + options.get("--precision"));
+                return false;
+            }
+        }
+        ClashDetector detector = new ClashDetector(radii, precision);
+
+        if(!query) {
+            try {
+                ClashIndex index = detector.indexToFile(args[1], args[2]);
+                Utils.log("Indexed " + index.getAtomCount() + " atoms in " +
+                          index.getCellCount() + " cells of size " +
+                          index.getUnitSize() + " into " + args[2] + ".");
+                if(precision != ClashIndex.Precision.DOUBLE)
+                    Utils.log("Largest rounding error of a coordinate: " +
+                              index.getMaxError() + " Å.");
+            } catch (IllegalArgumentException e) {
+                Utils.log("Cannot index " + args[1] + ": " + e.getMessage());
+                return false;
+            } catch (IOException e) {
+                Utils.log("Cannot index " + args[1] + ": " + e.getMessage());
+                return false;
+            }
+            return true;
+        }
+
+        String outfile = args.length == 4 ? args[3] : "output.txt";
+        List<Atom> atoms;
+        ClashResult result;
+        try {
+            ClashIndex index = detector.load(args[1]);
+            atoms = ClashDetector.readAtoms(args[2]);
+            result = detector.query(index, atoms);
+            PrintStream ps = new PrintStream(new File(outfile));
+            for(int i = 0; i < result.size(); i++)
+                ps.printf(Locale.ROOT, "%d %d %.3f%n",
+                          atoms.get(result.getQueryAtom(i)).getSerial(),
+                          index.getSerial(result.getIndexAtom(i)),
+                          result.getDistance(i));
+            ps.println("Number of clashing pairs: " + result.size());
             ps.close();
+        } catch (IOException e) {
+            Utils.log("Cannot query " + args[1] + ": " + e.getMessage());
+            return false;
+        }
+        Utils.log(result.size() + " clashing pairs found. Comparisons needed: " +
+                  result.getComparisons() + ".");
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Finds the nearest atoms, the interface residues, or the residue
+     * contact map of two *.pdb files, as described by the usage info.
+     *
+     * @param args Parameters to the program, starting with --nearest,
+     *        --interface or --contacts.
+     * @return True if the result was written, false otherwise.
+     */
+    private static boolean neighbours(String[] args) {
+        boolean nearest = args[0].equals("--nearest");
+        if(args.length < 4 || args.length > 5) {
+            Utils.log("Usage: java -jar csod.jar " + args[0] + " INPUT1.pdb " +
+                      "INPUT2.pdb " + (nearest ? "K" : "DISTANCE") + " OUTPUT.txt");
+            return false;
+        }
+        String outfile = args.length == 5 ? args[4] : "output.txt";
+        Selection selection = getSelection();
+        if(selection == null)
+            return false;
+        int k = 0;
+        double distance = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if(nearest)
+                k = Integer.parseInt(args[3]);
+            else
+                distance = Double.parseDouble(args[3]);
+            if(options.containsKey("--threads"))
+                threads = Integer.parseInt(options.get("--threads"));
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid number: " + e.getMessage());
+            return false;
+        }
+        if(nearest ? k < 1 : !(distance > 0)) {
+            Utils.log("Invalid " + (nearest ? "K" : "distance") + ": " + args[3]);
+            return false;
+        }
+
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream(new File(outfile));
+        } catch (FileNotFoundException e) {
+            Utils.log("Cannot open file " + outfile + " for writing.");
+            return false;
+        }
+        Statistics stats;
+        if(nearest)
+            stats = Utils.runNearest(args[1], args[2], ps, k,
+                                     Double.POSITIVE_INFINITY, threads, selection);
+        else if(args[0].equals("--contacts"))
+            stats = Utils.runContacts(args[1], args[2], ps, distance,
+                                      threads, selection);
+        else
+            stats = Utils.runInterfaceResidues(args[1], args[2], ps, distance,
+                                               threads, selection);
+        ps.close();
+        if(stats == null)
+            return false;
+        Utils.log("Result written to " + outfile);
+        return true;
+    }
+
+    /**Generates two synthetic molecules and writes them to *.pdb files,
+     * as described by the usage info. The second molecule is translated
+     * so that the requested fraction of it overlaps the first one.
+     *
+     * @param args Parameters to the program, starting with --generate.
+     * @return True if the molecules were written, false otherwise.
+     */
+    private static boolean generate(String[] args) {
+        String usage = "Usage: java -jar csod.jar --generate SOURCE ATOMS " +
+                       "OUT1.pdb OUT2.pdb [DENSITY [OVERLAP [SEED]]]";
+        if(args.length < 5 || args.length > 8) {
+            Utils.log(usage);
+            return false;
+        }
+        int atoms;
+        double density = MoleculeGenerator.PROTEINDENSITY;
+        double overlap = 0.1;
+        long seed = System.nanoTime();
+        try {
+            atoms = Integer.parseInt(args[2]);
+            if(args.length > 5)
+                density = Double.parseDouble(args[5]);
+            if(args.length > 6)
+                overlap = Double.parseDouble(args[6]);
+            if(args.length > 7)
+                seed = Long.parseLong(args[7]);
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid number: " + e.getMessage());
+            return false;
+        }
+        if(atoms <= 0 || !(density > 0) || Double.isInfinite(density) ||
+           !(overlap >= 0 && overlap <= 1)) {
+            Utils.log("ATOMS and DENSITY must be positive, and OVERLAP " +
+                      "from 0 to 1.");
+            Utils.log(usage);
+            return false;
+        }
+
+        MoleculeGenerator generator = new MoleculeGenerator(seed);
+        ArrayList<Atom> template = null;
+        double[] mol0, mol1;
+        if(args[1].equals("spheres")) {
+            mol0 = generator.packedSpheres(atoms, density);
+            mol1 = generator.packedSpheres(atoms, density);
+        }
+        else {
+            template = new ArrayList<Atom>();
+            Utils.readPDBFile(template, args[1], null, null);
+            if(template.size() == 0)
+                return false;
+            mol0 = generator.tile(template, atoms, density);
+            mol1 = generator.tile(template, atoms, density);
+        }
+        MoleculeGenerator.overlap(mol0, mol1, overlap);
+
+        String[] outfiles = {args[3], args[4]};
+        double[][] molecules = {mol0, mol1};
+        for(int i = 0; i < outfiles.length; i++) {
+            try {
+                PrintStream ps = new PrintStream(new File(outfiles[i]));
+                MoleculeGenerator.writePDB(ps, molecules[i], template);
+                ps.close();
+            } catch (FileNotFoundException e) {
+                Utils.log("Cannot open file " + outfiles[i] + " for writing.");
+                return false;
+            }
         }
+        Utils.log("Generated " + atoms + " atoms in " + outfiles[0] +
+                  " and " + outfiles[1] + " (seed " + seed + ").");
+        return true;
     }
 
 
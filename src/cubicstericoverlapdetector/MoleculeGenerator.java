@@ -0,0 +1,324 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**Class for generating large synthetic molecules, so that the scaling
+ * behaviour of the comparison methods can be measured on inputs much
+ * bigger than the *.pdb files shipped with the program.<br /><br />
+ *
+ * Two kinds of molecules can be generated. Packed spheres are atoms
+ * placed at random in a cube, at a given density, where no two atoms
+ * are closer than MINSEPARATION (roughly a covalent bond). Tiled
+ * molecules are copies of an existing molecule, each given a random
+ * rotation and placed on a cubic lattice, so that the assembly gets
+ * the requested density.<br /><br />
+ *
+ * The coordinates are kept in flat arrays of doubles (x0, y0, z0, x1,
+ * ...) rather than as Atoms, since a molecule of millions of Atoms
+ * would not fit in memory otherwise. They can be turned into Atoms or
+ * written to a *.pdb file afterwards.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class MoleculeGenerator {
+    public final static double PROTEINDENSITY = 0.05; // Atoms per cubic Å
+    public final static double MINSEPARATION  = 1.5;
+    private final static int   MAXATTEMPTS    = 100;
+    private final static String CHAINIDS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private Random random;
+
+    public MoleculeGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**Places the given number of atoms at random in a cube, so that
+     * there are density atoms per cubic Ångström. Each new atom is
+     * rejected and placed again if it is closer than MINSEPARATION to
+     * an atom already placed. After MAXATTEMPTS rejections, the atom is
+     * kept anyway, so that the method always terminates.
+     *
+     * @param atoms The number of atoms to generate.
+     * @param density The number of atoms per cubic Ångström.
+     * @return The coordinates of the atoms, as x0, y0, z0, x1, ...
+     */
+    public double[] packedSpheres(int atoms, double density) {
+        double edge = Math.cbrt(atoms / density);
+        double[] coords = new double[atoms * 3];
+
+        // Cells with about one atom each, so that only the 27 cells
+        // around a new atom have to be searched for too close atoms.
+        double cellsize = Math.max(MINSEPARATION, Math.cbrt(1 / density));
+        int cells = Math.max(1, (int) Math.ceil(edge / cellsize));
+        int[] head = new int[cells * cells * cells];
+        int[] next = new int[atoms];
+        for(int i = 0; i < head.length; i++)
+            head[i] = -1;
+
+        for(int i = 0; i < atoms; i++) {
+            int attempt = 0;
+            int cx, cy, cz;
+            double x, y, z;
+            do {
+                x  = random.nextDouble() * edge;
+                y  = random.nextDouble() * edge;
+                z  = random.nextDouble() * edge;
+                cx = Math.min(cells - 1, (int) (x / cellsize));
+                cy = Math.min(cells - 1, (int) (y / cellsize));
+                cz = Math.min(cells - 1, (int) (z / cellsize));
+            } while(++attempt < MAXATTEMPTS &&
+                    hasNeighbour(coords, head, next, cells, cx, cy, cz,
+                                 x, y, z));
+
+            coords[i * 3]     = x;
+            coords[i * 3 + 1] = y;
+            coords[i * 3 + 2] = z;
+            int cell = (cz * cells + cy) * cells + cx;
+            next[i] = head[cell];
+            head[cell] = i;
+        }
+        return coords;
+    }
+
+    /**Returns whether any atom in the 27 cells around (cx, cy, cz) is
+     * closer than MINSEPARATION to the point (x, y, z).
+     */
+    private static boolean hasNeighbour(double[] coords,
+                                        int[] head,
+                                        int[] next,
+                                        int cells,
+                                        int cx, int cy, int cz,
+                                        double x, double y, double z) {
+        double limit = MINSEPARATION * MINSEPARATION;
+        for(int k = Math.max(0, cz - 1); k <= Math.min(cells - 1, cz + 1); k++)
+        for(int j = Math.max(0, cy - 1); j <= Math.min(cells - 1, cy + 1); j++)
+        for(int i = Math.max(0, cx - 1); i <= Math.min(cells - 1, cx + 1); i++) {
+            for(int a = head[(k * cells + j) * cells + i]; a != -1; a = next[a]) {
+                double dx = coords[a * 3]     - x;
+                double dy = coords[a * 3 + 1] - y;
+                double dz = coords[a * 3 + 2] - z;
+                if(dx * dx + dy * dy + dz * dz < limit)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**Replicates the template molecule until the given number of atoms
+     * is reached. Each copy is rotated randomly around its centre and
+     * placed on a cubic lattice. The lattice spacing is chosen so that
+     * the assembly has the given density; if the density is high
+     * enough, neighbouring copies will overlap each other. The last
+     * copy is truncated if atoms is not a multiple of the template size.
+     *
+     * @param template Atoms of the molecule to replicate.
+     * @param atoms The number of atoms to generate.
+     * @param density The number of atoms per cubic Ångström.
+     * @return The coordinates of the atoms, as x0, y0, z0, x1, ...
+     */
+    public double[] tile(ArrayList<Atom> template, int atoms, double density) {
+        int n = template.size();
+        double[] centre = new double[3];
+        for(int i = 0; i < n; i++)
+            for(int d = 0; d < 3; d++)
+                centre[d] += template.get(i).getCoordinate(d) / n;
+
+        int copies  = (atoms + n - 1) / n;
+        int perEdge = (int) Math.ceil(Math.cbrt(copies));
+        double spacing = Math.cbrt(n / density);
+
+        double[] coords = new double[atoms * 3];
+        double[] rotation = new double[9];
+        for(int c = 0; c < copies; c++) {
+            randomRotation(rotation);
+            double ox = (c % perEdge) * spacing;
+            double oy = ((c / perEdge) % perEdge) * spacing;
+            double oz = (c / (perEdge * perEdge)) * spacing;
+
+            for(int i = 0; i < n && c * n + i < atoms; i++) {
+                Atom atom = template.get(i);
+                double x = atom.getCoordinate(0) - centre[0];
+                double y = atom.getCoordinate(1) - centre[1];
+                double z = atom.getCoordinate(2) - centre[2];
+                int a = (c * n + i) * 3;
+                coords[a]     = ox + rotation[0]*x + rotation[1]*y + rotation[2]*z;
+                coords[a + 1] = oy + rotation[3]*x + rotation[4]*y + rotation[5]*z;
+                coords[a + 2] = oz + rotation[6]*x + rotation[7]*y + rotation[8]*z;
+            }
+        }
+        return coords;
+    }
+
+    /**Fills the 3x3 matrix m (row by row) with a uniformly distributed
+     * random rotation, computed from a random unit quaternion.
+     *
+     * @param m Array of length 9 that will hold the rotation matrix.
+     */
+    public void randomRotation(double[] m) {
+        double u1 = random.nextDouble();
+        double u2 = random.nextDouble() * 2 * Math.PI;
+        double u3 = random.nextDouble() * 2 * Math.PI;
+        double a = Math.sqrt(1 - u1), b = Math.sqrt(u1);
+        double w = a * Math.sin(u2), x = a * Math.cos(u2);
+        double y = b * Math.sin(u3), z = b * Math.cos(u3);
+
+        m[0] = 1 - 2*(y*y + z*z); m[1] = 2*(x*y - z*w);     m[2] = 2*(x*z + y*w);
+        m[3] = 2*(x*y + z*w);     m[4] = 1 - 2*(x*x + z*z); m[5] = 2*(y*z - x*w);
+        m[6] = 2*(x*z - y*w);     m[7] = 2*(y*z + x*w);     m[8] = 1 - 2*(x*x + y*y);
+    }
+
+    /**Translates the second molecule along the x axis, so that the given
+     * fraction of its extent lies inside the extent of the first one.
+     * With an evenly distributed molecule, this is also roughly the
+     * fraction of its atoms that lie inside the first molecule. A
+     * fraction of 0 places the molecules just next to each other, and
+     * a fraction of 1 places them on top of each other.
+     *
+     * @param fixed Coordinates of the first molecule. Not changed.
+     * @param moved Coordinates of the second molecule. Will be translated.
+     * @param fraction Fraction of the second molecule that should overlap.
+     */
+    public static void overlap(double[] fixed, double[] moved, double fraction) {
+        double fixedMax = Double.NEGATIVE_INFINITY;
+        double movedMin = Double.POSITIVE_INFINITY;
+        double movedMax = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < fixed.length; i += 3)
+            fixedMax = Math.max(fixedMax, fixed[i]);
+        for(int i = 0; i < moved.length; i += 3) {
+            movedMin = Math.min(movedMin, moved[i]);
+            movedMax = Math.max(movedMax, moved[i]);
+        }
+
+        // The gap of twice the atom radius keeps the molecules apart
+        // when no overlap is wanted.
+        double shift = fixedMax - movedMin -
+                       fraction * (movedMax - movedMin) +
+                       (fraction > 0 ? 0 : Atom.ATOMRADIUS * 2);
+        for(int i = 0; i < moved.length; i += 3)
+            moved[i] += shift;
+    }
+
+    /**Creates Atoms from the given coordinates. If a template is given,
+     * atom i will get the names of atom (i modulo the template size) of
+     * the template; otherwise every atom is a carbon in an unknown
+     * residue. The serial numbers and residue numbers are renumbered
+     * so that they fit in the columns of a *.pdb file.
+     *
+     * @param coords The coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param template Atoms to take names from. May be null.
+     * @return ArrayList of the created Atoms.
+     */
+    public static ArrayList<Atom> toAtoms(double[] coords,
+                                          ArrayList<Atom> template) {
+        int atoms = coords.length / 3;
+        ArrayList<Atom> arr = new ArrayList<Atom>(atoms);
+        String[] xyz = new String[3];
+        int[] range = residueRange(template);
+        for(int i = 0; i < atoms; i++) {
+            for(int d = 0; d < 3; d++)
+                xyz[d] = String.format(Locale.ROOT, "%.3f", coords[i*3 + d]);
+            Atom name = template == null ? null : template.get(i % template.size());
+            int residue = residue(i, template, range);
+            arr.add(new Atom(serial(i),
+                             name == null ? "C" : name.getAtomName(),
+                             "",
+                             name == null ? "UNK" : name.getResName(),
+                             chainID(residue),
+                             resSeq(residue),
+                             "",
+                             name == null ? "C" : name.getElement(),
+                             xyz));
+        }
+        return arr;
+    }
+
+    /**Writes the given coordinates to output as ATOM records of a *.pdb
+     * file. Names are taken from the template in the same way as in
+     * toAtoms(), but without creating any Atoms.
+     *
+     * @param output OutputStream to write the records to.
+     * @param coords The coordinates of the atoms, as x0, y0, z0, x1, ...
+     * @param template Atoms to take names from. May be null.
+     */
+    public static void writePDB(OutputStream output,
+                                double[] coords,
+                                ArrayList<Atom> template) {
+        Formatter fmt = new Formatter(output);
+        int[] range = residueRange(template);
+        for(int i = 0; i < coords.length / 3; i++) {
+            Atom name = template == null ? null : template.get(i % template.size());
+            int residue = residue(i, template, range);
+            String atomName = name == null ? "C" : name.getAtomName();
+            fmt.format(Locale.ROOT,
+                       "ATOM  %5d %-4s %-3s %s%4d    %8.3f%8.3f%8.3f  1.00  0.00          %2s%n",
+                       serial(i),
+                       atomName.length() < 4 ? " " + atomName : atomName,
+                       name == null ? "UNK" : name.getResName(),
+                       chainID(residue),
+                       resSeq(residue),
+                       coords[i * 3],
+                       coords[i * 3 + 1],
+                       coords[i * 3 + 2],
+                       name == null ? "C" : name.getElement());
+        }
+        fmt.format("END%n");
+        fmt.flush();
+    }
+
+    // Serial numbers wrap around after 99999, since that is all the
+    // five columns of the *.pdb format can hold.
+    private static int serial(int i) {
+        return i % 99999 + 1;
+    }
+    // Residues are either taken from the template (one per template
+    // residue and copy), or made up of 8 atoms each. range holds the
+    // smallest resSeq of the template and the number of residues it
+    // spans, as returned by residueRange().
+    private static int residue(int i, ArrayList<Atom> template, int[] range) {
+        if(template == null)
+            return i / 8;
+        int n = template.size();
+        return (i / n) * range[1] + template.get(i % n).getResSeq() - range[0];
+    }
+    private static int[] residueRange(ArrayList<Atom> template) {
+        if(template == null)
+            return null;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for(int i = 0; i < template.size(); i++) {
+            min = Math.min(min, template.get(i).getResSeq());
+            max = Math.max(max, template.get(i).getResSeq());
+        }
+        return new int[] { min, max - min + 1 };
+    }
+    private static int resSeq(int residue) {
+        return residue % 9999 + 1;
+    }
+    private static String chainID(int residue) {
+        int chain = (residue / 9999) % CHAINIDS.length();
+        return CHAINIDS.substring(chain, chain + 1);
+    }
+}
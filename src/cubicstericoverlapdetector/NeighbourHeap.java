@@ -0,0 +1,127 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+/**Bounded max-heap of the nearest atoms found so far, for k-nearest
+ * neighbour queries. At most k atoms are kept, with the farthest one at
+ * the root, so that a new atom is only added if it is nearer than that
+ * one, which it then replaces. The atoms and their squared distances
+ * are kept in arrays of primitives allocated once, so a NeighbourHeap
+ * can be cleared and reused for query after query without creating any
+ * objects. Only one thread may use a NeighbourHeap at a time.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class NeighbourHeap {
+    private final int[]    atoms;
+    private final double[] dist2;
+    private int size = 0;
+
+    /**Creates an empty heap holding at most k atoms.
+     *
+     * @param k The number of nearest atoms to keep.
+     */
+    public NeighbourHeap(int k) {
+        atoms = new int[k];
+        dist2 = new double[k];
+    }
+
+    public int     getSize()     { return size; }
+    public int     getCapacity() { return atoms.length; }
+    public boolean isFull()      { return size == atoms.length; }
+
+    /**Returns the squared distance of the farthest atom kept, or positive
+     * infinity if the heap is not full, since then any atom is kept.
+     *
+     * @return The squared distance that an atom must be nearer than.
+     */
+    public double getMaxDistance2() {
+        return isFull() ? dist2[0] : Double.POSITIVE_INFINITY;
+    }
+
+    /**Empties the heap.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**Adds the atom if the heap is not full, or if it is nearer than the
+     * farthest atom kept, which it then replaces.
+     *
+     * @param atom The number of the atom.
+     * @param d2 The squared distance of the atom.
+     */
+    public void offer(int atom, double d2) {
+        if(size < atoms.length) {
+            // Sift the new atom up from the last leaf.
+            int i = size++;
+            while(i > 0) {
+                int parent = (i - 1) >> 1;
+                if(dist2[parent] >= d2)
+                    break;
+                atoms[i] = atoms[parent];
+                dist2[i] = dist2[parent];
+                i = parent;
+            }
+            atoms[i] = atom;
+            dist2[i] = d2;
+        }
+        else if(size > 0 && d2 < dist2[0])
+            siftDown(0, atom, d2, size);
+    }
+
+    /**Places the atom at position i, or below it, so that no child is
+     * farther than its parent among the first n positions.
+     */
+    private void siftDown(int i, int atom, double d2, int n) {
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= n)
+                break;
+            if(child + 1 < n && dist2[child + 1] > dist2[child])
+                child++;
+            if(dist2[child] <= d2)
+                break;
+            atoms[i] = atoms[child];
+            dist2[i] = dist2[child];
+            i = child;
+        }
+        atoms[i] = atom;
+        dist2[i] = d2;
+    }
+
+    /**Sorts the atoms kept from the nearest to the farthest, by heap
+     * sort in place. After sorting, getAtom() and getDistance2() give the
+     * atoms in that order, but no more atoms may be offered until the
+     * heap has been cleared.
+     */
+    public void sort() {
+        for(int n = size - 1; n > 0; n--) {
+            int atom = atoms[n];
+            double d2 = dist2[n];
+            atoms[n] = atoms[0];
+            dist2[n] = dist2[0];
+            siftDown(0, atom, d2, n);
+        }
+    }
+
+    public int    getAtom(int i)      { return atoms[i]; }
+    public double getDistance2(int i) { return dist2[i]; }
+}
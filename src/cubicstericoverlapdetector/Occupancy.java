@@ -0,0 +1,89 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.Set;
+
+/**Bitmap of the containers of a Space that hold at least one Atom. One
+ * bit is kept per container, and one bit per row of containers, where a
+ * row is the containers that only differ in their first coordinate. The
+ * nearby containers in an empty row are thus rejected together by
+ * testing the bit of the row, and other empty containers by testing
+ * their own bit, without boxing the container ordinal or looking it up
+ * in a hash map.<br /><br />
+ *
+ * An Occupancy is never changed after it has been created, and may be
+ * shared between threads.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Occupancy {
+    private final long[] cells;
+    private final long[] rows;
+    private final int rowLength;
+    private final int occupied;
+
+    /**Creates the bitmap of the given containers of the Space.
+     *
+     * @param space The Space that the container ordinals belong to.
+     * @param containers Ordinals of the containers that hold Atoms.
+     */
+    public Occupancy(Space space, Set<Integer> containers) {
+        rowLength = space.getContainerCount(0);
+        long total = 1;
+        for(int i = 0; i < space.getDimension(); i++)
+            total *= space.getContainerCount(i);
+        cells = new long[(int) ((total + 63) / 64)];
+        rows  = new long[(int) ((total / rowLength + 63) / 64)];
+        int count = 0;
+        for(Integer container : containers) {
+            if(container < 0 || container >= total)
+                continue;
+            int row = container / rowLength;
+            cells[container >> 6] |= 1L << container;
+            rows[row >> 6] |= 1L << row;
+            count++;
+        }
+        occupied = count;
+    }
+
+    /**Returns whether the container holds any Atoms.
+     *
+     * @param container Ordinal of a container inside the Space.
+     * @return True if the container holds at least one Atom.
+     */
+    public boolean isOccupied(int container) {
+        return (cells[container >> 6] & (1L << container)) != 0;
+    }
+
+    /**Returns whether any container of the row of the given container
+     * holds Atoms. If not, none of the containers of the row need to be
+     * tested by isOccupied().
+     *
+     * @param container Ordinal of a container inside the Space.
+     * @return True if the row holds at least one Atom.
+     */
+    public boolean isRowOccupied(int container) {
+        int row = container / rowLength;
+        return (rows[row >> 6] & (1L << row)) != 0;
+    }
+
+    public int getOccupiedCount() { return occupied; }
+}
@@ -0,0 +1,131 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.Arrays;
+
+/**Scratch space for queries against a ClashIndex: the buffers that the
+ * clashing pairs are collected in, and a buffer for the types of the
+ * query atoms. The buffers grow to the size of the largest query, and
+ * are then reused, so that a query through ClashDetector.query() with a
+ * QueryContext creates no objects.<br /><br />
+ *
+ * A QueryContext holds the pairs of the last query made with it, until
+ * the next one. It must only be used by one thread at a time; each
+ * thread querying a shared ClashIndex should have its own.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public final class QueryContext {
+    private int[]    queryAtoms = new int[64];
+    private int[]    indexAtoms = new int[64];
+    private double[] distances  = new double[64];
+    private int[]    types      = new int[64];
+    private int      size;
+    private long     comparisons;
+    private long     cellsVisited;
+    private long     nanos;
+
+    /**Returns the number of clashing pairs found by the last query.
+     *
+     * @return The number of clashing pairs.
+     */
+    public int size() { return size; }
+
+    public int    getQueryAtom(int i)  { check(i); return queryAtoms[i]; }
+    public int    getIndexAtom(int i)  { check(i); return indexAtoms[i]; }
+    public double getDistance(int i)   { check(i); return distances[i];  }
+    public long   getComparisons()     { return comparisons;  }
+    public long   getCellsVisited()    { return cellsVisited; }
+    public long   getNanos()           { return nanos;        }
+
+    private void check(int i) {
+        if(i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Pair " + i + " of " + size);
+    }
+
+    /**Empties the buffers before a query.
+     */
+    void clear() {
+        size = 0;
+        comparisons = 0;
+        cellsVisited = 0;
+        nanos = 0;
+    }
+
+    /**Returns a buffer of at least n types.
+     */
+    int[] getTypes(int n) {
+        if(types.length < n)
+            types = new int[Math.max(n, types.length * 2)];
+        return types;
+    }
+
+    /**Adds a clashing pair.
+     */
+    void add(int queryAtom, int indexAtom, double distance) {
+        if(size == queryAtoms.length) {
+            queryAtoms = Arrays.copyOf(queryAtoms, size * 2);
+            indexAtoms = Arrays.copyOf(indexAtoms, size * 2);
+            distances  = Arrays.copyOf(distances,  size * 2);
+        }
+        queryAtoms[size] = queryAtom;
+        indexAtoms[size] = indexAtom;
+        distances[size]  = distance;
+        size++;
+    }
+
+    /**Sorts the pairs at positions from ... size - 1, which all have the
+     * same query atom, by the atom of the index. A query atom has few
+     * clashes, so insertion sort is used.
+     */
+    void sortFrom(int from) {
+        for(int i = from + 1; i < size; i++) {
+            int atom = indexAtoms[i];
+            double distance = distances[i];
+            int j = i - 1;
+            while(j >= from && indexAtoms[j] > atom) {
+                indexAtoms[j + 1] = indexAtoms[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            indexAtoms[j + 1] = atom;
+            distances[j + 1] = distance;
+        }
+    }
+
+    void setCounters(long comparisons, long cellsVisited, long nanos) {
+        this.comparisons  = comparisons;
+        this.cellsVisited = cellsVisited;
+        this.nanos        = nanos;
+    }
+
+    /**Returns a copy of the pairs of the last query, which is not changed
+     * by later queries.
+     *
+     * @return The pairs of the last query.
+     */
+    public ClashResult toResult() {
+        return new ClashResult(Arrays.copyOf(queryAtoms, size),
+                               Arrays.copyOf(indexAtoms, size),
+                               Arrays.copyOf(distances, size),
+                               size, comparisons, cellsVisited, nanos);
+    }
+}
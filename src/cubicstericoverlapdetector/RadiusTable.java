@@ -0,0 +1,239 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**Class holding the radii of the atoms, per element. Two atoms clash
+ * if the distance between their centres is less than the sum of their
+ * radii minus a tolerance.<br /><br />
+ *
+ * Each element in the table is given a type, which is a small integer.
+ * Atoms of elements that are not in the table get the last type, with
+ * a default radius. The squared clash distance of every pair of types
+ * is calculated once, and stored in a matrix. Atoms get their type set
+ * by assignTypes() when they are read, so that comparing two Atoms
+ * only needs a lookup in that matrix, and no lookup by element name.
+ * A RadiusTable is never changed after it has been created, and may be
+ * shared between threads.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class RadiusTable {
+    public final static double DEFAULTRADIUS = 1.8;
+
+    // Van der Waals radii (Å) from Bondi (1964), with the metals
+    // missing there taken from Mantina et al. (2009).
+    private final static Object[][] VDWRADII = {
+        {"H",  1.20}, {"C",  1.70}, {"N",  1.55}, {"O",  1.52},
+        {"S",  1.80}, {"P",  1.80}, {"SE", 1.90}, {"F",  1.47},
+        {"CL", 1.75}, {"BR", 1.85}, {"I",  1.98}, {"NA", 2.27},
+        {"K",  2.75}, {"MG", 1.73}, {"CA", 2.31}, {"MN", 2.05},
+        {"FE", 2.04}, {"CO", 2.00}, {"NI", 1.63}, {"CU", 1.40},
+        {"ZN", 1.39}, {"CD", 1.58}, {"HG", 1.55}
+    };
+
+    private final Map<String, Integer> types = new HashMap<String, Integer>();
+    private final double[] radii;
+    private final double[] cutoff2;
+    private final double   tolerance;
+    private final double   maxCutoff;
+
+    /**Creates a RadiusTable from the given elements and radii. The radius
+     * of elements not in the list is defaultRadius.
+     *
+     * @param elements Element symbols, such as "C" or "FE".
+     * @param radii The radius of each element.
+     * @param defaultRadius Radius of elements that are not in the list.
+     * @param tolerance How much the spheres of two atoms may overlap
+     *        before they clash.
+     */
+    public RadiusTable(List<String> elements,
+                       List<Double> radii,
+                       double defaultRadius,
+                       double tolerance) {
+        int n = elements.size() + 1;
+        this.radii = new double[n];
+        for(int i = 0; i < n - 1; i++) {
+            types.put(elements.get(i).toUpperCase(Locale.ROOT), i);
+            this.radii[i] = radii.get(i);
+        }
+        this.radii[n - 1] = defaultRadius;
+        this.tolerance = tolerance;
+
+        cutoff2 = new double[n * n];
+        double max = 0;
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < n; j++) {
+                double cutoff = Math.max(0, this.radii[i] + this.radii[j] - tolerance);
+                cutoff2[i * n + j] = cutoff * cutoff;
+                max = Math.max(max, cutoff);
+            }
+        }
+        maxCutoff = max;
+    }
+
+    /**Returns a table where every atom has the same radius, regardless
+     * of element. With Atom.ATOMRADIUS, this is the behaviour of the
+     * program when no radii are given.
+     *
+     * @param radius The radius of all atoms.
+     * @return RadiusTable with a single type.
+     */
+    public static RadiusTable uniform(double radius) {
+        return uniform(radius, 0);
+    }
+
+    /**Same as uniform(radius), but the spheres of two atoms may overlap
+     * by the given tolerance before they clash.
+     *
+     * @param radius The radius of all atoms.
+     * @param tolerance How much the spheres of two atoms may overlap
+     *        before they clash.
+     * @return RadiusTable with a single type.
+     */
+    public static RadiusTable uniform(double radius, double tolerance) {
+        return new RadiusTable(new ArrayList<String>(),
+                               new ArrayList<Double>(),
+                               radius,
+                               tolerance);
+    }
+
+    /**Returns a table of the van der Waals radii of the common elements
+     * of proteins, ligands and metal ions.
+     *
+     * @param tolerance How much the spheres of two atoms may overlap
+     *        before they clash.
+     * @return RadiusTable with van der Waals radii.
+     */
+    public static RadiusTable vanDerWaals(double tolerance) {
+        List<String> elements = new ArrayList<String>();
+        List<Double> radii = new ArrayList<Double>();
+        for(int i = 0; i < VDWRADII.length; i++) {
+            elements.add((String) VDWRADII[i][0]);
+            radii.add((Double) VDWRADII[i][1]);
+        }
+        return new RadiusTable(elements, radii, DEFAULTRADIUS, tolerance);
+    }
+
+    /**Reads a table of radii from a file. Each line holds an element
+     * symbol and its radius, separated by white space. Lines starting
+     * with '#' are ignored. The element '*' sets the radius of all
+     * elements not in the file.
+     *
+     * @param filename Name of the file to read.
+     * @param tolerance How much the spheres of two atoms may overlap
+     *        before they clash.
+     * @return The RadiusTable, or null if the file could not be read.
+     */
+    public static RadiusTable read(String filename, double tolerance) {
+        List<String> elements = new ArrayList<String>();
+        List<Double> radii = new ArrayList<Double>();
+        double defaultRadius = DEFAULTRADIUS;
+
+        String line;
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(filename));
+            while ((line = br.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+                if(words.length < 2 || words[0].startsWith("#"))
+                    continue;
+                double radius = Double.parseDouble(words[1]);
+                if(words[0].equals("*"))
+                    defaultRadius = radius;
+                else {
+                    elements.add(words[0]);
+                    radii.add(radius);
+                }
+            }
+            br.close();
+        } catch (NumberFormatException e) {
+            Utils.log("Invalid radius in file " + filename);
+            return null;
+        } catch (IOException e) {
+            Utils.log("Could not open file " + filename);
+            return null;
+        }
+        return new RadiusTable(elements, radii, defaultRadius, tolerance);
+    }
+
+    /**Returns the type of the given element, which is the index used for
+     * it in the matrix of clash distances.
+     *
+     * @param element Element symbol, such as "C" or "FE".
+     * @return The type of the element.
+     */
+    public int getType(String element) {
+        Integer type = types.get(element.toUpperCase(Locale.ROOT));
+        return type == null ? radii.length - 1 : type;
+    }
+
+    /**Sets the type of every Atom in the list from its element.
+     *
+     * @param arr ArrayList of Atoms to set the type of.
+     */
+    public void assignTypes(ArrayList<Atom> arr) {
+        for(int i = 0; i < arr.size(); i++)
+            arr.get(i).setType(getType(arr.get(i).getElement()));
+    }
+
+    public int    getTypeCount()        { return radii.length; }
+    public double getRadius(int type)   { return radii[type];  }
+    public double getTolerance()        { return tolerance;    }
+
+    /**Returns the largest clash distance of any pair of types. Two atoms
+     * further apart than this never clash, so it can be used as the size
+     * of the containers of a Space.
+     *
+     * @return The largest clash distance.
+     */
+    public double getMaxCutoff() { return maxCutoff; }
+
+    /**Returns the squared clash distance of atoms of the given types.
+     *
+     * @param type0 Type of the first atom.
+     * @param type1 Type of the second atom.
+     * @return The squared distance below which the atoms clash.
+     */
+    public double getCutoff2(int type0, int type1) {
+        return cutoff2[type0 * radii.length + type1];
+    }
+
+    /**Returns whether the two Atoms clash, i.e. if their spheres overlap
+     * by more than the tolerance. The types of the Atoms must have been
+     * set by assignTypes().
+     *
+     * @param a First Atom.
+     * @param b Second Atom.
+     * @return true if the Atoms clash, false otherwise.
+     */
+    public boolean clashes(Atom a, Atom b) {
+        return a.getSquaredDistance(b) <
+               cutoff2[a.getType() * radii.length + b.getType()];
+    }
+}
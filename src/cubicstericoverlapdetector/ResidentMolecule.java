@@ -0,0 +1,52 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.List;
+
+/**A named molecule kept by the Daemon: its Atoms, which give the serial
+ * numbers of the atoms in answers, and the ClashIndex that it is probed
+ * through. Nothing is changed after the molecule has been created, so it
+ * may be probed by several threads at once.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public final class ResidentMolecule {
+    private final String     name;
+    private final List<Atom> atoms;
+    private final ClashIndex index;
+
+    /**Creates a molecule of the given atoms, indexed by the detector.
+     *
+     * @param name The name the molecule is known by.
+     * @param atoms The Atoms of the molecule.
+     * @param detector ClashDetector that indexes the atoms.
+     */
+    public ResidentMolecule(String name, List<Atom> atoms, ClashDetector detector) {
+        this.name  = name;
+        this.atoms = atoms;
+        this.index = detector.index(atoms);
+    }
+
+    public String     getName()      { return name;         }
+    public int        getAtomCount() { return atoms.size(); }
+    public Atom       getAtom(int i) { return atoms.get(i); }
+    public ClashIndex getIndex()     { return index;        }
+}
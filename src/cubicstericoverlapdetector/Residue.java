@@ -0,0 +1,123 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.ArrayList;
+
+/**Class holding the Atoms of one residue, and the smallest sphere around
+ * their centre that holds all of them. Two residues can only hold a
+ * clashing pair of Atoms if their spheres come within the largest clash
+ * distance of each other, which lets whole residues be skipped before
+ * any of their Atoms are compared.<br /><br />
+ *
+ * The sphere is centred at the mean of the coordinates of the Atoms, so
+ * it is not the smallest possible one, but it is quick to find and
+ * close to it for the compact residues of proteins.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Residue {
+    private final ArrayList<Atom> atoms;
+    private final double[] centre = new double[3];
+    private final double radius;
+
+    /**Creates a Residue of the given Atoms, which must not be empty.
+     *
+     * @param atoms The Atoms of the residue.
+     */
+    public Residue(ArrayList<Atom> atoms) {
+        this.atoms = atoms;
+        for(int i = 0; i < atoms.size(); i++)
+            for(int d = 0; d < 3; d++)
+                centre[d] += atoms.get(i).getCoordinate(d) / atoms.size();
+        double max = 0;
+        for(int i = 0; i < atoms.size(); i++)
+            max = Math.max(max, getSquaredDistance(atoms.get(i)));
+        radius = Math.sqrt(max);
+    }
+
+    /**Splits the Atoms into residues. Consecutive Atoms with the same
+     * model, chain ID, residue sequence number and insertion code, as in
+     * a *.pdb file, form one residue.
+     *
+     * @param arr ArrayList of Atoms, in the order of the *.pdb file.
+     * @return ArrayList of the residues, in the same order.
+     */
+    public static ArrayList<Residue> group(ArrayList<Atom> arr) {
+        ArrayList<Residue> residues = new ArrayList<Residue>();
+        ArrayList<Atom> current = new ArrayList<Atom>();
+        for(int i = 0; i < arr.size(); i++) {
+            Atom atom = arr.get(i);
+            if(current.size() > 0 && !sameResidue(current.get(0), atom)) {
+                residues.add(new Residue(current));
+                current = new ArrayList<Atom>();
+            }
+            current.add(atom);
+        }
+        if(current.size() > 0)
+            residues.add(new Residue(current));
+        return residues;
+    }
+
+    static boolean sameResidue(Atom a, Atom b) {
+        return a.getModel() == b.getModel() &&
+               a.getResSeq() == b.getResSeq() &&
+               a.getChainID().equals(b.getChainID()) &&
+               a.getICode().equals(b.getICode());
+    }
+
+    public ArrayList<Atom> getAtoms() { return atoms;  }
+    public double   getRadius()       { return radius; }
+
+    /**Returns the centre of the sphere as a Location, for finding its
+     * container in a Space.
+     *
+     * @return The centre of the residue.
+     */
+    public Location getCentre() {
+        return new Location(new Double[] {centre[0], centre[1], centre[2]});
+    }
+
+    /**Returns whether the spheres of this and the other residue are
+     * closer to each other than the given distance.
+     *
+     * @param other The other residue.
+     * @param cutoff The largest clash distance.
+     * @return True if the residues may hold a clashing pair of Atoms.
+     */
+    public boolean isNear(Residue other, double cutoff) {
+        double reach = radius + other.radius + cutoff;
+        double dist2 = 0;
+        for(int d = 0; d < 3; d++) {
+            double delta = centre[d] - other.centre[d];
+            dist2 += delta * delta;
+        }
+        return dist2 < reach * reach;
+    }
+
+    private double getSquaredDistance(Atom atom) {
+        double dist2 = 0;
+        for(int d = 0; d < 3; d++) {
+            double delta = centre[d] - atom.getCoordinate(d);
+            dist2 += delta * delta;
+        }
+        return dist2;
+    }
+}
@@ -0,0 +1,94 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**Java Flight Recorder event spanning a whole run of Utils.run(). It is
+ * committed when the run finishes, and tells which molecules were
+ * compared, how large they were and how much work the comparison took.
+ * The stages of the run are recorded as StageEvents.<br /><br />
+ *
+ * When no recording is enabled for the event, begin() and commit() do
+ * nothing, and the fields are never filled in.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+@Name("cubicstericoverlapdetector.Run")
+@Label("Clash Detection Run")
+@Category("Cubic Steric Overlap Detector")
+@Description("A comparison of two molecules")
+@StackTrace(false)
+public class RunEvent extends Event {
+    @Label("First File")
+    String infile0;
+
+    @Label("Second File")
+    String infile1;
+
+    @Label("Method")
+    String method;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Atoms in First Molecule")
+    long atoms0;
+
+    @Label("Atoms in Second Molecule")
+    long atoms1;
+
+    @Label("Cells")
+    @Description("Non-empty containers in the index of the second molecule")
+    long cells;
+
+    @Label("Comparisons")
+    long comparisons;
+
+    @Label("Clashes")
+    long clashes;
+
+    /**Fills in the fields of the event from the given Statistics and
+     * commits it, if the event is enabled and above its threshold.
+     *
+     * @param stats Statistics of the run.
+     * @param success Whether the run succeeded.
+     */
+    public void record(Statistics stats, boolean success) {
+        end();
+        if(!shouldCommit())
+            return;
+        this.infile0     = stats.getInfile0();
+        this.infile1     = stats.getInfile1();
+        this.method      = stats.getMethod();
+        this.success     = success;
+        this.atoms0      = stats.getAtoms0();
+        this.atoms1      = stats.getAtoms1();
+        this.cells       = stats.getCells();
+        this.comparisons = stats.getComparisons();
+        this.clashes     = stats.getClashes();
+        commit();
+    }
+}
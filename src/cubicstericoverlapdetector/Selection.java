@@ -0,0 +1,316 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**Class for choosing which atoms of a file to read, from an expression
+ * such as "chain A and not water and not element H". The expression is
+ * made of these terms, joined by "and", "or", "not" and parentheses:<br />
+ * chain IDS, resname NAMES, name NAMES, element SYMBOLS, altloc IDS:
+ * atoms whose field is one of the comma separated values.<br />
+ * resseq RANGES: atoms whose residue number is in one of the comma
+ * separated numbers or ranges, such as "1-50,60".<br />
+ * water, hydrogen, hetatm and all.<br /><br />
+ *
+ * The selection is tested on the fields of each record while the file is
+ * read, before any Atom is created, so atoms that are not selected cost
+ * neither an Atom nor room in the index. For a *.pdb file the fields are
+ * compared in place in the columns of the line, without creating any
+ * Strings. A Selection is never changed after it has been parsed, and
+ * may be shared between threads.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public abstract class Selection {
+    /**The fields of a record that a Selection can compare.
+     */
+    public enum Field { GROUP, CHAIN, RESNAME, NAME, ELEMENT, ALTLOC }
+
+    /**The fields of a record of a file, as seen by a Selection.
+     */
+    public interface Record {
+        /**Returns whether the field, with surrounding spaces removed,
+         * is the given value.
+         */
+        boolean is(Field field, String value) throws IOException;
+        /**Returns the residue sequence number of the record.
+         */
+        int getResSeq() throws IOException;
+    }
+
+    /**The Selection of every atom.
+     */
+    public final static Selection ALL = new Selection() {
+        @Override
+        public boolean matches(Record record) { return true; }
+    };
+
+    private final static String[] WATERS = {"HOH", "WAT", "DOD", "H2O", "TIP3", "SOL"};
+    private final static String[] HYDROGENS = {"H", "D"};
+    private final static List<String> WORDS =
+            Arrays.asList("and", "or", "not", "(", ")");
+
+    /**Returns whether the record is selected.
+     *
+     * @param record The fields of the record.
+     * @return True if the atom of the record is to be read.
+     * @throws IOException If a number of the record is invalid.
+     */
+    public abstract boolean matches(Record record) throws IOException;
+
+    /**Parses a selection expression, as described for the class.
+     *
+     * @param expression The expression to parse.
+     * @return The Selection of the expression.
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    public static Selection parse(String expression) {
+        String spaced = expression.replace("(", " ( ").replace(")", " ) ").trim();
+        Parser parser = new Parser(spaced.length() == 0 ?
+                                   new String[0] : spaced.split("\\s+"));
+        Selection selection = parser.or();
+        if(parser.pos < parser.tokens.length)
+            throw new IllegalArgumentException("Unexpected '" +
+                    parser.tokens[parser.pos] + "' in selection");
+        return selection;
+    }
+
+    /**Recursive descent parser of expressions, in which "not" binds
+     * hardest and "or" weakest.
+     */
+    private static class Parser {
+        private final String[] tokens;
+        private int pos = 0;
+
+        private Parser(String[] tokens) {
+            this.tokens = tokens;
+        }
+
+        private boolean accept(String word) {
+            if(pos < tokens.length && tokens[pos].equalsIgnoreCase(word)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private String next(String what) {
+            if(pos >= tokens.length ||
+               WORDS.contains(tokens[pos].toLowerCase(Locale.ROOT)))
+                throw new IllegalArgumentException("Missing " + what + " in selection");
+            return tokens[pos++];
+        }
+
+        private Selection or() {
+            Selection left = and();
+            while(accept("or"))
+                left = new Or(left, and());
+            return left;
+        }
+
+        private Selection and() {
+            Selection left = not();
+            while(accept("and"))
+                left = new And(left, not());
+            return left;
+        }
+
+        private Selection not() {
+            if(accept("not"))
+                return new Not(not());
+            if(accept("(")) {
+                Selection inner = or();
+                if(!accept(")"))
+                    throw new IllegalArgumentException("Missing ')' in selection");
+                return inner;
+            }
+            String word = next("term").toLowerCase(Locale.ROOT);
+            if(word.equals("all"))
+                return ALL;
+            if(word.equals("water"))
+                return new Is(Field.RESNAME, WATERS);
+            if(word.equals("hydrogen"))
+                return new Is(Field.ELEMENT, HYDROGENS);
+            if(word.equals("hetatm"))
+                return new Is(Field.GROUP, new String[] {"HETATM"});
+            if(word.equals("resseq"))
+                return new Range(next("residue numbers").split(","));
+            for(Field field : Field.values())
+                if(field != Field.GROUP &&
+                   word.equals(field.name().toLowerCase(Locale.ROOT)))
+                    return new Is(field, next(word + " values").split(","));
+            throw new IllegalArgumentException("Unknown term '" + word +
+                                               "' in selection");
+        }
+    }
+
+    private static class And extends Selection {
+        private final Selection left, right;
+        private And(Selection left, Selection right) {
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        public boolean matches(Record record) throws IOException {
+            return left.matches(record) && right.matches(record);
+        }
+    }
+
+    private static class Or extends Selection {
+        private final Selection left, right;
+        private Or(Selection left, Selection right) {
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        public boolean matches(Record record) throws IOException {
+            return left.matches(record) || right.matches(record);
+        }
+    }
+
+    private static class Not extends Selection {
+        private final Selection inner;
+        private Not(Selection inner) {
+            this.inner = inner;
+        }
+        @Override
+        public boolean matches(Record record) throws IOException {
+            return !inner.matches(record);
+        }
+    }
+
+    /**Selects records whose field is one of the values.
+     */
+    private static class Is extends Selection {
+        private final Field field;
+        private final String[] values;
+        private Is(Field field, String[] values) {
+            this.field = field;
+            this.values = values;
+        }
+        @Override
+        public boolean matches(Record record) throws IOException {
+            for(int i = 0; i < values.length; i++)
+                if(record.is(field, values[i]))
+                    return true;
+            return false;
+        }
+    }
+
+    /**Selects records whose residue number is in one of the ranges.
+     */
+    private static class Range extends Selection {
+        private final int[] low, high;
+        private Range(String[] ranges) {
+            low  = new int[ranges.length];
+            high = new int[ranges.length];
+            try {
+                for(int i = 0; i < ranges.length; i++) {
+                    // The dash of a range comes after the first character,
+                    // which may be the sign of a negative number.
+                    int dash = ranges[i].indexOf('-', 1);
+                    low[i] = Integer.parseInt(dash < 0 ? ranges[i] :
+                                              ranges[i].substring(0, dash));
+                    high[i] = dash < 0 ? low[i] :
+                              Integer.parseInt(ranges[i].substring(dash + 1));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid residue numbers '" +
+                        Arrays.toString(ranges) + "' in selection");
+            }
+        }
+        @Override
+        public boolean matches(Record record) throws IOException {
+            int resSeq = record.getResSeq();
+            for(int i = 0; i < low.length; i++)
+                if(resSeq >= low[i] && resSeq <= high[i])
+                    return true;
+            return false;
+        }
+    }
+
+    /**The fields of an ATOM or HETATM line of a *.pdb file, compared in
+     * place in the columns of the line. The same LineRecord is used for
+     * every line of a file.
+     */
+    static class LineRecord implements Record {
+        // First and last column of each Field.
+        private final static int[] START = {0, 21, 17, 12, 76, 16};
+        private final static int[] END   = {6, 22, 21, 16, 78, 17};
+
+        private String line;
+
+        void setLine(String line) {
+            this.line = line;
+        }
+
+        @Override
+        public boolean is(Field field, String value) {
+            int start = Math.min(START[field.ordinal()], line.length());
+            int end = Math.min(END[field.ordinal()], line.length());
+            while(start < end && line.charAt(start) == ' ')
+                start++;
+            while(end > start && line.charAt(end - 1) == ' ')
+                end--;
+            if(field == Field.ELEMENT && start == end) {
+                // The element columns are missing, so it is guessed as
+                // when the Atom is created.
+                return Utils.guessElement(line.substring(12, 16),
+                                          line.startsWith("HETATM"))
+                            .equalsIgnoreCase(value);
+            }
+            return end - start == value.length() &&
+                   line.regionMatches(field == Field.ELEMENT, start,
+                                      value, 0, value.length());
+        }
+
+        @Override
+        public int getResSeq() {
+            int start = 22;
+            int end = 26;
+            while(start < end && line.charAt(start) == ' ')
+                start++;
+            while(end > start && line.charAt(end - 1) == ' ')
+                end--;
+            boolean negative = start < end && line.charAt(start) == '-';
+            if(negative)
+                start++;
+            if(start == end)
+                throw invalidResSeq();
+            int value = 0;
+            for(int i = start; i < end; i++) {
+                char c = line.charAt(i);
+                if(c < '0' || c > '9')
+                    throw invalidResSeq();
+                value = value * 10 + (c - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        private NumberFormatException invalidResSeq() {
+            return new NumberFormatException("For input string: \"" +
+                                             line.substring(22, 26) + "\"");
+        }
+    }
+}
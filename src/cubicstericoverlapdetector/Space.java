@@ -19,6 +19,7 @@
 package cubicstericoverlapdetector;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 
 /**This class takes a min and max Location, and the size of a unit inside
@@ -26,59 +27,151 @@ import java.util.ArrayList;
  * unit size. It has methods for checking whether a given Location is
  * inside the spanned Space, for returning the container ordinal of a
  * Location, and for returning all nearby container ordinals of a given
- * Location.
+ * Location.<br /><br />
+ *
+ * The containers need not be as large as the clash distance. With a
+ * reach of r, the containers are 1/r of the clash distance, and the
+ * containers up to r steps away in each dimension are nearby; that is
+ * (2r + 1)<sup>3</sup> containers in three dimensions. Smaller
+ * containers hold fewer atoms that are too far away to clash, at the
+ * price of more lookups. The forDensity() method chooses the reach
+ * from how densely packed the atoms are.
  *
  * @author Johan Sjöblom
  *
  */
 public class Space {
-    private Location min, max;
-    private int[] numberofcontainers;
-    private BigDecimal unitsize;
+    // Estimated cost of looking up a container (including finding it
+    // in advance), relative to the cost of comparing two atoms. Used by
+    // chooseReach(). Measured on 1L5Q, where a lookup costs about as
+    // much as a comparison.
+    public final static double LOOKUPCOST = 1.0;
+    public final static int    MAXREACH   = 3;
+
+    private final Location min, max;
+    private final int[] numberofcontainers;
+    private final BigDecimal unitsize;
+    private final int reach;
+    // The min coordinates and unit size as doubles, for getSpatialKey().
+    private final double[] origin;
+    private final double unit;
 
     public Space(double unitsize, Location min, Location max) {
+        this(unitsize, 1, min, max);
+    }
+
+    /**Creates a Space of containers of the given size, where the
+     * containers up to reach steps away from a container are nearby
+     * it. For no clashes to be missed, unitsize * reach must be at
+     * least the largest clash distance.
+     *
+     * @param unitsize The size of each container.
+     * @param reach How many containers away in each dimension that
+     *        are nearby.
+     * @param min The smallest coordinates of the Space.
+     * @param max The largest coordinates of the Space.
+     */
+    public Space(double unitsize, int reach, Location min, Location max) {
         if(min.getDimension() != max.getDimension()) {
             throw new RuntimeException("Dimensions don't agree");
         }
 
-        this.unitsize = new BigDecimal(unitsize);
+        this.unitsize = BigDecimal.valueOf(unitsize);
+        this.reach = reach;
         this.min = min;
         this.max = max;
-
-        double[] mincoords = min.getDoubleCoordinates();
-        double[] maxcoords = max.getDoubleCoordinates();
+        this.origin = min.getDoubleCoordinates();
+        this.unit = unitsize;
 
         // Count how many containers the space spans, in each direction.
-        numberofcontainers = new int[maxcoords.length];
-        for(int i = 0; i < maxcoords.length; i++) {
-            numberofcontainers[i] = (int) Math.ceil(
-                    (maxcoords[i] - mincoords[i]) / unitsize);
+        // The container of the max coordinate is included.
+        numberofcontainers = new int[max.getDimension()];
+        for(int i = 0; i < max.getDimension(); i++) {
+            numberofcontainers[i] = getContainerForDimension(
+                    max.getCoordinate(i), i) + 1;
         }
     }
 
+    /**Creates a Space for a molecule with the given number of atoms
+     * spread over the given number of occupied containers of the size
+     * of the clash distance. The reach is chosen by chooseReach(), and
+     * the containers are sized accordingly.
+     *
+     * @param cutoff The largest clash distance.
+     * @param atoms The number of atoms of the molecule.
+     * @param occupied The number of containers of size cutoff that
+     *        hold at least one atom.
+     * @param min The smallest coordinates of the Space.
+     * @param max The largest coordinates of the Space.
+     * @return The Space.
+     */
+    public static Space forDensity(double cutoff,
+                                   int atoms,
+                                   int occupied,
+                                   Location min,
+                                   Location max) {
+        double atomsPerContainer = (double) atoms / Math.max(1, occupied);
+        int reach = chooseReach(atomsPerContainer, min.getDimension());
+        return new Space(cutoff / reach, reach, min, max);
+    }
 
-    /**Returns whether the given Location is within this Space. If false
-     * is returned, then the Location is outside one of the dimensions
-     * of the Space.
+    /**Chooses the reach that is expected to need the least work per
+     * lookup, given the mean number of atoms in an occupied container
+     * of the size of the clash distance. With reach r, a lookup visits
+     * (2r + 1)<sup>d</sup> containers, each holding on average
+     * atomsPerContainer / r<sup>d</sup> atoms to compare against.
+     * Each visited container costs LOOKUPCOST comparisons.
      *
-     * @param l Location to check.
-     * @return True if the given Location is within the Space,
-     * false otherwise.
+     * @param atomsPerContainer Mean number of atoms per occupied container.
+     * @param dimension Number of dimensions of the Space.
+     * @return The reach, between 1 and MAXREACH.
      */
-    private boolean isInsideSpace(Location l) {
-        if(l.getDimension() != max.getDimension())
-            throw new RuntimeException("Dimensions don't agree");
+    public static int chooseReach(double atomsPerContainer, int dimension) {
+        int best = 1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for(int r = 1; r <= MAXREACH; r++) {
+            double containers = Math.pow(2 * r + 1, dimension);
+            double cost = containers * (LOOKUPCOST +
+                          atomsPerContainer / Math.pow(r, dimension));
+            if(cost < bestCost) {
+                best = r;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    public double getUnitSize()  { return unitsize.doubleValue(); }
+    public int    getReach()     { return reach; }
+    public int    getDimension() { return numberofcontainers.length; }
+    public int    getContainerCount(int dim) { return numberofcontainers[dim]; }
 
-        for(int i = 0; i < l.getDimension(); i++) {
-            // If at least one of the objects' coordinates is
-            // either smaller than the min element of the space
-            // (which basically acts as the Origin), or is larger
-            // than the last container of the dimension, then
-            // return false
-            BigDecimal t = BigDecimal.ONE;
-            t = (t.add(max.getCoordinate(i)).subtract(min.getCoordinate(i)))
-                    .multiply(unitsize);
-            if(l.compareTo(min, i)<0 || l.getCoordinate(i).compareTo(t)>0)
+    /**Returns the number of nearby containers of a container that is
+     * not near the border of the Space, i.e. (2 * reach + 1) to the
+     * power of the number of dimensions.
+     *
+     * @return The number of nearby containers.
+     */
+    public int getNearbyCount() {
+        return (int) Math.pow(2 * reach + 1, max.getDimension());
+    }
+
+
+    /**Returns whether the given container coordinates are within this
+     * Space. If false is returned, then the coordinates are outside one
+     * of the dimensions of the Space.
+     *
+     * @param cell Container coordinates (one per dimension) to check.
+     * @return True if the given coordinates are within the Space,
+     * false otherwise.
+     */
+    private boolean isInsideSpace(int[] cell) {
+        for(int i = 0; i < cell.length; i++) {
+            // If at least one of the container coordinates is either
+            // before the first container of the dimension (the min
+            // element of the space basically acts as the Origin), or
+            // after the last container of it, then return false
+            if(cell[i] < 0 || cell[i] >= numberofcontainers[i])
                 return false;
         }
         return true;
@@ -94,10 +187,37 @@ public class Space {
      */
     private int getContainerForDimension(BigDecimal coord, int dim) {
         coord = coord.subtract(min.getCoordinates()[dim]);
-        double div = coord.divide(unitsize).doubleValue();
-        return (int)(coord.compareTo(BigDecimal.ZERO) > 0 ?
-                Math.ceil (div) :
-                Math.floor(div));
+        return coord.divide(unitsize, 0, RoundingMode.FLOOR).intValue();
+    }
+
+    /**Returns the container coordinates of the given Location, i.e. the
+     * container it lies in for each dimension.
+     *
+     * @param l Location to find the container coordinates for.
+     * @return The container coordinates of the Location.
+     */
+    private int[] getCell(Location l) {
+        if(l.getDimension() != max.getDimension())
+            throw new RuntimeException("Dimensions don't agree");
+
+        int[] cell = new int[l.getDimension()];
+        for(int i = 0; i < cell.length; i++)
+            cell[i] = getContainerForDimension(l.getCoordinate(i), i);
+        return cell;
+    }
+
+    /**Will return the container ordinal for the given container
+     * coordinates, which must be inside the Space.
+     */
+    private int getContainer(int[] cell) {
+        // For 2 dimensions, the container can be calculated as follows:
+        // container(x, y) = y*maxX + x;
+        // For 3 dimensions, the container can be calculated as follows:
+        // container(x, y, z) = z*maxY*maxX + y*maxX + x;
+        int container = 0;
+        for(int j = cell.length - 1; j >= 0; j--)
+            container = container * numberofcontainers[j] + cell[j];
+        return container;
     }
 
     /**Will return the container ordinal for the given Location.
@@ -107,55 +227,157 @@ public class Space {
      * If the Location is outside of the space, -1 is returned.
      */
     public int getContainer(Location l) {
-        if(!isInsideSpace(l))
+        int[] cell = getCell(l);
+        if(!isInsideSpace(cell))
             return -1;
+        return getContainer(cell);
+    }
 
-        // For 2 dimensions, the container can be calculated as follows:
-        // container(x, y) = y*maxX + x;
-        // For 3 dimensions, the container can be calculated as follows:
-        // container(x, y, z) = z*maxY*maxX + y*maxX + x;
-        int container = 0;
-        BigDecimal[] coord = l.getCoordinates();
-        for(int j = coord.length - 1; j >= 0; j--) {
-            // getContainerForDimension returns which container
-            // in the provided dimension the coordinate is in.
-            int tmp = getContainerForDimension(coord[j], j);
-            for(int k = j - 1; k >= 0; k--)
-                tmp = tmp * numberofcontainers[k];
-            container += tmp;
+    /**Returns the Morton key of the container of the given Location,
+     * which interleaves the bits of its container coordinates. Sorting
+     * Locations by their keys orders them along a Z-shaped curve through
+     * the Space, so that Locations close in the order mostly lie in the
+     * same or nearby containers. Locations outside of the Space get the
+     * key of the nearest container.<br />
+     * The key is only used for ordering, so the containers are found with
+     * doubles rather than BigDecimals; a Location on the border of two
+     * containers may get the key of either.
+     *
+     * @param l Location to find the key for.
+     * @return The Morton key of the container of the Location.
+     */
+    public long getSpatialKey(Location l) {
+        int dimension = origin.length;
+        int[] cell = new int[dimension];
+        for(int i = 0; i < dimension; i++) {
+            int c = (int) Math.floor((l.getDoubleCoordinate(i) - origin[i]) / unit);
+            cell[i] = Math.max(0, Math.min(numberofcontainers[i] - 1, c));
         }
-        return container;
+        int bits = 63 / dimension;
+        long key = 0;
+        for(int b = bits - 1; b >= 0; b--)
+            for(int i = dimension - 1; i >= 0; i--)
+                key = (key << 1) | ((cell[i] >> b) & 1);
+        return key;
     }
 
     /**Given a Location l, this function will return a list of all
      * container ordinals near it (including l's own container ordinal).
      * The ordinals of the adjacent containers of the one that l is in
      * will be put in the list.<br />
-     * For example, if there are two dimensions, the container of l is
-     * added, as well as the next and previous containers for each
-     * dimension. This will mean that 3 (l's container, the next one and
-     * the previous one) containers will be added for each of the two
-     * dimensions, i.e. 3*3 = 9 containers. In the illustration below,
-     * the container of the Location is marked with 'l', and the adjacent
-     * ones are marked with 'x'. The x's and l will have their container
-     * ordinals added to the list that will be returned.<br /><pre>
+     * For example, if there are two dimensions and the reach is 1, the
+     * container of l is added, as well as the next and previous
+     * containers for each dimension. This will mean that 3 (l's
+     * container, the next one and the previous one) containers will be
+     * added for each of the two dimensions, i.e. 3*3 = 9 containers. In
+     * the illustration below, the container of the Location is marked
+     * with 'l', and the adjacent ones are marked with 'x'. The x's and l
+     * will have their container ordinals added to the list that will be
+     * returned.<br /><pre>
      * ..........
      * ....xxx...
      * ....xlx...
      * ....xxx...
      * ..........</pre><br />
      *
-     * For three dimensions, there are 3*3*3 = 27 containers. If some or
-     * all of the containers are outside of the space, the list has as
-     * many fewer elements as the number of containers falling outside.
+     * For three dimensions, there are 3*3*3 = 27 containers. With a
+     * reach of 2, the containers two steps away are also included,
+     * i.e. 5*5*5 = 125 containers. If some or all of the containers
+     * are outside of the space, the list has as many fewer elements
+     * as the number of containers falling outside.
      *
      * @param l Location to get the nearby container ordinals for.
      * @return ArrayList of Integer container ordinals near the Location.
      */
     public ArrayList<Integer> getNearbyContainers(Location l) {
         ArrayList<Integer> list = new ArrayList<Integer>();
-        Location offset = new Location(l.getDimension());
-        recCalcContainers(list, l, offset, 0);
+        int[] cell = getCell(l);
+        recCalcContainers(list, cell, new int[cell.length], 0, false);
+        return list;
+    }
+
+    /**Same as getNearbyContainers(l), but only the containers that are
+     * occupied are added to the list, so that empty containers are never
+     * looked up. Each row of nearby containers, i.e. those that only
+     * differ in their first coordinate, is tested once in the Occupancy,
+     * and its containers are only tested if it is occupied.
+     *
+     * @param l Location to get the nearby container ordinals for.
+     * @param occupied Occupancy of the containers of this Space.
+     * @param list ArrayList that the occupied container ordinals near
+     *        the Location are added to.
+     * @return The number of nearby containers inside the Space that
+     *         were left out since they are empty.
+     */
+    public int getNearbyContainers(Location l, Occupancy occupied,
+                                   ArrayList<Integer> list) {
+        int[] cell = getCell(l);
+        return addOccupiedContainers(list, cell, new int[cell.length],
+                                     cell.length - 1, occupied);
+    }
+
+    /**Adds the occupied containers near orig to list, for
+     * getNearbyContainers(l, occupied, list). The coordinates of cell
+     * are set to orig plus -reach ... reach, as in recCalcContainers(),
+     * from the last dimension down to the second one; the first one is
+     * then looped over only if the row of containers is occupied.
+     *
+     * @return The number of containers inside the space that were not
+     * added since they are not occupied.
+     */
+    private int addOccupiedContainers(ArrayList<Integer> list,
+                                      int[] orig,
+                                      int[] cell,
+                                      int dim,
+                                      Occupancy occupied) {
+        if(dim > 0) {
+            int skipped = 0;
+            for(int i = -reach; i <= reach; i++) {
+                cell[dim] = orig[dim] + i;
+                if(cell[dim] < 0 || cell[dim] >= numberofcontainers[dim])
+                    continue;
+                skipped += addOccupiedContainers(list, orig, cell, dim - 1,
+                                                 occupied);
+            }
+            return skipped;
+        }
+
+        int first = Math.max(0, orig[0] - reach);
+        int last = Math.min(numberofcontainers[0] - 1, orig[0] + reach);
+        if(first > last)
+            return 0;
+        cell[0] = 0;
+        int row = getContainer(cell);
+        if(!occupied.isRowOccupied(row))
+            return last - first + 1;
+        int skipped = 0;
+        for(int x = first; x <= last; x++) {
+            if(occupied.isOccupied(row + x))
+                list.add(row + x);
+            else
+                skipped++;
+        }
+        return skipped;
+    }
+
+    /**Given a Location l, this function will return the ordinals of half
+     * of the containers near it, not including l's own container. Of
+     * every two containers on opposite sides of l's container, only the
+     * one with a positive offset is included, where the offset is
+     * positive if its last non-zero coordinate is. In three dimensions
+     * with a reach of 1, this is 13 of the 26 nearby containers.<br />
+     * If every container looks in its half shell, and within itself,
+     * every pair of nearby containers is visited exactly once. This is
+     * used to compare a molecule with itself without comparing any pair
+     * of atoms twice.
+     *
+     * @param l Location to get the half shell container ordinals for.
+     * @return ArrayList of Integer container ordinals.
+     */
+    public ArrayList<Integer> getHalfShellContainers(Location l) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        int[] cell = getCell(l);
+        recCalcContainers(list, cell, new int[cell.length], 0, true);
         return list;
     }
 
@@ -163,57 +385,71 @@ public class Space {
     /**This function will recursively calculate the result for the
      * getNearbyContainers method.<br /><br />
      *
-     * This function will start from the Location orig. For each of the
-     * dimensions in orig, we wish to get the adjacent container. This is
-     * accomplished by offsetting orig with unitsize distances in each
-     * dimension. For example, in three dimensions, to get the container
-     * above, to the right and on the same depth as orig, we would add
-     * unitdistance * {1, 1, 0} (x, y, z coordinates). To get the
-     * container below, to the left and inside as orig, add unitdistance *
-     * {-1, -1, -1}. To get orig itself, unitdistance * {0, 0, 0} can be
+     * This function will start from the container coordinates orig. For
+     * each of the dimensions in orig, we wish to get the adjacent
+     * containers. This is accomplished by offsetting orig with up to
+     * reach containers in each dimension. For example, in three
+     * dimensions with a reach of 1, to get the container above, to the
+     * right and on the same depth as orig, we would add {1, 1, 0} (x, y,
+     * z coordinates). To get the container below, to the left and inside
+     * as orig, add {-1, -1, -1}. To get orig itself, {0, 0, 0} can be
      * used.<br />
      * This function works in two steps; first of all offset is populated
-     * by recursively setting each dimension in it to -1, 0 and 1, and
-     * then calling the same method again, but for the next dimension.
-     * When offset has been populated with values of -1, 0 and 1, these
-     * values are multiplied with unitdistance and added to orig. If
-     * this container is inside the space, its ordinal is added to the
+     * by recursively setting each dimension in it to -reach ... reach,
+     * and then calling the same method again, but for the next dimension.
+     * When offset has been populated, it is added to orig. If this
+     * container is inside the space, its ordinal is added to the
      * ArrayList list. When all iterations of the method are finished,
      * the list will be populated with the nearby container ordinals.
      *
      * @param list ArrayList of the container ordinals. Will be
      * recursively built up. Should be created (i.e. not null) before
      * calling the function.
-     * @param orig Location to get the containers nearby of.
-     * @param offset Location that will recursively have its coordinates
-     * set to -1, 0 and 1.
-     * @param dim Dimension to set the coordinate for. Will be updated
+     * @param orig Container coordinates to get the containers nearby of.
+     * @param offset Container offsets that will recursively have their
+     * values set to -reach ... reach.
+     * @param dim Dimension to set the offset for. Will be updated
      * in each recursive call.
+     * @param halfShell If true, only containers with a positive offset
+     * are added, as described in getHalfShellContainers().
      */
     private void recCalcContainers(ArrayList<Integer> list,
-                                   Location orig,
-                                   Location offset,
-                                   int dim) {
+                                   int[] orig,
+                                   int[] offset,
+                                   int dim,
+                                   boolean halfShell) {
 
         // Keep recursively call this method, until all
         // dimensions are set.
-        if(dim < orig.getDimension()) {
-            for(int i = -1; i < 2; i++) {  // i = {-1, 0, 1}
-                Location off = offset.clone();
-                off.setCoordinate(dim, new BigDecimal(i));
-                recCalcContainers(list, orig, off, dim + 1);
+        if(dim < orig.length) {
+            for(int i = -reach; i <= reach; i++) {
+                offset[dim] = i;
+                recCalcContainers(list, orig, offset, dim + 1, halfShell);
             }
         }
         else {
-            // All dimensions have been set to -1, 0 or 1.
-            Location l = orig.clone();
-            offset.multiply(unitsize);
-            l.add(offset);
+            if(halfShell && !isPositive(offset))
+                return;
 
-            // If the location we have calculated is inside
+            // All dimensions have been set to -reach ... reach.
+            int[] cell = new int[orig.length];
+            for(int i = 0; i < orig.length; i++)
+                cell[i] = orig[i] + offset[i];
+
+            // If the container we have calculated is inside
             // the space, then add its ordinal to the list.
-            if(isInsideSpace(l))
-                list.add(getContainer(l));
+            if(isInsideSpace(cell))
+                list.add(getContainer(cell));
         }
     }
+
+    /**Returns whether the last non-zero coordinate of the offset is
+     * positive. For a zero offset, false is returned.
+     */
+    private static boolean isPositive(int[] offset) {
+        for(int i = offset.length - 1; i >= 0; i--)
+            if(offset[i] != 0)
+                return offset[i] > 0;
+        return false;
+    }
 }
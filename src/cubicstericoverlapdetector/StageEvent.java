@@ -0,0 +1,99 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**Java Flight Recorder event for one Stage of a run, such as parsing
+ * the files, building the index or comparing the molecules. The events
+ * are begun and recorded by Statistics.start() and Statistics.stop(),
+ * and carry the counters of the run as they were when the stage ended.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+@Name("cubicstericoverlapdetector.Stage")
+@Label("Clash Detection Stage")
+@Category("Cubic Steric Overlap Detector")
+@Description("One stage of a comparison of two molecules")
+@StackTrace(false)
+public class StageEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(StageEvent.class);
+
+    @Label("Stage")
+    String stage;
+
+    @Label("First File")
+    String infile0;
+
+    @Label("Second File")
+    String infile1;
+
+    @Label("Atoms in First Molecule")
+    long atoms0;
+
+    @Label("Atoms in Second Molecule")
+    long atoms1;
+
+    @Label("Cells")
+    @Description("Non-empty containers in the index of the second molecule")
+    long cells;
+
+    @Label("Comparisons")
+    long comparisons;
+
+    @Label("Clashes")
+    long clashes;
+
+    /**Returns whether a running recording has the events enabled, so that
+     * Statistics only creates them when they may be committed.
+     *
+     * @return True if the events are enabled.
+     */
+    public static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+
+    /**Fills in the fields of the event from the given Statistics and
+     * commits it, if the event is enabled and above its threshold.
+     *
+     * @param stage The Stage that ended.
+     * @param stats Statistics of the run.
+     */
+    public void record(Statistics.Stage stage, Statistics stats) {
+        end();
+        if(!shouldCommit())
+            return;
+        this.stage       = stage.name();
+        this.infile0     = stats.getInfile0();
+        this.infile1     = stats.getInfile1();
+        this.atoms0      = stats.getAtoms0();
+        this.atoms1      = stats.getAtoms1();
+        this.cells       = stats.getCells();
+        this.comparisons = stats.getComparisons();
+        this.clashes     = stats.getClashes();
+        commit();
+    }
+}
@@ -0,0 +1,274 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**Class for collecting timings and counters from a run. Each Stage of
+ * a run is timed in nanoseconds, and the number of bytes allocated by
+ * the running thread during the stage is noted, if the JVM supports
+ * it. Counters are kept in longs, so that they do not overflow for
+ * brute force comparisons of large molecules. Each stage is also
+ * recorded as a StageEvent for Java Flight Recorder.<br /><br />
+ *
+ * A Statistics object is not thread safe; each run should have its own.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Statistics {
+    /**The stages of a run, in the order they are performed.
+     */
+    public enum Stage { PARSE, BOUNDS, INDEX, NEIGHBOURS, PROBE, SORT, WRITE }
+
+    // The last bucket of the histogram counts all cells holding
+    // at least that many atoms.
+    public final static int HISTOGRAMSIZE = 16;
+
+    private final static ThreadMXBean threadBean =
+            ManagementFactory.getThreadMXBean();
+
+    private int    size    = Stage.values().length;
+    private long[] nanos   = new long[size];
+    private long[] bytes   = new long[size];
+    private long[] started = new long[size];
+    private long[] startedBytes = new long[size];
+    private long[] atomsPerCell = new long[HISTOGRAMSIZE];
+    private StageEvent[] events = new StageEvent[size];
+
+    private String infile0 = "";
+    private String infile1 = "";
+    private String method = "";
+    private long atoms0;
+    private long atoms1;
+    private long cells;
+    private long comparisons;
+    private long cellsVisited;
+    // Empty containers that were looked up, by the methods that look up
+    // every nearby container (self, chains and models), and empty
+    // containers that were left out before being looked up, by the hash
+    // method. Each method only fills one of them.
+    private long emptyCells;
+    private long cellsSkipped;
+    // Clashing pairs of atoms, in every mode, and, in the two molecule
+    // modes, the atoms of the second molecule in those pairs.
+    private long clashes;
+    private long clashingAtoms;
+    private long residues0;
+    private long residues1;
+    private long residuePairs;
+    private long residuePairsKept;
+    private double unitSize;
+    private int    reach;
+    private double atomsPerContainer;
+
+    /**Notes the time and allocated bytes at the start of the stage. A
+     * StageEvent is only begun if Java Flight Recorder records them.
+     *
+     * @param stage The Stage that starts.
+     */
+    public void start(Stage stage) {
+        if(StageEvent.isTypeEnabled()) {
+            events[stage.ordinal()] = new StageEvent();
+            events[stage.ordinal()].begin();
+        }
+        startedBytes[stage.ordinal()] = allocatedBytes();
+        started[stage.ordinal()] = System.nanoTime();
+    }
+
+    /**Adds the time and bytes allocated since start() was called for
+     * the stage to the totals of the stage.
+     *
+     * @param stage The Stage that stops.
+     */
+    public void stop(Stage stage) {
+        int i = stage.ordinal();
+        nanos[i] += System.nanoTime() - started[i];
+        long allocated = allocatedBytes();
+        if(allocated >= 0 && startedBytes[i] >= 0)
+            bytes[i] += allocated - startedBytes[i];
+        else
+            bytes[i] = -1;
+        if(events[i] != null) {
+            events[i].record(stage, this);
+            events[i] = null;
+        }
+    }
+
+    /**Returns the number of bytes allocated by the current thread so
+     * far, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) threadBean;
+        if(!bean.isThreadAllocatedMemorySupported() ||
+           !bean.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public long getNanos(Stage stage) { return nanos[stage.ordinal()]; }
+    public long getBytes(Stage stage) { return bytes[stage.ordinal()]; }
+    public long getTotalNanos() {
+        long total = 0;
+        for(int i = 0; i < size; i++)
+            total += nanos[i];
+        return total;
+    }
+
+    public String getInfile0()         { return infile0;      }
+    public String getInfile1()         { return infile1;      }
+    public String getMethod()          { return method;       }
+    public long   getAtoms0()          { return atoms0;       }
+    public long   getAtoms1()          { return atoms1;       }
+    public long   getCells()           { return cells;        }
+    public long   getComparisons()     { return comparisons;  }
+    public long   getCellsVisited()    { return cellsVisited; }
+    public long   getEmptyCells()      { return emptyCells;   }
+    public long   getCellsSkipped()    { return cellsSkipped; }
+    public long   getClashes()         { return clashes;      }
+    public long   getClashingAtoms()   { return clashingAtoms; }
+    public long   getResidues0()       { return residues0;    }
+    public long   getResidues1()       { return residues1;    }
+    public long   getResiduePairs()    { return residuePairs; }
+    public long   getResiduePairsKept() { return residuePairsKept; }
+    public long[] getAtomsPerCell()    { return atomsPerCell; }
+    public double getUnitSize()        { return unitSize;     }
+    public int    getReach()           { return reach;        }
+    public double getAtomsPerContainer() { return atomsPerContainer; }
+
+    /**Returns the mean number of atoms compared against per atom of the
+     * first molecule.
+     *
+     * @return Comparisons per atom of the first molecule.
+     */
+    public double getCandidatesPerProbe() {
+        return atoms0 == 0 ? 0 : (double) comparisons / atoms0;
+    }
+    /**Returns the mean number of containers looked up per atom of the
+     * first molecule.
+     *
+     * @return Visited containers per atom of the first molecule.
+     */
+    public double getCellsPerProbe() {
+        return atoms0 == 0 ? 0 : (double) cellsVisited / atoms0;
+    }
+
+    public void setMethod(String method)     { this.method = method; }
+    public void setFiles(String f0, String f1) { infile0 = f0; infile1 = f1; }
+    public void setAtoms(long a0, long a1)   { atoms0 = a0; atoms1 = a1; }
+    public void setCells(long cells)         { this.cells = cells; }
+    public void setClashes(long clashes)     { this.clashes = clashes; }
+    public void setClashingAtoms(long atoms) { clashingAtoms = atoms; }
+    public void addComparisons(long n)       { comparisons  += n; }
+    public void setResidues(long r0, long r1) { residues0 = r0; residues1 = r1; }
+
+    /**Notes the residue pairs whose spheres were tested in the first
+     * stage of a two stage run, and those that were kept for comparing
+     * their atoms.
+     *
+     * @param tested Number of residue pairs tested.
+     * @param kept Number of residue pairs that were close enough.
+     */
+    public void addResiduePairs(long tested, long kept) {
+        residuePairs     += tested;
+        residuePairsKept += kept;
+    }
+
+    /**Notes the parameters of the Space used for the index.
+     *
+     * @param unitSize The size of the containers.
+     * @param reach How many containers away that are nearby.
+     * @param atomsPerContainer The measured mean number of atoms per
+     *        occupied container of the size of the clash distance.
+     */
+    public void setGrid(double unitSize, int reach, double atomsPerContainer) {
+        this.unitSize = unitSize;
+        this.reach = reach;
+        this.atomsPerContainer = atomsPerContainer;
+    }
+    public void addCellsVisited(long n)      { cellsVisited += n; }
+    public void addEmptyCells(long n)        { emptyCells   += n; }
+    public void addCellsSkipped(long n)      { cellsSkipped += n; }
+
+    /**Notes that a cell holding the given number of atoms exists
+     * in the index.
+     *
+     * @param atoms Number of atoms in the cell.
+     */
+    public void addCell(int atoms) {
+        atomsPerCell[Math.min(atoms, HISTOGRAMSIZE - 1)]++;
+    }
+
+    /**Writes the statistics to output as a JSON object. Times are given
+     * in nanoseconds, and allocations in bytes (-1 if unknown).
+     *
+     * @param output OutputStream to write the JSON object to.
+     */
+    public void writeJson(OutputStream output) {
+        Formatter fmt = new Formatter(output);
+        fmt.format(Locale.ROOT, "{%n  \"files\": [\"%s\", \"%s\"],%n",
+                   jsonEscape(infile0), jsonEscape(infile1));
+        fmt.format(Locale.ROOT, "  \"method\": \"%s\",%n", method);
+        fmt.format(Locale.ROOT, "  \"atoms\": [%d, %d],%n", atoms0, atoms1);
+        fmt.format(Locale.ROOT, "  \"stages\": {%n");
+        Stage[] stages = Stage.values();
+        for(int i = 0; i < stages.length; i++) {
+            fmt.format(Locale.ROOT,
+                       "    \"%s\": {\"nanos\": %d, \"bytes\": %d}%s%n",
+                       stages[i].name().toLowerCase(Locale.ROOT),
+                       nanos[i], bytes[i],
+                       i < stages.length - 1 ? "," : "");
+        }
+        fmt.format(Locale.ROOT, "  },%n");
+        fmt.format(Locale.ROOT, "  \"totalNanos\": %d,%n", getTotalNanos());
+        fmt.format(Locale.ROOT, "  \"unitSize\": %s,%n", unitSize);
+        fmt.format(Locale.ROOT, "  \"reach\": %d,%n", reach);
+        fmt.format(Locale.ROOT, "  \"atomsPerContainer\": %s,%n", atomsPerContainer);
+        fmt.format(Locale.ROOT, "  \"cells\": %d,%n", cells);
+        fmt.format(Locale.ROOT, "  \"comparisons\": %d,%n", comparisons);
+        fmt.format(Locale.ROOT, "  \"cellsVisited\": %d,%n", cellsVisited);
+        fmt.format(Locale.ROOT, "  \"emptyCells\": %d,%n", emptyCells);
+        fmt.format(Locale.ROOT, "  \"cellsSkipped\": %d,%n", cellsSkipped);
+        fmt.format(Locale.ROOT, "  \"candidatesPerProbe\": %s,%n",
+                   getCandidatesPerProbe());
+        fmt.format(Locale.ROOT, "  \"cellsPerProbe\": %s,%n", getCellsPerProbe());
+        fmt.format(Locale.ROOT, "  \"residues\": [%d, %d],%n", residues0, residues1);
+        fmt.format(Locale.ROOT, "  \"residuePairs\": %d,%n", residuePairs);
+        fmt.format(Locale.ROOT, "  \"residuePairsKept\": %d,%n", residuePairsKept);
+        fmt.format(Locale.ROOT, "  \"clashes\": %d,%n", clashes);
+        fmt.format(Locale.ROOT, "  \"clashingAtoms\": %d,%n", clashingAtoms);
+        fmt.format(Locale.ROOT, "  \"atomsPerCell\": [");
+        for(int i = 0; i < atomsPerCell.length; i++)
+            fmt.format(Locale.ROOT, i == 0 ? "%d" : ", %d", atomsPerCell[i]);
+        fmt.format(Locale.ROOT, "]%n}%n");
+        fmt.flush();
+    }
+
+    // Escapes backslashes and quotes, which may occur in file names.
+    private static String jsonEscape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,249 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**Class that finds which atoms of a molecule are covalently bonded, and
+ * thus which pairs of atoms should not be counted as clashes within the
+ * molecule. Bonded atoms (1-2 pairs) and atoms bonded to the same atom
+ * (1-3 pairs) are always closer than the sum of their radii.<br /><br />
+ *
+ * The bonds of the standard amino acids are taken from templates, by
+ * atom name. Consecutive residues of a chain are joined by a peptide
+ * bond. Atoms that are not in a template, such as hydrogens, ligands
+ * and nucleotides, are bonded to the atoms of the same residue that are
+ * within bonding distance. Disulphide bridges are found the same way.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class Topology {
+    public final static double BONDDISTANCE   = 1.9;
+    public final static double HBONDDISTANCE  = 1.3;
+    public final static double SSBONDDISTANCE = 2.5;
+
+    private final static String[] BACKBONE = {"N-CA", "CA-C", "C-O", "C-OXT"};
+    private final static String[][] SIDECHAINS = {
+        {"ALA", "CA-CB"},
+        {"ARG", "CA-CB", "CB-CG", "CG-CD", "CD-NE", "NE-CZ", "CZ-NH1", "CZ-NH2"},
+        {"ASN", "CA-CB", "CB-CG", "CG-OD1", "CG-ND2"},
+        {"ASP", "CA-CB", "CB-CG", "CG-OD1", "CG-OD2"},
+        {"CYS", "CA-CB", "CB-SG"},
+        {"GLN", "CA-CB", "CB-CG", "CG-CD", "CD-OE1", "CD-NE2"},
+        {"GLU", "CA-CB", "CB-CG", "CG-CD", "CD-OE1", "CD-OE2"},
+        {"GLY"},
+        {"HIS", "CA-CB", "CB-CG", "CG-ND1", "CG-CD2", "ND1-CE1", "CD2-NE2",
+                "CE1-NE2"},
+        {"ILE", "CA-CB", "CB-CG1", "CB-CG2", "CG1-CD1"},
+        {"LEU", "CA-CB", "CB-CG", "CG-CD1", "CG-CD2"},
+        {"LYS", "CA-CB", "CB-CG", "CG-CD", "CD-CE", "CE-NZ"},
+        {"MET", "CA-CB", "CB-CG", "CG-SD", "SD-CE"},
+        {"MSE", "CA-CB", "CB-CG", "CG-SE", "SE-CE"},
+        {"PHE", "CA-CB", "CB-CG", "CG-CD1", "CG-CD2", "CD1-CE1", "CD2-CE2",
+                "CE1-CZ", "CE2-CZ"},
+        {"PRO", "CA-CB", "CB-CG", "CG-CD", "CD-N"},
+        {"SER", "CA-CB", "CB-OG"},
+        {"THR", "CA-CB", "CB-OG1", "CB-CG2"},
+        {"TRP", "CA-CB", "CB-CG", "CG-CD1", "CG-CD2", "CD1-NE1", "NE1-CE2",
+                "CD2-CE2", "CD2-CE3", "CE2-CZ2", "CE3-CZ3", "CZ2-CH2",
+                "CZ3-CH2"},
+        {"TYR", "CA-CB", "CB-CG", "CG-CD1", "CG-CD2", "CD1-CE1", "CD2-CE2",
+                "CE1-CZ", "CE2-CZ", "CZ-OH"},
+        {"VAL", "CA-CB", "CB-CG1", "CB-CG2"}
+    };
+    private final static Map<String, String[]> templates =
+            new HashMap<String, String[]>();
+    static {
+        for(int i = 0; i < SIDECHAINS.length; i++)
+            templates.put(SIDECHAINS[i][0], SIDECHAINS[i]);
+    }
+
+    private Map<Atom, Integer> indices = new IdentityHashMap<Atom, Integer>();
+    private List<List<Integer>> bonds = new ArrayList<List<Integer>>();
+    private Set<Long> excluded = new HashSet<Long>();
+
+    /**Finds the bonds of the given molecule, and from them the pairs of
+     * atoms that are excluded from clashing with each other.
+     *
+     * @param arr ArrayList of the Atoms of the molecule.
+     */
+    public Topology(ArrayList<Atom> arr) {
+        for(int i = 0; i < arr.size(); i++) {
+            indices.put(arr.get(i), i);
+            bonds.add(new ArrayList<Integer>(4));
+        }
+
+        // Group the atoms by residue, in the order they appear.
+        List<List<Integer>> residues = new ArrayList<List<Integer>>();
+        for(int i = 0; i < arr.size(); i++) {
+            if(i == 0 || !sameResidue(arr.get(i - 1), arr.get(i)))
+                residues.add(new ArrayList<Integer>());
+            residues.get(residues.size() - 1).add(i);
+        }
+
+        List<Integer> sulphurs = new ArrayList<Integer>();
+        for(int r = 0; r < residues.size(); r++) {
+            List<Integer> residue = residues.get(r);
+            String resName = arr.get(residue.get(0)).getResName();
+            String[] template = templates.get(resName);
+            Set<Integer> templated = new HashSet<Integer>();
+
+            if(template != null) {
+                Map<String, Integer> names = new HashMap<String, Integer>();
+                for(int i = 0; i < residue.size(); i++)
+                    names.put(arr.get(residue.get(i)).getAtomName(), residue.get(i));
+                for(int i = 0; i < BACKBONE.length; i++)
+                    addNamedBond(names, BACKBONE[i], templated);
+                for(int i = 1; i < template.length; i++)
+                    addNamedBond(names, template[i], templated);
+
+                // Peptide bond to the next residue of the same chain.
+                if(r + 1 < residues.size()) {
+                    List<Integer> next = residues.get(r + 1);
+                    Atom first = arr.get(next.get(0));
+                    Integer c = names.get("C");
+                    if(c != null &&
+                       first.getChainID().equals(arr.get(c).getChainID()) &&
+                       first.getResSeq() == arr.get(c).getResSeq() + 1) {
+                        for(int i = 0; i < next.size(); i++)
+                            if(arr.get(next.get(i)).getAtomName().equals("N"))
+                                addBond(c, next.get(i));
+                    }
+                }
+                Integer sg = names.get("SG");
+                if(resName.equals("CYS") && sg != null)
+                    sulphurs.add(sg);
+            }
+
+            // Atoms not covered by the template are bonded by distance.
+            for(int i = 0; i < residue.size(); i++) {
+                int a = residue.get(i);
+                for(int j = i + 1; j < residue.size(); j++) {
+                    int b = residue.get(j);
+                    if(templated.contains(a) && templated.contains(b))
+                        continue;
+                    if(withinBondDistance(arr.get(a), arr.get(b)))
+                        addBond(a, b);
+                }
+            }
+        }
+
+        for(int i = 0; i < sulphurs.size(); i++) {
+            for(int j = i + 1; j < sulphurs.size(); j++) {
+                Atom a = arr.get(sulphurs.get(i));
+                Atom b = arr.get(sulphurs.get(j));
+                if(a.getModel() == b.getModel() &&
+                   a.getSquaredDistance(b) < SSBONDDISTANCE * SSBONDDISTANCE)
+                    addBond(sulphurs.get(i), sulphurs.get(j));
+            }
+        }
+
+        // Exclude 1-2 and 1-3 pairs.
+        for(int i = 0; i < bonds.size(); i++) {
+            List<Integer> partners = bonds.get(i);
+            for(int j = 0; j < partners.size(); j++) {
+                excluded.add(key(i, partners.get(j)));
+                for(int k = j + 1; k < partners.size(); k++)
+                    excluded.add(key(partners.get(j), partners.get(k)));
+            }
+        }
+    }
+
+    private static boolean sameResidue(Atom a, Atom b) {
+        return a.getModel() == b.getModel() &&
+               a.getResSeq() == b.getResSeq() &&
+               a.getChainID().equals(b.getChainID()) &&
+               a.getICode().equals(b.getICode()) &&
+               a.getResName().equals(b.getResName());
+    }
+
+    private static boolean withinBondDistance(Atom a, Atom b) {
+        boolean hydrogen = a.getElement().equals("H") ||
+                           b.getElement().equals("H");
+        double limit = hydrogen ? HBONDDISTANCE : BONDDISTANCE;
+        return a.getSquaredDistance(b) < limit * limit;
+    }
+
+    /**Adds the bond given as "NAME1-NAME2", if both atoms are present
+     * in the residue, and marks the atoms as covered by the template.
+     */
+    private void addNamedBond(Map<String, Integer> names,
+                              String bond,
+                              Set<Integer> templated) {
+        int dash = bond.indexOf('-');
+        Integer a = names.get(bond.substring(0, dash));
+        Integer b = names.get(bond.substring(dash + 1));
+        if(a != null)
+            templated.add(a);
+        if(b != null)
+            templated.add(b);
+        if(a != null && b != null)
+            addBond(a, b);
+    }
+
+    private void addBond(int a, int b) {
+        if(!bonds.get(a).contains(b)) {
+            bonds.get(a).add(b);
+            bonds.get(b).add(a);
+        }
+    }
+
+    private static long key(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**Returns the number of bonds found in the molecule.
+     *
+     * @return The number of bonds.
+     */
+    public int getBondCount() {
+        int count = 0;
+        for(int i = 0; i < bonds.size(); i++)
+            count += bonds.get(i).size();
+        return count / 2;
+    }
+
+    /**Returns whether a clash between the two Atoms should be ignored,
+     * either because they are bonded, bonded to the same atom, or are
+     * alternate locations of each other. Atoms that are not part of the
+     * molecule the Topology was created from are never excluded.
+     *
+     * @param a First Atom.
+     * @param b Second Atom.
+     * @return true if the pair should not be counted as a clash.
+     */
+    public boolean isExcluded(Atom a, Atom b) {
+        if(a == b)
+            return true;
+        if(!Conformers.isSameConformer(a, b))
+            return true;
+        Integer i = indices.get(a);
+        Integer j = indices.get(b);
+        if(i == null || j == null)
+            return false;
+        return excluded.contains(key(i, j));
+    }
+}
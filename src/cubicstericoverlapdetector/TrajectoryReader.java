@@ -0,0 +1,176 @@
+/** Cubic Steric Overlap Detector, for detecting clashes between proteins.
+ *  Copyright (C) 2014  Johan Sjöblom
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package cubicstericoverlapdetector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**Reads the models of a multi-model *.pdb file, such as an NMR ensemble
+ * or a trajectory, one frame at a time. The first frame is read into
+ * Atom objects, which give the names, chains and elements of the atoms.
+ * Every following frame must list the same atoms in the same order, as
+ * trajectories exported from MD programs do, and only its coordinates
+ * are read. They are written straight into arrays given by the caller,
+ * so that reading a frame creates no objects apart from the lines read.
+ * A file without MODEL records has a single frame.
+ *
+ * @author Johan Sjöblom
+ *
+ */
+public class TrajectoryReader {
+    private BufferedReader br;
+    private String filename;
+    private int  model  = 0;  // Number of the frame last read
+    private int  frames = 0;  // Number of frames read so far
+    private int  atoms  = 0;  // Number of atoms in each frame
+    private boolean ended = false;
+
+    /**Opens the given file for reading.
+     *
+     * @param filename Name of the *.pdb file to read.
+     * @throws IOException If the file could not be opened.
+     */
+    public TrajectoryReader(String filename) throws IOException {
+        this.filename = filename;
+        br = Utils.openReader(filename);
+    }
+
+    public int getModel()     { return model;  }
+    public int getFrames()    { return frames; }
+    public int getAtomCount() { return atoms;  }
+
+    /**Reads the first frame into Atom objects, which are added to arr.
+     * Must be called before any call to readFrame().
+     *
+     * @param arr ArrayList which will contain the Atoms of the first frame.
+     * @return True if a frame with at least one atom was read.
+     * @throws IOException If the file could not be read.
+     */
+    public boolean readFirstFrame(ArrayList<Atom> arr) throws IOException {
+        String line;
+        while((line = nextRecord()) != null) {
+            Atom atom = Utils.parseAtom(line);
+            atom.setModel(model);
+            arr.add(atom);
+        }
+        atoms = arr.size();
+        if(atoms > 0)
+            frames++;
+        return atoms > 0;
+    }
+
+    /**Reads the coordinates of the next frame. Atom i of the frame is
+     * written to targets[selection[i]], at position position[i]; atoms
+     * whose selection is negative are skipped.
+     *
+     * @param targets Arrays of coordinates, as x0, y0, z0, x1, ...
+     * @param selection Which of the targets each atom is written to.
+     * @param position The position of each atom in its target.
+     * @return True if a frame was read, false at the end of the file.
+     * @throws IOException If the file could not be read, or if the frame
+     *         does not have as many atoms as the first frame.
+     */
+    public boolean readFrame(double[][] targets,
+                             byte[] selection,
+                             int[] position) throws IOException {
+        String line;
+        int i = 0;
+        while((line = nextRecord()) != null) {
+            if(i < atoms && selection[i] >= 0) {
+                double[] target = targets[selection[i]];
+                int p = position[i] * 3;
+                target[p]     = parseFixed(line, 30, 38);
+                target[p + 1] = parseFixed(line, 38, 46);
+                target[p + 2] = parseFixed(line, 46, 54);
+            }
+            i++;
+        }
+        if(i == 0)
+            return false;
+        frames++;
+        if(i != atoms)
+            throw new IOException("Model " + model + " of " + filename +
+                                  " has " + i + " atoms, but the first " +
+                                  "model has " + atoms + ".");
+        return true;
+    }
+
+    /**Returns the next ATOM or HETATM line of the current frame, or null
+     * when the frame ends. MODEL records set the number of the frame.
+     */
+    private String nextRecord() throws IOException {
+        String line;
+        while(!ended && (line = br.readLine()) != null) {
+            if(line.startsWith("ATOM") || line.startsWith("HETATM"))
+                return line;
+            if(line.startsWith("MODEL")) {
+                String number = line.length() > 10 ? line.substring(10).trim() : "";
+                model = number.length() > 0 ?
+                        Integer.parseInt(number.split("\\s+")[0]) : model + 1;
+            }
+            else if(line.startsWith("ENDMDL"))
+                return null;
+        }
+        ended = true;
+        return null;
+    }
+
+    /**Parses the decimal number in the columns start to end of line,
+     * without creating any Strings.
+     *
+     * @throws IOException If the columns do not hold a number.
+     */
+    static double parseFixed(String line, int start, int end)
+            throws IOException {
+        end = Math.min(end, line.length());
+        long mantissa = 0;
+        long scale = 1;
+        boolean negative = false, point = false, digits = false;
+        for(int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if(c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if(point)
+                    scale *= 10;
+                digits = true;
+            }
+            else if(c == '.' && !point)
+                point = true;
+            else if(c == '-' && !digits && !negative)
+                negative = true;
+            else if(c != ' ' && c != '+')
+                throw new IOException("Invalid coordinate in line: " + line);
+        }
+        if(!digits)
+            throw new IOException("Invalid coordinate in line: " + line);
+        double value = (double) mantissa / scale;
+        return negative ? -value : value;
+    }
+
+    /**Closes the file.
+     */
+    public void close() {
+        try {
+            br.close();
+        } catch (IOException e) {
+            Utils.log("Could not close file " + filename);
+        }
+    }
+}
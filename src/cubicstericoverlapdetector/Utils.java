@@ -18,18 +18,35 @@
 
 package cubicstericoverlapdetector;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import cubicstericoverlapdetector.HashEntry.Pair;
+import cubicstericoverlapdetector.Statistics.Stage;
 
 /**Class with some miscellaneous utility methods
  *
@@ -45,6 +62,11 @@ public class Utils {
     public final static String AUTHORWEBSITE  = "http://www.thehomepageinternet.org";
     public final static String LICENSEFILE    = "LICENSE";
 
+    // Size of the cells that nearest atoms are searched in, in Ångström,
+    // and the number of atoms searched for by each task.
+    public final static double QUERYCELLSIZE  = 4.0;
+    public final static int    QUERYCHUNK     = 1024;
+
     /**This method basically calls three methods:<br />
      * 1: precalculate()<br />
      * 2: hashCompare() or bruteforceCompare()<br />
@@ -52,6 +74,9 @@ public class Utils {
      *
      * The time will be noted and printed between the three operations.
      * Which method to use in step two is decided from the hash parameter.
+     * Timings and counters of every stage are collected in a Statistics
+     * object, which is returned. The run is also recorded as a RunEvent
+     * for Java Flight Recorder.
      *
      * @param hash True to use the hashCompare() method,
      * False to use the bruteforceCompare() method.
@@ -60,20 +85,73 @@ public class Utils {
      * @param output OutputStream that receives the results from
      * the writeResults() method. Can be used to write to a file
      * or to a String.
-     * @return True if the method succeeded without problems,
-     * false otherwise.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics run(boolean hash,
+                                 String infile0,
+                                 String infile1,
+                                 OutputStream output) {
+        return run(hash, infile0, infile1, output,
+                   RadiusTable.uniform(Atom.ATOMRADIUS));
+    }
+
+    /**Same as run(hash, infile0, infile1, output), but the clash distance
+     * of each pair of atoms is taken from the given RadiusTable.
+     *
+     * @param hash True to use the hashCompare() method,
+     * False to use the bruteforceCompare() method.
+     * @param infile0 First  *.pdb file to read.
+     * @param infile1 Second *.pdb file to read.
+     * @param output OutputStream that receives the results from
+     * the writeResults() method.
+     * @param radii RadiusTable with the radius of each element.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics run(boolean hash,
+                                 String infile0,
+                                 String infile1,
+                                 OutputStream output,
+                                 RadiusTable radii) {
+        return run(hash, infile0, infile1, output, radii, Selection.ALL,
+                   Conformers.Mode.ALL);
+    }
+
+    /**Same as run(hash, infile0, infile1, output, radii), but only the
+     * atoms of the files chosen by the Selection are read and compared,
+     * and their alternate locations are handled as altLocs tells.
+     *
+     * @param hash True to use the hashCompare() method,
+     * False to use the bruteforceCompare() method.
+     * @param infile0 First  *.pdb file to read.
+     * @param infile1 Second *.pdb file to read.
+     * @param output OutputStream that receives the results from
+     * the writeResults() method.
+     * @param radii RadiusTable with the radius of each element.
+     * @param selection Selection of the atoms to read from both files.
+     * @param altLocs How the alternate locations of atoms are handled.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
      */
     @SuppressWarnings("rawtypes")
-    public static boolean run(boolean hash,
-                           String infile0,
-                           String infile1,
-                           OutputStream output) {
+    public static Statistics run(boolean hash,
+                                 String infile0,
+                                 String infile1,
+                                 OutputStream output,
+                                 RadiusTable radii,
+                                 Selection selection,
+                                 Conformers.Mode altLocs) {
 
-        // Create variables and note time.
-        long startTime = System.nanoTime();
+        // Create variables.
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile0, infile1);
         ArrayList<Atom> arr0 = new ArrayList<Atom>();
         ArrayList<Atom> arr1 = new ArrayList<Atom>();
         Map<Integer, HashEntry> hashmap = new HashMap<Integer, HashEntry>();
+        List<ArrayList<Integer>> neighbours = new ArrayList<ArrayList<Integer>>();
 
         // Do pre-calculations. Returns false if there were errors.
         boolean success = precalculate(hash,
@@ -81,55 +159,85 @@ public class Utils {
                                        infile1,
                                        arr0,
                                        arr1,
-                                       hashmap);
+                                       hashmap,
+                                       neighbours,
+                                       radii,
+                                       selection,
+                                       altLocs,
+                                       stats);
 
         // Quit if the pre-calculations failed.
         if(!success) {
             log("Failed to do pre-calculations. Quitting.");
-            return false;
+            event.record(stats, false);
+            return null;
         }
-        long mainTime = System.nanoTime();
-        log("Time taken for pre-calculations: " +
-            (mainTime - startTime) / 1000000 + " ms.");
+        long preTime = stats.getTotalNanos();
+        log("Time taken for pre-calculations: " + preTime / 1000000 + " ms.");
 
         // Create variables.
         ArrayList<Pair> resultlist = new ArrayList<Pair>();
-        String method = "";
-        int comparisons;
 
         // Call the hashCompare() or bruteforceCompare method
+        stats.start(Stage.PROBE);
         if(hash) {
-            method = "Hashing";
-            comparisons = hashCompare(arr0, resultlist, hashmap);
+            stats.setMethod("Hashing");
+            hashCompare(arr0, neighbours, resultlist, hashmap, radii,
+                        altLocs == Conformers.Mode.EACH, stats);
         } else {
-            method = "Bruteforce";
-            comparisons = bruteforceCompare(arr0, arr1, resultlist);
+            stats.setMethod("Bruteforce");
+            bruteforceCompare(arr0, arr1, resultlist, radii,
+                              altLocs == Conformers.Mode.EACH, stats);
         }
+        stats.stop(Stage.PROBE);
 
-        // Sort the result list and log.
+        // Sort the result list and log. Each clashing pair was added
+        // once; the clashing atoms of the second molecule are what is
+        // left after sorting.
+        stats.start(Stage.SORT);
+        stats.setClashes(resultlist.size());
         sortResults(resultlist);
-        long doneTime = System.nanoTime();
-        log("For the " + method + " method: " + resultlist.size() +
-            " matches found. Comparisons needed: " + comparisons +
-            ". Time taken: " + (doneTime - mainTime) / 1000000 + " ms.");
+        stats.setClashingAtoms(resultlist.size());
+        stats.stop(Stage.SORT);
+        log("For the " + stats.getMethod() + " method: " + resultlist.size() +
+            " matches found. Comparisons needed: " + stats.getComparisons() +
+            ". Time taken: " +
+            (stats.getTotalNanos() - preTime) / 1000000 + " ms.");
+        if(hash)
+            log("Candidates per lookup: " + String.format(Locale.ROOT,
+                "%.2f", stats.getCandidatesPerProbe()) +
+                ", containers per lookup: " + String.format(Locale.ROOT,
+                "%.2f", stats.getCellsPerProbe()) +
+                ", empty containers skipped: " + stats.getCellsSkipped() + ".");
 
         // Write the result to the OutputStream output.
+        stats.start(Stage.WRITE);
         writeResults(output, resultlist);
+        stats.stop(Stage.WRITE);
 
         // Log.
-        long endTime = System.nanoTime();
-        log("Total time taken: " + (endTime - startTime) / 1000000 + " ms.");
-        return true;
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
     }
 
 
     /**Perform pre-calculations. The method will read the *.pdb files given
      * by infile0 and infile1 and create Atoms out of the file content.
-     * These Atoms will be placed in the ArrayLists arr0 and arr1. If
+     * These Atoms will be placed in the ArrayLists arr0 and arr1, and get
+     * their types set from the RadiusTable. If
      * hashMode is false, then the method is done after that step. Otherwise,
      * a Space object will be created, and arr1 will be put into the given
      * hashmap using the space. Finally, arr0 will be iterated through, and
-     * all Atoms in it will have their relevantContainers list set.
+     * the occupied containers near each Atom in it are put in neighbours;
+     * the empty ones are left out by an Occupancy bitmap. Before
+     * that, each list whose Atoms are scattered, as isScattered() tells,
+     * is reordered by sortSpatially(), so that Atoms that follow each
+     * other look in mostly the same containers; the results are sorted
+     * by resultKey(), so they do not depend on the order. The Atoms
+     * themselves are not changed after their types and indexes have been
+     * set, and the Space and hashmap are only read once they have been
+     * built.
      *
      * @param hashMode If false, the *.pdb files will be read and then the
      *        method finishes. If not, the rest of the method will be run.
@@ -141,6 +249,15 @@ public class Utils {
      *        second *.pdb file
      * @param hashmap The Map which arr1's Atoms will be put into, together
      *        with their container ordinal from the created Space object.
+     * @param neighbours List that will be filled with the containers near
+     *        each Atom of arr0, in the same order as arr0.
+     * @param radii RadiusTable which gives the Atoms their types. Its
+     *        largest clash distance, divided by the reach that
+     *        Space.chooseReach() picks from how densely arr1 is packed,
+     *        is the size of the containers.
+     * @param selection Selection of the atoms to read from both files.
+     * @param altLocs How the alternate locations of atoms are handled.
+     * @param stats Statistics that the time of each stage is added to.
      * @return true if the files were read correctly, false otherwise.
      */
     public static boolean precalculate(boolean hashMode,
@@ -148,15 +265,22 @@ public class Utils {
                                        String infile1,
                                        ArrayList<Atom> arr0,
                                        ArrayList<Atom> arr1,
-                                       Map<Integer, HashEntry> hashmap) {
-        Double[] dmin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
-        Double[] dmax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
-
-        readPDBFile(arr0, infile0, null, null);
-        readPDBFile(arr1, infile1, dmin, dmax);
+                                       Map<Integer, HashEntry> hashmap,
+                                       List<ArrayList<Integer>> neighbours,
+                                       RadiusTable radii,
+                                       Selection selection,
+                                       Conformers.Mode altLocs,
+                                       Statistics stats) {
+        stats.start(Stage.PARSE);
+        readAtoms(arr0, infile0, selection, altLocs);
+        readAtoms(arr1, infile1, selection, altLocs);
+        radii.assignTypes(arr0);
+        radii.assignTypes(arr1);
+        stats.stop(Stage.PARSE);
         if(arr0.size() == 0 || arr1.size() == 0) {
             return false;
         }
+        stats.setAtoms(arr0.size(), arr1.size());
         log("Size of molecules: " + arr0.size() + " atoms and " +
             arr1.size() + " atoms.");
 
@@ -165,17 +289,108 @@ public class Utils {
             return true;
         }
 
+        Space space = buildIndex(arr1, hashmap, radii, true, stats);
+
+        // Loop though arr0. For reach Atom in it, find the containers
+        // that are near it (including the container of the Atom
+        // itself) and store those in neighbours. Doing this now will
+        // save time later.
+        // Only the containers that hold Atoms of arr1 are kept, as told
+        // by a bitmap of them, so that hashCompare() never looks up an
+        // empty container.
+        stats.start(Stage.NEIGHBOURS);
+        if(isScattered(arr0, space))
+            sortSpatially(arr0, space);
+        Occupancy occupied = new Occupancy(space, hashmap.keySet());
+        long skipped = 0;
+        for(int i = 0; i < arr0.size(); i++) {
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            skipped += space.getNearbyContainers(arr0.get(i).getCentre(),
+                                                 occupied, list);
+            neighbours.add(list);
+        }
+        stats.addCellsSkipped(skipped);
+        stats.stop(Stage.NEIGHBOURS);
+        return true;
+    }
+
+
+    /**Creates a Space spanning the Atoms of arr, and puts the Atoms into
+     * the given hashmap using the space. The size of the containers of
+     * the Space is chosen from how densely the Atoms are packed.
+     *
+     * @param arr ArrayList of the Atoms to index. Their types must be set.
+     * @param hashmap The Map which the Atoms will be put into, together
+     *        with their container ordinal from the created Space object.
+     * @param radii RadiusTable whose largest clash distance decides the
+     *        size of the containers.
+     * @param stats Statistics that the time of each stage is added to.
+     * @return The created Space.
+     */
+    public static Space buildIndex(ArrayList<Atom> arr,
+                                   Map<Integer, HashEntry> hashmap,
+                                   RadiusTable radii,
+                                   Statistics stats) {
+        return buildIndex(arr, hashmap, radii, false, stats);
+    }
+
+    /**Same as buildIndex(arr, hashmap, radii, stats), but if spatial is
+     * true and the Atoms of arr are scattered, arr is reordered by
+     * sortSpatially() before the Atoms are put into the hashmap, so that
+     * the containers are created in the same order as their neighbours
+     * are looked up.
+     *
+     * @param arr ArrayList of the Atoms to index. Their types must be set.
+     * @param hashmap The Map which the Atoms will be put into, together
+     *        with their container ordinal from the created Space object.
+     * @param radii RadiusTable whose largest clash distance decides the
+     *        size of the containers.
+     * @param spatial True to reorder arr along the containers if its
+     *        Atoms are scattered.
+     * @param stats Statistics that the time of each stage is added to.
+     * @return The created Space.
+     */
+    public static Space buildIndex(ArrayList<Atom> arr,
+                                   Map<Integer, HashEntry> hashmap,
+                                   RadiusTable radii,
+                                   boolean spatial,
+                                   Statistics stats) {
+        Double[] dmin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        Double[] dmax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        stats.start(Stage.BOUNDS);
+        for(int i = 0; i < arr.size(); i++)
+            updateBounds(arr.get(i), dmin, dmax);
         Location min = new Location(dmin);
         Location max = new Location(dmax);
+        stats.stop(Stage.BOUNDS);
 
 
-        // Create the Space which will determine the containers:
-        Space space = new Space(Atom.ATOMRADIUS * 2, min, max);
+        // Create the Space which will determine the containers. How
+        // densely the atoms are packed is measured by counting the
+        // containers of the size of the clash distance that they
+        // occupy; the size of the containers is chosen from that.
+        stats.start(Stage.INDEX);
+        double cutoff = radii.getMaxCutoff();
+        Space coarse = new Space(cutoff, min, max);
+        Set<Integer> occupied = new HashSet<Integer>();
+        for(int i = 0; i < arr.size(); i++)
+            occupied.add(coarse.getContainer(arr.get(i).getCentre()));
+        Space space = Space.forDensity(cutoff, arr.size(),
+                                       occupied.size(), min, max);
+        stats.setGrid(space.getUnitSize(), space.getReach(),
+                      (double) arr.size() / occupied.size());
+        log("Container size: " + space.getUnitSize() + ", looking in " +
+            space.getNearbyCount() + " nearby containers (" +
+            String.format(Locale.ROOT, "%.2f", stats.getAtomsPerContainer()) +
+            " atoms per occupied container of the clash distance).");
+        if(spatial && isScattered(arr, space))
+            sortSpatially(arr, space);
 
 
-        // Put arr1 into the hash map:
-        for(int i = 0; i < arr1.size(); i++) {
-            Atom atom = arr1.get(i);
+        // Put arr into the hash map:
+        for(int i = 0; i < arr.size(); i++) {
+            Atom atom = arr.get(i);
             Integer container = space.getContainer(atom.getCentre());
 
             HashEntry he = null;
@@ -190,17 +405,75 @@ public class Utils {
                 he = new HashEntry(container, atom);
             hashmap.put(container, he);
         }
+        stats.setCells(hashmap.size());
+        stats.stop(Stage.INDEX);
+        for(Map.Entry<Integer, HashEntry> e : hashmap.entrySet())
+            stats.addCell(e.getValue().getContent(e.getKey()).size());
+        return space;
+    }
 
-        // Loop though arr0. For reach Atom in it, find the containers
-        // that are near it (including the container of the Atom
-        // itself) and store those as a property of the Atom object.
-        // Doing this now will save time later.
-        for(int i = 0; i < arr0.size(); i++) {
-            Atom atom = arr0.get(i);
-            atom.setRelevantContainers(
-                    space.getNearbyContainers(atom.getCentre()));
+
+    /**Returns whether the Atoms of arr are scattered over the Space, i.e.
+     * whether more than half of them lie further than the size of a
+     * container from the Atom before them. The Atoms of a protein follow
+     * its chains, so that each Atom is near the one before it, and
+     * reordering them costs more time than it saves. Randomly ordered
+     * Atoms are probed about twice as fast after sortSpatially(), which
+     * about makes up for the time taken to reorder them.
+     *
+     * @param arr ArrayList of Atoms in the order they are probed.
+     * @param space Space whose container size is used.
+     * @return true if sortSpatially() is worth calling on arr.
+     */
+    public static boolean isScattered(ArrayList<Atom> arr, Space space) {
+        double limit = space.getUnitSize() * space.getUnitSize();
+        int far = 0;
+        for(int i = 1; i < arr.size(); i++) {
+            Location a = arr.get(i - 1).getCentre();
+            Location b = arr.get(i).getCentre();
+            double distance = 0;
+            for(int d = 0; d < a.getDimension(); d++) {
+                double delta = b.getDoubleCoordinate(d) - a.getDoubleCoordinate(d);
+                distance += delta * delta;
+            }
+            if(distance > limit)
+                far++;
         }
-        return true;
+        return far > arr.size() / 2;
+    }
+
+    /**Reorders the Atoms of arr by the Morton keys of their containers in
+     * the given Space, so that Atoms next to each other in the list lie
+     * in the same or nearby containers. Atoms of the same container keep
+     * their order. The Atoms keep their indexes, which lead back to their
+     * place in the *.pdb file, see resultKey().<br />
+     * Each key is packed into a long together with the index of its
+     * Atom, so that a plain array of longs is sorted. If the key and the
+     * index do not fit, the lowest bits of the key are dropped, which
+     * only makes the order coarser.
+     *
+     * @param arr ArrayList of Atoms to reorder.
+     * @param space Space whose containers give the order.
+     */
+    public static void sortSpatially(ArrayList<Atom> arr, Space space) {
+        long[] keys = new long[arr.size()];
+        long maxKey = 0;
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = space.getSpatialKey(arr.get(i).getCentre());
+            maxKey = Math.max(maxKey, keys[i]);
+        }
+        int indexBits = 32 - Integer.numberOfLeadingZeros(keys.length);
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(maxKey) + indexBits - 63);
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = (keys[i] >>> shift) << indexBits | i;
+        Arrays.sort(keys);
+
+        long mask = (1L << indexBits) - 1;
+        ArrayList<Atom> sorted = new ArrayList<Atom>(arr.size());
+        for(int i = 0; i < keys.length; i++)
+            sorted.add(arr.get((int) (keys[i] & mask)));
+        arr.clear();
+        arr.addAll(sorted);
     }
 
 
@@ -211,35 +484,49 @@ public class Utils {
      * molecule. All clashes are placed in resultlist.
      *
      * @param arr ArrayList of all Atoms of a molecule.
+     * @param neighbours The occupied containers near each Atom of arr, as
+     *        found by precalculate(), so every one of them is in hashmap.
      * @param resultlist ArrayList that all clashing atoms are placed in.
      * @param hashmap Map of container ordinals and Atoms of a molecule.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param conformers If true, pairs of Atoms of different conformers
+     *        are skipped, as Conformers.Mode.EACH describes.
+     * @param stats Statistics that the counters are added to.
      * @return The number of comparisons that were needed.
      */
     @SuppressWarnings("rawtypes")
-    public static int hashCompare(ArrayList<Atom> arr,
-                                  ArrayList<Pair> resultlist,
-                                  Map<Integer, HashEntry> hashmap) {
-        int comparisons = 0;
+    public static long hashCompare(ArrayList<Atom> arr,
+                                   List<ArrayList<Integer>> neighbours,
+                                   ArrayList<Pair> resultlist,
+                                   Map<Integer, HashEntry> hashmap,
+                                   RadiusTable radii,
+                                   boolean conformers,
+                                   Statistics stats) {
+        long comparisons = 0;
+        long visited = 0;
         for(int i = 0; i < arr.size(); i++) {
             Atom atom = arr.get(i);
-            ArrayList<Integer> containers = atom.getRelevantContainers();
+            ArrayList<Integer> containers = neighbours.get(i);
             for(int j = 0; j < containers.size(); j++) {
                 Integer container = containers.get(j);
                 HashEntry he = hashmap.get(container);
-                if(he == null)
-                    continue;
+                visited++;
 
                 List<Atom> lst = he.getContent(container);
                 for(int k = 0; k < lst.size(); k++) {
-                    comparisons++;
                     Atom a = lst.get(k);
-                    if(atom.clashes(a)) {
+                    if(conformers && !Conformers.isSameConformer(atom, a))
+                        continue;
+                    comparisons++;
+                    if(radii.clashes(atom, a)) {
                         resultlist.add(
-                            he.new Pair<Integer, Atom>(a.getSerial(), a));
+                            he.new Pair<Long, Atom>(resultKey(a), a));
                     }
                 }
             }
         }
+        stats.addComparisons(comparisons);
+        stats.addCellsVisited(visited);
         return comparisons;
     }
 
@@ -251,29 +538,1460 @@ public class Utils {
      * @param arr0 ArrayList of Atoms of a molecule.
      * @param arr1 ArrayList of Atoms of a different molecule.
      * @param resultlist ArrayList which will be filled with all clashes.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param conformers If true, pairs of Atoms of different conformers
+     *        are skipped, as Conformers.Mode.EACH describes.
+     * @param stats Statistics that the number of comparisons is added to.
      * @return The number of comparisons that were needed.
      */
     @SuppressWarnings("rawtypes")
-    public static int bruteforceCompare(ArrayList<Atom> arr0,
-                                        ArrayList<Atom> arr1,
-                                        ArrayList<Pair> resultlist) {
-        int comparisons = 0;
+    public static long bruteforceCompare(ArrayList<Atom> arr0,
+                                         ArrayList<Atom> arr1,
+                                         ArrayList<Pair> resultlist,
+                                         RadiusTable radii,
+                                         boolean conformers,
+                                         Statistics stats) {
+        long comparisons = 0;
         HashEntry he = new HashEntry();
 
         for(int i = 0; i < arr0.size(); i++) {
             for(int j = 0; j < arr1.size(); j++) {
-                comparisons++;
                 Atom a = arr0.get(i);
                 Atom b = arr1.get(j);
-                if(a.clashes(b)) {
+                if(conformers && !Conformers.isSameConformer(a, b))
+                    continue;
+                comparisons++;
+                if(radii.clashes(a, b)) {
                     resultlist.add(
-                            he.new Pair<Integer, Atom>(b.getSerial(), b));
+                            he.new Pair<Long, Atom>(resultKey(b), b));
                 }
             }
         }
+        stats.addComparisons(comparisons);
         return comparisons;
     }
 
+    /**Finds the clashes between two molecules in two stages, as
+     * residueCompare() describes, and writes the clashing atoms of the
+     * second molecule to output, as run() does.
+     *
+     * @param infile0 First  *.pdb file to read.
+     * @param infile1 Second *.pdb file to read.
+     * @param output OutputStream that receives the results from
+     * the writeResults() method.
+     * @param radii RadiusTable with the radius of each element.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runResidues(String infile0,
+                                         String infile1,
+                                         OutputStream output,
+                                         RadiusTable radii) {
+        return runResidues(infile0, infile1, output, radii, Selection.ALL,
+                           Conformers.Mode.ALL);
+    }
+
+    /**Same as runResidues(infile0, infile1, output, radii), but only the
+     * atoms of the files chosen by the Selection are read and compared,
+     * and their alternate locations are handled as altLocs tells.
+     *
+     * @param infile0 First  *.pdb file to read.
+     * @param infile1 Second *.pdb file to read.
+     * @param output OutputStream that receives the results from
+     * the writeResults() method.
+     * @param radii RadiusTable with the radius of each element.
+     * @param selection Selection of the atoms to read from both files.
+     * @param altLocs How the alternate locations of atoms are handled.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Statistics runResidues(String infile0,
+                                         String infile1,
+                                         OutputStream output,
+                                         RadiusTable radii,
+                                         Selection selection,
+                                         Conformers.Mode altLocs) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile0, infile1);
+        stats.setMethod("Residues");
+        ArrayList<Atom> arr0 = new ArrayList<Atom>();
+        ArrayList<Atom> arr1 = new ArrayList<Atom>();
+
+        stats.start(Stage.PARSE);
+        readAtoms(arr0, infile0, selection, altLocs);
+        readAtoms(arr1, infile1, selection, altLocs);
+        radii.assignTypes(arr0);
+        radii.assignTypes(arr1);
+        stats.stop(Stage.PARSE);
+        if(arr0.size() == 0 || arr1.size() == 0) {
+            log("Failed to do pre-calculations. Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr0.size(), arr1.size());
+        log("Size of molecules: " + arr0.size() + " atoms and " +
+            arr1.size() + " atoms.");
+
+        ArrayList<Pair> resultlist = new ArrayList<Pair>();
+        residueCompare(arr0, arr1, resultlist, radii,
+                       altLocs == Conformers.Mode.EACH, stats);
+
+        // Each clashing pair was added once; the clashing atoms of the
+        // second molecule are what is left after sorting.
+        stats.start(Stage.SORT);
+        stats.setClashes(resultlist.size());
+        sortResults(resultlist);
+        stats.setClashingAtoms(resultlist.size());
+        stats.stop(Stage.SORT);
+        long pairs = stats.getResidues0() * stats.getResidues1();
+        log("Residues: " + stats.getResidues0() + " and " + stats.getResidues1() +
+            ". Residue pairs tested: " + stats.getResiduePairs() + " of " +
+            pairs + ", kept: " + stats.getResiduePairsKept() + ".");
+        log("For the Residues method: " + resultlist.size() +
+            " matches found. Comparisons needed: " + stats.getComparisons() +
+            " of " + (long) arr0.size() * arr1.size() + ".");
+
+        stats.start(Stage.WRITE);
+        writeResults(output, resultlist);
+        stats.stop(Stage.WRITE);
+
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Two stage method for finding atom clashes between two molecules.
+     * Both molecules are split into residues, each with a sphere holding
+     * its atoms. In the first stage, the spheres of the residues of arr1
+     * are put in a coarse Space, with containers so large that residues
+     * whose spheres come within the clash distance of each other are in
+     * the same or adjacent containers. Each residue of arr0 is tested
+     * against the residues in the containers near it. In the second
+     * stage, the atoms of the residue pairs that passed are compared, as
+     * bruteforceCompare() does. Residues far from the other molecule
+     * thus cost one test each, instead of one comparison per atom.<br />
+     * The residue pairs that are tested and kept are counted in stats,
+     * together with the comparisons of atoms.
+     *
+     * @param arr0 ArrayList of Atoms of a molecule.
+     * @param arr1 ArrayList of Atoms of a different molecule.
+     * @param resultlist ArrayList which will be filled with all clashes.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param conformers If true, pairs of Atoms of different conformers
+     *        are skipped, as Conformers.Mode.EACH describes.
+     * @param stats Statistics that the times and counters are added to.
+     * @return The number of comparisons of atoms that were needed.
+     */
+    @SuppressWarnings("rawtypes")
+    public static long residueCompare(ArrayList<Atom> arr0,
+                                      ArrayList<Atom> arr1,
+                                      ArrayList<Pair> resultlist,
+                                      RadiusTable radii,
+                                      boolean conformers,
+                                      Statistics stats) {
+        stats.start(Stage.INDEX);
+        ArrayList<Residue> residues0 = Residue.group(arr0);
+        ArrayList<Residue> residues1 = Residue.group(arr1);
+        double maxRadius0 = 0;
+        double maxRadius1 = 0;
+        for(int i = 0; i < residues0.size(); i++)
+            maxRadius0 = Math.max(maxRadius0, residues0.get(i).getRadius());
+        Location[] centres = new Location[residues1.size()];
+        Double[] dmin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        Double[] dmax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for(int i = 0; i < residues1.size(); i++) {
+            maxRadius1 = Math.max(maxRadius1, residues1.get(i).getRadius());
+            centres[i] = residues1.get(i).getCentre();
+            for(int d = 0; d < 3; d++) {
+                dmin[d] = Math.min(dmin[d], centres[i].getDoubleCoordinate(d));
+                dmax[d] = Math.max(dmax[d], centres[i].getDoubleCoordinate(d));
+            }
+        }
+
+        // Two residues may clash if their centres are closer than the
+        // sum of their radii and the clash distance. The containers are
+        // a little larger than that, since a Location only keeps three
+        // decimals of the centre.
+        double cutoff = radii.getMaxCutoff();
+        Space space = new Space(maxRadius0 + maxRadius1 + cutoff + 0.01,
+                                new Location(dmin), new Location(dmax));
+        Map<Integer, ArrayList<Residue>> grid =
+                new HashMap<Integer, ArrayList<Residue>>();
+        for(int i = 0; i < residues1.size(); i++) {
+            Integer container = space.getContainer(centres[i]);
+            ArrayList<Residue> list = grid.get(container);
+            if(list == null) {
+                list = new ArrayList<Residue>();
+                grid.put(container, list);
+            }
+            list.add(residues1.get(i));
+        }
+        stats.setResidues(residues0.size(), residues1.size());
+        stats.setCells(grid.size());
+        stats.stop(Stage.INDEX);
+
+        stats.start(Stage.PROBE);
+        HashEntry he = new HashEntry();
+        long tested = 0;
+        long kept = 0;
+        long comparisons = 0;
+        for(int i = 0; i < residues0.size(); i++) {
+            Residue r0 = residues0.get(i);
+            ArrayList<Integer> containers = space.getNearbyContainers(r0.getCentre());
+            for(int j = 0; j < containers.size(); j++) {
+                ArrayList<Residue> list = grid.get(containers.get(j));
+                if(list == null)
+                    continue;
+                for(int k = 0; k < list.size(); k++) {
+                    Residue r1 = list.get(k);
+                    tested++;
+                    if(!r0.isNear(r1, cutoff))
+                        continue;
+                    kept++;
+                    ArrayList<Atom> atoms0 = r0.getAtoms();
+                    ArrayList<Atom> atoms1 = r1.getAtoms();
+                    for(int a = 0; a < atoms0.size(); a++) {
+                        for(int b = 0; b < atoms1.size(); b++) {
+                            Atom atom = atoms1.get(b);
+                            if(conformers &&
+                               !Conformers.isSameConformer(atoms0.get(a), atom))
+                                continue;
+                            comparisons++;
+                            if(radii.clashes(atoms0.get(a), atom))
+                                resultlist.add(he.new Pair<Long, Atom>(
+                                        resultKey(atom), atom));
+                        }
+                    }
+                }
+            }
+        }
+        stats.addResiduePairs(tested, kept);
+        stats.addComparisons(comparisons);
+        stats.stop(Stage.PROBE);
+        return comparisons;
+    }
+
+    /**Finds the steric overlaps within a single molecule. The *.pdb file
+     * is read once and indexed in a Space, and every pair of nearby atoms
+     * is compared once by selfCompare(). Pairs of atoms that are bonded,
+     * or bonded to the same atom, are not counted, as decided by a
+     * Topology of the molecule. The clashing pairs are written to output
+     * by writePairs().
+     *
+     * @param infile The *.pdb file to read.
+     * @param output OutputStream that receives the clashing pairs.
+     * @param radii RadiusTable with the radius of each element.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runSelf(String infile,
+                                     OutputStream output,
+                                     RadiusTable radii) {
+        return runSelf(infile, output, radii, Selection.ALL, Conformers.Mode.ALL);
+    }
+
+    /**Same as runSelf(infile, output, radii), but only the atoms of the
+     * file chosen by the Selection are read and compared. Atoms of
+     * different conformers are never counted as clashing, as the
+     * Topology excludes them, so altLocs only matters if it is
+     * OCCUPANCY.
+     *
+     * @param infile The *.pdb file to read.
+     * @param output OutputStream that receives the clashing pairs.
+     * @param radii RadiusTable with the radius of each element.
+     * @param selection Selection of the atoms to read.
+     * @param altLocs How the alternate locations of atoms are handled.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Statistics runSelf(String infile,
+                                     OutputStream output,
+                                     RadiusTable radii,
+                                     Selection selection,
+                                     Conformers.Mode altLocs) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile, infile);
+        stats.setMethod("Self");
+        ArrayList<Atom> arr = new ArrayList<Atom>();
+        Map<Integer, HashEntry> hashmap = new HashMap<Integer, HashEntry>();
+
+        stats.start(Stage.PARSE);
+        readAtoms(arr, infile, selection, altLocs);
+        radii.assignTypes(arr);
+        stats.stop(Stage.PARSE);
+        if(arr.size() == 0) {
+            log("Failed to read " + infile + ". Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr.size(), arr.size());
+        log("Size of molecule: " + arr.size() + " atoms.");
+
+        Space space = buildIndex(arr, hashmap, radii, stats);
+        stats.start(Stage.NEIGHBOURS);
+        Topology topology = new Topology(arr);
+        stats.stop(Stage.NEIGHBOURS);
+        log("Bonds found: " + topology.getBondCount() + ".");
+
+        ArrayList<Pair> resultlist = new ArrayList<Pair>();
+        stats.start(Stage.PROBE);
+        selfCompare(hashmap, space, resultlist, radii, topology, stats);
+        stats.stop(Stage.PROBE);
+
+        stats.start(Stage.SORT);
+        sortPairs(resultlist);
+        stats.setClashes(resultlist.size());
+        stats.stop(Stage.SORT);
+        log("For the Self method: " + resultlist.size() +
+            " clashing pairs found. Comparisons needed: " +
+            stats.getComparisons() + ".");
+
+        stats.start(Stage.WRITE);
+        writePairs(output, resultlist);
+        stats.stop(Stage.WRITE);
+
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Counts the clashes between every pair of chains, or every pair of
+     * models, of the molecule in a single *.pdb file. All atoms are
+     * indexed once in a shared Space, and every pair of nearby atoms is
+     * visited once by pairCompare(), so the work depends on the total
+     * number of atoms rather than on the number of groups. When grouping
+     * by chain, chains of different models are not compared. Pairs that
+     * the Topology of the molecule excludes, such as disulphide bridges
+     * between chains, are not counted. The matrix of clash counts is
+     * written to output.
+     *
+     * @param infile The *.pdb file to read.
+     * @param output OutputStream that receives the clash matrix.
+     * @param radii RadiusTable with the radius of each element.
+     * @param byModel True to group the atoms by model, false to group
+     *        them by chain.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runInterfaces(String infile,
+                                           OutputStream output,
+                                           RadiusTable radii,
+                                           boolean byModel) {
+        return runInterfaces(infile, output, radii, byModel, Selection.ALL,
+                             Conformers.Mode.ALL);
+    }
+
+    /**Same as runInterfaces(infile, output, radii, byModel), but only the
+     * atoms of the file chosen by the Selection are read and compared.
+     * As for runSelf(), altLocs only matters if it is OCCUPANCY.
+     *
+     * @param infile The *.pdb file to read.
+     * @param output OutputStream that receives the clash matrix.
+     * @param radii RadiusTable with the radius of each element.
+     * @param byModel True to group the atoms by model, false to group
+     *        them by chain.
+     * @param selection Selection of the atoms to read.
+     * @param altLocs How the alternate locations of atoms are handled.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runInterfaces(String infile,
+                                           OutputStream output,
+                                           final RadiusTable radii,
+                                           final boolean byModel,
+                                           Selection selection,
+                                           Conformers.Mode altLocs) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile, infile);
+        stats.setMethod(byModel ? "Models" : "Chains");
+        ArrayList<Atom> arr = new ArrayList<Atom>();
+        Map<Integer, HashEntry> hashmap = new HashMap<Integer, HashEntry>();
+
+        stats.start(Stage.PARSE);
+        readAtoms(arr, infile, selection, altLocs);
+        radii.assignTypes(arr);
+        stats.stop(Stage.PARSE);
+        if(arr.size() == 0) {
+            log("Failed to read " + infile + ". Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr.size(), arr.size());
+
+        // Add the groups in the order they appear in the file, and note
+        // the group of each Atom by its index.
+        final ClashMatrix matrix = new ClashMatrix();
+        final boolean models = arr.get(0).getModel() != arr.get(arr.size() - 1).getModel();
+        final int[] groups = new int[arr.size()];
+        for(int i = 0; i < arr.size(); i++)
+            groups[i] = matrix.getGroup(groupName(arr.get(i), byModel, models));
+        log("Size of molecule: " + arr.size() + " atoms in " +
+            matrix.getSize() + (byModel ? " models." : " chains."));
+
+        Space space = buildIndex(arr, hashmap, radii, stats);
+        stats.start(Stage.NEIGHBOURS);
+        final Topology topology = new Topology(arr);
+        stats.stop(Stage.NEIGHBOURS);
+
+        stats.start(Stage.PROBE);
+        pairCompare(hashmap, space, new PairVisitor() {
+            public boolean visit(Atom a, Atom b) {
+                // Atoms of the same group, or of chains of different
+                // models, are never compared.
+                if(a.getModel() == b.getModel() ?
+                   byModel || a.getChainID().equals(b.getChainID()) :
+                   !byModel)
+                    return false;
+                if(radii.clashes(a, b) && !topology.isExcluded(a, b))
+                    matrix.add(groups[a.getIndex()], groups[b.getIndex()]);
+                return true;
+            }
+        }, stats);
+        stats.stop(Stage.PROBE);
+        stats.setClashes(matrix.getTotal());
+        log("For the " + stats.getMethod() + " method: " + stats.getClashes() +
+            " clashing pairs found between groups. Comparisons needed: " +
+            stats.getComparisons() + ".");
+
+        stats.start(Stage.WRITE);
+        matrix.write(output);
+        stats.stop(Stage.WRITE);
+
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Finds the clashes between a molecule and its symmetry mates in the
+     * crystal, as given by the CRYST1 record and the SMTRY lines of
+     * REMARK 290 of its *.pdb file. Crystal.findMates() culls the mates
+     * whose bounding boxes cannot reach the asymmetric unit, which is put
+     * in a CellList. The coordinates of each remaining mate are then made
+     * in a buffer that is reused for every mate, and probed against the
+     * CellList, so the mates never exist as Atoms, and no more than one
+     * of them is held in memory at once.<br /><br />
+     *
+     * The clashing pairs of each mate are written to output under a line
+     * naming the mate by its operator and the number of cells it is moved
+     * along a, b and c. Each pair is written as by writePairs(), with the
+     * atom of the asymmetric unit first. A clash between two molecules of
+     * the crystal is seen once from each of them, so it is normally found
+     * with two mates.
+     *
+     * @param infile The *.pdb file to read.
+     * @param output OutputStream that receives the clashing pairs.
+     * @param radii RadiusTable with the radius of each element.
+     * @param selection Selection of the atoms to read.
+     * @param altLocs How the alternate locations of atoms are handled.
+     *        The conformers of different molecules of the crystal are
+     *        independent, so only OCCUPANCY makes a difference.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runSymmetry(String infile,
+                                         OutputStream output,
+                                         final RadiusTable radii,
+                                         Selection selection,
+                                         Conformers.Mode altLocs) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile, infile);
+        stats.setMethod("Symmetry");
+        ArrayList<Atom> arr = new ArrayList<Atom>();
+
+        stats.start(Stage.PARSE);
+        Crystal crystal = null;
+        try {
+            crystal = Crystal.read(infile);
+        } catch (IOException e) {
+            log(e.getMessage());
+        }
+        readAtoms(arr, infile, selection, altLocs);
+        radii.assignTypes(arr);
+        stats.stop(Stage.PARSE);
+        if(arr.size() == 0) {
+            log("Failed to read " + infile + ". Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        if(crystal == null) {
+            log("No CRYST1 record in " + infile + ". Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr.size(), arr.size());
+        log("Size of molecule: " + arr.size() + " atoms, in space group " +
+            crystal.getSpaceGroup() + " with " + crystal.getOperatorCount() +
+            " symmetry operators.");
+
+        stats.start(Stage.INDEX);
+        final double[] coords = getCoordinates(arr, null, null);
+        final int[] types = new int[arr.size()];
+        for(int i = 0; i < arr.size(); i++)
+            types[i] = arr.get(i).getType();
+        final CellList cells = indexCoordinates(arr, coords, radii.getMaxCutoff(), stats);
+        stats.stop(Stage.INDEX);
+
+        stats.start(Stage.NEIGHBOURS);
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        getCoordinates(arr, min, max);
+        long[] tested = new long[1];
+        ArrayList<int[]> mates = crystal.findMates(min, max, radii.getMaxCutoff(), tested);
+        stats.stop(Stage.NEIGHBOURS);
+        log("Mates near the asymmetric unit: " + mates.size() + " of " +
+            tested[0] + " tested.");
+
+        // The clashing pairs of mate m are pairs[first[m]] ... pairs[first[m + 1] - 1],
+        // as the atom of the asymmetric unit and the atom of the mate.
+        final double[] mate = new double[coords.length];
+        final long[][] pairs = {new long[64]};
+        final int[] found = new int[1];
+        final long[] comparisons = new long[1];
+        final int[] current = new int[1];
+        int[] first = new int[mates.size() + 1];
+        CellList.AtomVisitor visitor = new CellList.AtomVisitor() {
+            public void visit(int a) {
+                int j = current[0];
+                comparisons[0]++;
+                double dx = coords[a * 3]     - mate[j * 3];
+                double dy = coords[a * 3 + 1] - mate[j * 3 + 1];
+                double dz = coords[a * 3 + 2] - mate[j * 3 + 2];
+                if(dx * dx + dy * dy + dz * dz >= radii.getCutoff2(types[a], types[j]))
+                    return;
+                if(found[0] == pairs[0].length)
+                    pairs[0] = Arrays.copyOf(pairs[0], found[0] * 2);
+                pairs[0][found[0]++] = ClashDelta.getPair(a, j);
+            }
+        };
+        stats.start(Stage.PROBE);
+        for(int m = 0; m < mates.size(); m++) {
+            first[m] = found[0];
+            crystal.transform(mates.get(m), coords, mate, arr.size());
+            for(int j = 0; j < arr.size(); j++) {
+                current[0] = j;
+                cells.visitNear(mate[j * 3], mate[j * 3 + 1], mate[j * 3 + 2], visitor);
+            }
+            Arrays.sort(pairs[0], first[m], found[0]);
+        }
+        first[mates.size()] = found[0];
+        stats.stop(Stage.PROBE);
+        stats.addComparisons(comparisons[0]);
+        stats.setClashes(found[0]);
+        log("For the Symmetry method: " + found[0] +
+            " clashing pairs found. Comparisons needed: " +
+            stats.getComparisons() + ".");
+
+        stats.start(Stage.WRITE);
+        Formatter fmt = new Formatter(output);
+        double[] position = new double[3];
+        for(int m = 0; m < mates.size(); m++) {
+            if(first[m] == first[m + 1])
+                continue;
+            int[] op = mates.get(m);
+            fmt.format(Locale.ROOT, "Mate of operator %d moved by %d %d %d cells:%n",
+                       op[0] + 1, op[1], op[2], op[3]);
+            for(int p = first[m]; p < first[m + 1]; p++) {
+                int a = ClashDelta.getFirst(pairs[0][p]);
+                int b = ClashDelta.getSecond(pairs[0][p]);
+                crystal.transform(op, Arrays.copyOfRange(coords, b * 3, b * 3 + 3),
+                                  position, 1);
+                double dist2 = 0;
+                for(int d = 0; d < 3; d++)
+                    dist2 += (coords[a * 3 + d] - position[d]) *
+                             (coords[a * 3 + d] - position[d]);
+                Atom[] pair = {arr.get(a), arr.get(b)};
+                for(int i = 0; i < pair.length; i++) {
+                    Atom atom = pair[i];
+                    fmt.format("%d ",      atom.getSerial());
+                    fmt.format(            atom.getResName());
+                    fmt.format(" %s",      atom.getChainID());
+                    fmt.format(" %4d",     atom.getResSeq());
+                    fmt.format("  %-4s ",  atom.getAtomName());
+                }
+                fmt.format(Locale.ROOT, " %.3f%n", Math.sqrt(dist2));
+            }
+        }
+        fmt.format("Number of clashing pairs: %s%n", found[0]);
+        fmt.flush();
+        stats.stop(Stage.WRITE);
+
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Returns the name of the group of the Atom; either its model number,
+     * or its chain. If the molecule has several models, the model number
+     * is added to the chain.
+     */
+    private static String groupName(Atom atom, boolean byModel, boolean models) {
+        if(byModel)
+            return String.valueOf(atom.getModel());
+        String chain = atom.getChainID().length() > 0 ? atom.getChainID() : "-";
+        return models ? chain + "/" + atom.getModel() : chain;
+    }
+
+    /**Counts the clashes between two selections of atoms in every frame of
+     * a multi-model *.pdb file, such as an NMR ensemble or a trajectory.
+     * Each selection is a list of chain IDs, where '-' stands for a blank
+     * chain and '*' for all chains not in the other selection; the two
+     * selections may not share any atoms.<br /><br />
+     *
+     * The first frame is read in full; the following ones only have their
+     * coordinates read, straight into the buffers of a FrameBuffer. Each
+     * FrameBuffer keeps a CellList of the second selection, which is
+     * rebuilt in place for every frame, or, if update is true, only has
+     * the atoms that changed cell moved. The 2 * threads FrameBuffers are
+     * used in turn, so a CellList is updated from the frame 2 * threads
+     * frames earlier rather than the previous one; the counts are the
+     * same, but more atoms have moved, and updating saves less the more
+     * threads there are. The frames are counted by a pool
+     * of threads while the file is read, and no more than two frames per
+     * thread are held in memory at once. Apart from the task submitted
+     * for each frame and its small array of counters, nothing is
+     * allocated per frame. The clash count of each frame is written to
+     * output in the order of the file.
+     *
+     * @param infile The *.pdb file to read.
+     * @param sel0 Chains of the first selection.
+     * @param sel1 Chains of the second selection.
+     * @param output OutputStream that receives the clash counts.
+     * @param radii RadiusTable with the radius of each element.
+     * @param threads Number of threads counting frames.
+     * @param update Whether to only move the atoms that changed cell.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runFrames(String infile,
+                                       String sel0,
+                                       String sel1,
+                                       OutputStream output,
+                                       RadiusTable radii,
+                                       int threads,
+                                       boolean update) {
+        return runFrames(infile, sel0, sel1, output, radii, threads, update, null);
+    }
+
+    /**Same as runFrames(infile, sel0, sel1, output, radii, threads,
+     * update), but if box is not null, the frames lie in a periodic box
+     * of the given lengths, such as the simulation box of a molecular
+     * dynamics run. The CellLists are then periodic, so that atoms clash
+     * with the nearest images of each other across the faces of the box,
+     * without any atoms being copied. The same box is used for every
+     * frame.
+     *
+     * @param infile The *.pdb file to read.
+     * @param sel0 Chains of the first selection.
+     * @param sel1 Chains of the second selection.
+     * @param output OutputStream that receives the clash counts.
+     * @param radii RadiusTable with the radius of each element.
+     * @param threads Number of threads counting frames.
+     * @param update Whether to only move the atoms that changed cell.
+     * @param box The lengths of the periodic box along x, y and z, or
+     *        null if the frames are not periodic.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runFrames(String infile,
+                                       String sel0,
+                                       String sel1,
+                                       OutputStream output,
+                                       final RadiusTable radii,
+                                       int threads,
+                                       final boolean update,
+                                       double[] box) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile, infile);
+        stats.setMethod("Frames");
+        ArrayList<Atom> arr = new ArrayList<Atom>();
+
+        TrajectoryReader reader = null;
+        stats.start(Stage.PARSE);
+        try {
+            reader = new TrajectoryReader(infile);
+            reader.readFirstFrame(arr);
+        } catch (IOException e) {
+            log("Could not open file " + infile);
+        } catch (NumberFormatException e) {
+            log("Could not open file " + infile);
+            arr.clear();
+        }
+        radii.assignTypes(arr);
+        stats.stop(Stage.PARSE);
+        if(reader == null || arr.size() == 0) {
+            if(reader != null)
+                reader.close();
+            log("Failed to read " + infile + ". Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+
+        // Note which selection each atom of a frame belongs to, and
+        // where in the coordinates of the selection it is put.
+        byte[] selection = new byte[arr.size()];
+        int[]  position  = new int[arr.size()];
+        int[]  counts    = new int[2];
+        for(int i = 0; i < arr.size(); i++) {
+            String chain = arr.get(i).getChainID();
+            boolean in0 = inSelection(chain, sel0, sel1);
+            boolean in1 = inSelection(chain, sel1, sel0);
+            if(in0 && in1) {
+                log("Chain " + chain + " is in both selections. Quitting.");
+                reader.close();
+                event.record(stats, false);
+                return null;
+            }
+            selection[i] = (byte) (in0 ? 0 : (in1 ? 1 : -1));
+            if(selection[i] >= 0)
+                position[i] = counts[selection[i]]++;
+        }
+        if(counts[0] == 0 || counts[1] == 0) {
+            log("A selection holds no atoms. Quitting.");
+            reader.close();
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(counts[0], counts[1]);
+        final int[] queryTypes = new int[counts[0]];
+        final int[] indexTypes = new int[counts[1]];
+        double[][] first = {new double[counts[0] * 3], new double[counts[1] * 3]};
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for(int i = 0; i < arr.size(); i++) {
+            if(selection[i] < 0)
+                continue;
+            Atom atom = arr.get(i);
+            (selection[i] == 0 ? queryTypes : indexTypes)[position[i]] = atom.getType();
+            for(int d = 0; d < 3; d++) {
+                double coord = atom.getCoordinate(d);
+                first[selection[i]][position[i] * 3 + d] = coord;
+                if(selection[i] == 1) {
+                    min[d] = Math.min(min[d], coord - CellList.MARGIN);
+                    max[d] = Math.max(max[d], coord + CellList.MARGIN);
+                }
+            }
+        }
+        log("Size of selections: " + counts[0] + " and " + counts[1] +
+            " atoms.");
+
+        if(box != null && !(Math.min(box[0], Math.min(box[1], box[2])) >=
+                            2 * radii.getMaxCutoff())) {
+            log("The periodic box must be at least twice the clash distance. Quitting.");
+            reader.close();
+            event.record(stats, false);
+            return null;
+        }
+
+        // Choose the size of the cells from how densely the second
+        // selection of the first frame is packed, as buildIndex() does.
+        stats.start(Stage.INDEX);
+        double cutoff = radii.getMaxCutoff();
+        CellList coarse = box != null ? new CellList(cutoff, 1, box, counts[1]) :
+                                        new CellList(cutoff, 1, min, max, counts[1]);
+        coarse.rebuild(first[1], counts[1]);
+        double density = (double) counts[1] / coarse.getOccupiedCount();
+        int reach = Space.chooseReach(density, 3);
+        stats.setGrid(cutoff / reach, reach, density);
+        stats.setCells(coarse.getOccupiedCount());
+        stats.stop(Stage.INDEX);
+        log("Container size: " + stats.getUnitSize() + ", looking in " +
+            (int) Math.pow(2 * reach + 1, 3) + " nearby containers (" +
+            String.format(Locale.ROOT, "%.2f", density) +
+            " atoms per occupied container of the clash distance).");
+
+        // Each thread may have one frame being counted and one waiting.
+        threads = Math.max(1, threads);
+        final BlockingQueue<FrameBuffer> free =
+                new ArrayBlockingQueue<FrameBuffer>(threads * 2);
+        for(int i = 0; i < threads * 2; i++)
+            free.add(new FrameBuffer(counts[0], counts[1], box != null ?
+                     new CellList(cutoff / reach, reach, box, counts[1]) :
+                     new CellList(cutoff / reach, reach, min, max, counts[1])));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<long[]>> pending = new LinkedList<Future<long[]>>();
+        long[] totals = new long[5];
+        long frames = 0;
+        Formatter fmt = new Formatter(output);
+        fmt.format(Locale.ROOT, "Model Clashes%n");
+
+        stats.start(Stage.PROBE);
+        boolean success = true;
+        try {
+            FrameBuffer buffer = free.take();
+            System.arraycopy(first[0], 0, buffer.getQuery(), 0, first[0].length);
+            System.arraycopy(first[1], 0, buffer.getIndex(), 0, first[1].length);
+            while(buffer != null) {
+                buffer.setModel(reader.getModel());
+                final FrameBuffer frame = buffer;
+                pending.add(pool.submit(new Callable<long[]>() {
+                    public long[] call() {
+                        try {
+                            return frame.countClashes(queryTypes, indexTypes,
+                                                      radii, update);
+                        } finally {
+                            free.add(frame);
+                        }
+                    }
+                }));
+                // Write the counts of the frames that are done, in order.
+                // Once as many frames are pending as there are buffers,
+                // wait for the oldest one, so that a slow frame does not
+                // let the finished ones after it pile up.
+                while(!pending.isEmpty() && (pending.getFirst().isDone() ||
+                                             pending.size() >= threads * 2)) {
+                    writeFrame(fmt, pending.removeFirst().get(), totals);
+                    frames++;
+                }
+
+                buffer = free.take();
+                double[][] targets = {buffer.getQuery(), buffer.getIndex()};
+                if(!reader.readFrame(targets, selection, position))
+                    buffer = null;
+            }
+            while(!pending.isEmpty()) {
+                writeFrame(fmt, pending.removeFirst().get(), totals);
+                frames++;
+            }
+        } catch (IOException e) {
+            log(e.getMessage());
+            success = false;
+        } catch (NumberFormatException e) {
+            log("Invalid MODEL record in " + infile);
+            success = false;
+        } catch (InterruptedException e) {
+            log("Interrupted while counting frames.");
+            success = false;
+        } catch (ExecutionException e) {
+            log("Failed to count a frame: " + e.getCause());
+            success = false;
+        } finally {
+            pool.shutdownNow();
+            reader.close();
+        }
+        stats.addComparisons(totals[2]);
+        stats.addCellsVisited(totals[3]);
+        stats.setClashes(totals[1]);
+        stats.stop(Stage.PROBE);
+        fmt.format(Locale.ROOT, "Number of frames: %d%n", frames);
+        fmt.flush();
+        if(!success) {
+            event.record(stats, false);
+            return null;
+        }
+
+        log("For the Frames method: " + totals[1] + " clashing pairs found in " +
+            frames + " frames. Comparisons needed: " + stats.getComparisons() + ".");
+        log("Atoms put in a cell: " + totals[4] + " (" +
+            String.format(Locale.ROOT, "%.1f", 100.0 * totals[4] / (frames * counts[1])) +
+            "% of the second selection per frame).");
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Returns whether or not a chain is in the given selection of chains.
+     * A blank chain is written '-', and '*' selects every chain that is
+     * not in the other selection.
+     */
+    private static boolean inSelection(String chain, String selection,
+                                       String other) {
+        if(chain.length() == 0)
+            chain = "-";
+        if(selection.equals("*"))
+            return other.equals("*") || !other.contains(chain);
+        return selection.contains(chain);
+    }
+
+    /**Writes the clash count of a frame, as returned by
+     * FrameBuffer.countClashes(), and adds its counters to totals.
+     */
+    private static void writeFrame(Formatter fmt, long[] result, long[] totals) {
+        fmt.format(Locale.ROOT, "%d %d%n", result[0], result[1]);
+        for(int i = 1; i < totals.length; i++)
+            totals[i] += result[i];
+    }
+
+    /**Finds the k atoms of the second molecule nearest to each atom of
+     * the first one, and writes them to output, nearest first, as lines
+     * of the serial numbers of the two atoms and their distance. The
+     * second molecule is put in a CellList, which is searched in shells
+     * of growing size around each atom of the first molecule, as
+     * CellList.nearest() describes. The atoms of the first molecule are
+     * split into chunks that are searched by separate threads, each
+     * with a NeighbourHeap of its own, and the results are put in arrays
+     * allocated before the search, so that no objects are created per
+     * atom or per result.
+     *
+     * @param infile0 The *.pdb file of the atoms to find neighbours of.
+     * @param infile1 The *.pdb file of the atoms that are searched.
+     * @param output OutputStream that receives the nearest atoms.
+     * @param k The number of nearest atoms to find for each atom.
+     * @param maxDistance Atoms farther away than this are not written;
+     *        positive infinity to always find k atoms, if the second
+     *        molecule has that many.
+     * @param threads Number of threads searching.
+     * @param selection Selection of the atoms to read from both files.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runNearest(String infile0,
+                                        String infile1,
+                                        OutputStream output,
+                                        final int k,
+                                        final double maxDistance,
+                                        int threads,
+                                        Selection selection) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile0, infile1);
+        stats.setMethod("Nearest");
+        ArrayList<Atom> arr0 = new ArrayList<Atom>();
+        ArrayList<Atom> arr1 = new ArrayList<Atom>();
+
+        stats.start(Stage.PARSE);
+        readPDBFile(arr0, infile0, null, null, selection);
+        readPDBFile(arr1, infile1, null, null, selection);
+        stats.stop(Stage.PARSE);
+        if(arr0.size() == 0 || arr1.size() == 0) {
+            log("Failed to read the molecules. Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr0.size(), arr1.size());
+        log("Size of molecules: " + arr0.size() + " atoms and " +
+            arr1.size() + " atoms.");
+
+        stats.start(Stage.INDEX);
+        final double[] query = getCoordinates(arr0, null, null);
+        final double[] coords = getCoordinates(arr1, null, null);
+        final CellList cells = indexCoordinates(arr1, coords, QUERYCELLSIZE, stats);
+        stats.stop(Stage.INDEX);
+
+        // Atom j of the first molecule gets its neighbours in positions
+        // j * k ... j * k + k - 1, with -1 for missing ones.
+        final int[] neighbours = new int[arr0.size() * k];
+        final double[] distances = new double[arr0.size() * k];
+        Arrays.fill(neighbours, -1);
+        stats.start(Stage.PROBE);
+        long comparisons = forEachChunk(arr0.size(), threads, new ChunkTask() {
+            public long run(int from, int to) {
+                NeighbourHeap heap = new NeighbourHeap(k);
+                long comparisons = 0;
+                for(int j = from; j < to; j++) {
+                    heap.clear();
+                    comparisons += cells.nearest(query[j * 3], query[j * 3 + 1],
+                                                 query[j * 3 + 2], maxDistance,
+                                                 coords, heap);
+                    heap.sort();
+                    for(int r = 0; r < heap.getSize(); r++) {
+                        neighbours[j * k + r] = heap.getAtom(r);
+                        distances[j * k + r] = Math.sqrt(heap.getDistance2(r));
+                    }
+                }
+                return comparisons;
+            }
+        });
+        stats.stop(Stage.PROBE);
+        if(comparisons < 0) {
+            event.record(stats, false);
+            return null;
+        }
+        stats.addComparisons(comparisons);
+
+        stats.start(Stage.WRITE);
+        Formatter fmt = new Formatter(output);
+        long found = 0;
+        for(int j = 0; j < neighbours.length; j++) {
+            if(neighbours[j] < 0)
+                continue;
+            fmt.format(Locale.ROOT, "%d %d %.3f%n",
+                       arr0.get(j / k).getSerial(),
+                       arr1.get(neighbours[j]).getSerial(),
+                       distances[j]);
+            found++;
+        }
+        fmt.format(Locale.ROOT, "Number of neighbours: %d%n", found);
+        fmt.flush();
+        stats.stop(Stage.WRITE);
+        log("For the Nearest method: " + found + " neighbours found. " +
+            "Comparisons needed: " + stats.getComparisons() + ".");
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Finds the interface between two molecules: the residues of each
+     * molecule with an atom within the given distance of an atom of the
+     * other molecule. The second molecule is put in a CellList with cells
+     * of the size of the distance, and the atoms of it within the
+     * distance of each atom of the first molecule are visited by
+     * CellList.visitWithin(), which marks both atoms as being in the
+     * interface. The atoms of the first molecule are split into chunks
+     * that are searched by separate threads. The residues of each
+     * molecule are written to output, as lines of the chain ID ('-' if
+     * blank), residue sequence number with insertion code, and residue
+     * name.
+     *
+     * @param infile0 The *.pdb file of the first molecule.
+     * @param infile1 The *.pdb file of the second molecule.
+     * @param output OutputStream that receives the residues.
+     * @param distance The largest distance between the atoms of two
+     *        residues in the interface, such as 5 Å.
+     * @param threads Number of threads searching.
+     * @param selection Selection of the atoms to read from both files.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runInterfaceResidues(String infile0,
+                                                  String infile1,
+                                                  OutputStream output,
+                                                  final double distance,
+                                                  int threads,
+                                                  Selection selection) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile0, infile1);
+        stats.setMethod("Interface");
+        ArrayList<Atom> arr0 = new ArrayList<Atom>();
+        ArrayList<Atom> arr1 = new ArrayList<Atom>();
+
+        stats.start(Stage.PARSE);
+        readPDBFile(arr0, infile0, null, null, selection);
+        readPDBFile(arr1, infile1, null, null, selection);
+        stats.stop(Stage.PARSE);
+        if(arr0.size() == 0 || arr1.size() == 0) {
+            log("Failed to read the molecules. Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr0.size(), arr1.size());
+        log("Size of molecules: " + arr0.size() + " atoms and " +
+            arr1.size() + " atoms.");
+
+        stats.start(Stage.INDEX);
+        final double[] query = getCoordinates(arr0, null, null);
+        final double[] coords = getCoordinates(arr1, null, null);
+        final CellList cells = indexCoordinates(arr1, coords, distance, stats);
+        stats.stop(Stage.INDEX);
+
+        // Several threads may mark the same atom of the second molecule,
+        // but they all set it to true, and the marks are seen by this
+        // thread once the threads are done.
+        final boolean[] near0 = new boolean[arr0.size()];
+        final boolean[] near1 = new boolean[arr1.size()];
+        stats.start(Stage.PROBE);
+        long comparisons = forEachChunk(arr0.size(), threads, new ChunkTask() {
+            public long run(int from, int to) {
+                final int[] found = new int[1];
+                CellList.AtomVisitor visitor = new CellList.AtomVisitor() {
+                    public void visit(int atom) {
+                        near1[atom] = true;
+                        found[0]++;
+                    }
+                };
+                long comparisons = 0;
+                for(int j = from; j < to; j++) {
+                    found[0] = 0;
+                    comparisons += cells.visitWithin(query[j * 3], query[j * 3 + 1],
+                                                     query[j * 3 + 2], distance,
+                                                     coords, visitor);
+                    near0[j] = found[0] > 0;
+                }
+                return comparisons;
+            }
+        });
+        stats.stop(Stage.PROBE);
+        if(comparisons < 0) {
+            event.record(stats, false);
+            return null;
+        }
+        stats.addComparisons(comparisons);
+
+        stats.start(Stage.WRITE);
+        Formatter fmt = new Formatter(output);
+        String[] names = {infile0, infile1};
+        List<ArrayList<Atom>> molecules = Arrays.asList(arr0, arr1);
+        boolean[][] near = {near0, near1};
+        int[] residues = new int[2];
+        for(int m = 0; m < 2; m++) {
+            fmt.format(Locale.ROOT, "Residues of %s within %s of %s:%n",
+                       names[m], distance, names[1 - m]);
+            ArrayList<Atom> arr = molecules.get(m);
+            Atom written = null;
+            for(int i = 0; i < arr.size(); i++) {
+                Atom atom = arr.get(i);
+                if(!near[m][i] ||
+                   (written != null && Residue.sameResidue(written, atom)))
+                    continue;
+                fmt.format(Locale.ROOT, "%s %d%s %s%n",
+                           atom.getChainID().length() == 0 ? "-" : atom.getChainID(),
+                           atom.getResSeq(), atom.getICode(), atom.getResName());
+                written = atom;
+                residues[m]++;
+            }
+            fmt.format(Locale.ROOT, "Number of residues: %d%n", residues[m]);
+        }
+        fmt.flush();
+        stats.setResidues(residues[0], residues[1]);
+        stats.stop(Stage.WRITE);
+        log("For the Interface method: " + residues[0] + " and " + residues[1] +
+            " residues found. Comparisons needed: " + stats.getComparisons() + ".");
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Finds the contact map of two molecules: the pairs of residues, one
+     * of each molecule, with atoms within the given distance of each
+     * other. The second molecule is put in a CellList with cells of the
+     * size of the distance, and the contacts found by
+     * CellList.visitWithin() for each atom of the first molecule are
+     * counted in a ContactMap as they are found, so no object is created
+     * per pair of atoms. The atoms of the first molecule are split into
+     * chunks that are searched by separate threads, each with a
+     * ContactMap of its own, which are added together in order.<br /><br />
+     *
+     * Each residue pair is written to output as one line holding the
+     * chain ID ('-' if blank), residue sequence number with insertion
+     * code and residue name of both residues, followed by the number of
+     * atom pairs in contact, the distance of the closest pair, and the
+     * serial numbers of its atoms.
+     *
+     * @param infile0 The *.pdb file of the first molecule.
+     * @param infile1 The *.pdb file of the second molecule.
+     * @param output OutputStream that receives the contact map.
+     * @param distance The largest distance between two atoms in contact,
+     *        such as 4 Å.
+     * @param threads Number of threads searching.
+     * @param selection Selection of the atoms to read from both files.
+     * @return The Statistics of the run if the method succeeded
+     * without problems, null otherwise.
+     */
+    public static Statistics runContacts(String infile0,
+                                         String infile1,
+                                         OutputStream output,
+                                         final double distance,
+                                         int threads,
+                                         Selection selection) {
+        RunEvent event = new RunEvent();
+        event.begin();
+        Statistics stats = new Statistics();
+        stats.setFiles(infile0, infile1);
+        stats.setMethod("Contacts");
+        ArrayList<Atom> arr0 = new ArrayList<Atom>();
+        ArrayList<Atom> arr1 = new ArrayList<Atom>();
+
+        stats.start(Stage.PARSE);
+        readPDBFile(arr0, infile0, null, null, selection);
+        readPDBFile(arr1, infile1, null, null, selection);
+        stats.stop(Stage.PARSE);
+        if(arr0.size() == 0 || arr1.size() == 0) {
+            log("Failed to read the molecules. Quitting.");
+            event.record(stats, false);
+            return null;
+        }
+        stats.setAtoms(arr0.size(), arr1.size());
+        log("Size of molecules: " + arr0.size() + " atoms and " +
+            arr1.size() + " atoms.");
+
+        stats.start(Stage.INDEX);
+        final double[] query = getCoordinates(arr0, null, null);
+        final double[] coords = getCoordinates(arr1, null, null);
+        final int[] residueOf0 = new int[arr0.size()];
+        final int[] residueOf1 = new int[arr1.size()];
+        int residues0 = numberResidues(arr0, residueOf0);
+        int residues1 = numberResidues(arr1, residueOf1);
+        final CellList cells = indexCoordinates(arr1, coords, distance, stats);
+        stats.stop(Stage.INDEX);
+        stats.setResidues(residues0, residues1);
+
+        final ContactMap[] maps = new ContactMap[(arr0.size() + QUERYCHUNK - 1) / QUERYCHUNK];
+        stats.start(Stage.PROBE);
+        long comparisons = forEachChunk(arr0.size(), threads, new ChunkTask() {
+            public long run(int from, int to) {
+                final ContactMap map = new ContactMap();
+                final int[] current = new int[1];
+                CellList.AtomVisitor visitor = new CellList.AtomVisitor() {
+                    public void visit(int atom) {
+                        int j = current[0];
+                        double dx = coords[atom * 3]     - query[j * 3];
+                        double dy = coords[atom * 3 + 1] - query[j * 3 + 1];
+                        double dz = coords[atom * 3 + 2] - query[j * 3 + 2];
+                        map.add(residueOf0[j], residueOf1[atom], j, atom,
+                                dx * dx + dy * dy + dz * dz);
+                    }
+                };
+                long comparisons = 0;
+                for(int j = from; j < to; j++) {
+                    current[0] = j;
+                    comparisons += cells.visitWithin(query[j * 3], query[j * 3 + 1],
+                                                     query[j * 3 + 2], distance,
+                                                     coords, visitor);
+                }
+                maps[from / QUERYCHUNK] = map;
+                return comparisons;
+            }
+        });
+        ContactMap contacts = new ContactMap();
+        if(comparisons >= 0) {
+            for(int i = 0; i < maps.length; i++)
+                contacts.addAll(maps[i]);
+        }
+        stats.stop(Stage.PROBE);
+        if(comparisons < 0) {
+            event.record(stats, false);
+            return null;
+        }
+        stats.addComparisons(comparisons);
+
+        stats.start(Stage.WRITE);
+        Formatter fmt = new Formatter(output);
+        fmt.format(Locale.ROOT, "Contacts of %s and %s within %s:%n",
+                   infile0, infile1, distance);
+        long[] keys = contacts.getKeys();
+        long atomPairs = 0;
+        for(int i = 0; i < keys.length; i++) {
+            int slot = contacts.getSlot(keys[i]);
+            Atom atom0 = arr0.get(contacts.getAtom0(slot));
+            Atom atom1 = arr1.get(contacts.getAtom1(slot));
+            fmt.format(Locale.ROOT, "%s %d%s %s %s %d%s %s %d %.3f %d %d%n",
+                       atom0.getChainID().length() == 0 ? "-" : atom0.getChainID(),
+                       atom0.getResSeq(), atom0.getICode(), atom0.getResName(),
+                       atom1.getChainID().length() == 0 ? "-" : atom1.getChainID(),
+                       atom1.getResSeq(), atom1.getICode(), atom1.getResName(),
+                       contacts.getCount(slot),
+                       Math.sqrt(contacts.getClosest2(slot)),
+                       atom0.getSerial(), atom1.getSerial());
+            atomPairs += contacts.getCount(slot);
+        }
+        fmt.format(Locale.ROOT, "Number of residue pairs: %d%n", keys.length);
+        fmt.flush();
+        stats.setClashes(atomPairs);
+        stats.stop(Stage.WRITE);
+        log("For the Contacts method: " + keys.length + " residue pairs and " +
+            atomPairs + " atom pairs found. Comparisons needed: " +
+            stats.getComparisons() + ".");
+        log("Total time taken: " + stats.getTotalNanos() / 1000000 + " ms.");
+        event.record(stats, true);
+        return stats;
+    }
+
+    /**Numbers the residues of the Atoms, in the order of the *.pdb file,
+     * and puts the ordinal of the residue of each Atom in residueOf.
+     *
+     * @return The number of residues.
+     */
+    private static int numberResidues(ArrayList<Atom> arr, int[] residueOf) {
+        int residues = 0;
+        for(int i = 0; i < arr.size(); i++) {
+            if(i > 0 && !Residue.sameResidue(arr.get(i - 1), arr.get(i)))
+                residues++;
+            residueOf[i] = residues;
+        }
+        return arr.size() == 0 ? 0 : residues + 1;
+    }
+
+    /**Returns the coordinates of the Atoms as x0, y0, z0, x1, ... If min
+     * and max are not null, they are set to the smallest and largest
+     * coordinates.
+     */
+    private static double[] getCoordinates(ArrayList<Atom> arr,
+                                           double[] min,
+                                           double[] max) {
+        double[] coords = new double[arr.size() * 3];
+        for(int i = 0; i < arr.size(); i++) {
+            for(int d = 0; d < 3; d++) {
+                double coord = arr.get(i).getCoordinate(d);
+                coords[i * 3 + d] = coord;
+                if(min != null) {
+                    min[d] = Math.min(min[d], coord);
+                    max[d] = Math.max(max[d], coord);
+                }
+            }
+        }
+        return coords;
+    }
+
+    /**Puts the Atoms of arr, whose coordinates are given, in a CellList
+     * with cells of the given size, spanning the Atoms, and notes its
+     * grid in stats.
+     */
+    private static CellList indexCoordinates(ArrayList<Atom> arr,
+                                             double[] coords,
+                                             double unitsize,
+                                             Statistics stats) {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        getCoordinates(arr, min, max);
+        CellList cells = new CellList(unitsize, 1, min, max, arr.size());
+        cells.rebuild(coords, arr.size());
+        int occupied = cells.getOccupiedCount();
+        stats.setGrid(unitsize, 1, (double) arr.size() / occupied);
+        stats.setCells(occupied);
+        return cells;
+    }
+
+    /**A piece of work on the atoms from and up to, but not including, to,
+     * which returns the number of comparisons it needed.
+     */
+    private interface ChunkTask {
+        long run(int from, int to);
+    }
+
+    /**Runs the task on chunks of QUERYCHUNK atoms of the n atoms, using
+     * the given number of threads, and waits for all of them.
+     *
+     * @return The total number of comparisons, or -1 if a task failed.
+     */
+    private static long forEachChunk(int n, int threads, final ChunkTask task) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Long>> pending = new ArrayList<Future<Long>>();
+        long comparisons = 0;
+        try {
+            for(int from = 0; from < n; from += QUERYCHUNK) {
+                final int start = from;
+                final int end = Math.min(n, from + QUERYCHUNK);
+                pending.add(pool.submit(new Callable<Long>() {
+                    public Long call() {
+                        return task.run(start, end);
+                    }
+                }));
+            }
+            for(int i = 0; i < pending.size(); i++)
+                comparisons += pending.get(i).get();
+        } catch (InterruptedException e) {
+            log("Interrupted while searching.");
+            return -1;
+        } catch (ExecutionException e) {
+            log("Failed to search a chunk of atoms: " + e.getCause());
+            return -1;
+        } finally {
+            pool.shutdownNow();
+        }
+        return comparisons;
+    }
+
+    /**Interface for receiving pairs of nearby Atoms from pairCompare().
+     */
+    public interface PairVisitor {
+        /**Called once for every pair of nearby Atoms.
+         *
+         * @param a First Atom.
+         * @param b Second Atom.
+         * @return true if a comparison of the two Atoms was needed.
+         */
+        boolean visit(Atom a, Atom b);
+    }
+
+    /**Visits the pairs of nearby atoms of a molecule, using the Map
+     * hashmap built by buildIndex() on it. For each container in the map,
+     * every pair of atoms within the container is visited once, and the
+     * atoms of the container are paired with the atoms of the half shell
+     * of nearby containers given by Space.getHalfShellContainers(). This
+     * way, each pair of nearby atoms is visited exactly once, and no atom
+     * is paired with itself.
+     *
+     * @param hashmap Map of container ordinals and Atoms of the molecule.
+     * @param space The Space used to build hashmap.
+     * @param visitor PairVisitor that is given each pair.
+     * @param stats Statistics that the counters are added to.
+     * @return The number of comparisons that were needed.
+     */
+    public static long pairCompare(Map<Integer, HashEntry> hashmap,
+                                   Space space,
+                                   PairVisitor visitor,
+                                   Statistics stats) {
+        long comparisons = 0;
+        long visited = 0;
+        long empty = 0;
+        for(Map.Entry<Integer, HashEntry> e : hashmap.entrySet()) {
+            List<Atom> own = e.getValue().getContent(e.getKey());
+
+            // Pairs within the container, each visited once.
+            for(int i = 0; i < own.size(); i++)
+                for(int j = i + 1; j < own.size(); j++)
+                    if(visitor.visit(own.get(i), own.get(j)))
+                        comparisons++;
+
+            // Pairs with the half shell of nearby containers.
+            ArrayList<Integer> containers =
+                    space.getHalfShellContainers(own.get(0).getCentre());
+            for(int c = 0; c < containers.size(); c++) {
+                Integer container = containers.get(c);
+                HashEntry other = hashmap.get(container);
+                visited++;
+                if(other == null) {
+                    empty++;
+                    continue;
+                }
+                List<Atom> lst = other.getContent(container);
+                for(int i = 0; i < own.size(); i++)
+                    for(int j = 0; j < lst.size(); j++)
+                        if(visitor.visit(own.get(i), lst.get(j)))
+                            comparisons++;
+            }
+        }
+        stats.addComparisons(comparisons);
+        stats.addCellsVisited(visited);
+        stats.addEmptyCells(empty);
+        return comparisons;
+    }
+
+    /**Compares the atoms of a molecule against each other, using
+     * pairCompare(). Pairs of atoms from different models are not
+     * compared. Clashing pairs that the topology excludes are skipped.
+     * The clashing pairs are placed in resultlist, as Pairs of a sorting
+     * key and an array of the two Atoms, where the Atom with the lowest
+     * serial is placed first.
+     *
+     * @param hashmap Map of container ordinals and Atoms of the molecule.
+     * @param space The Space used to build hashmap.
+     * @param resultlist ArrayList that all clashing pairs are placed in.
+     * @param radii RadiusTable giving the clash distance of each pair.
+     * @param topology Topology telling which pairs are not clashes.
+     * @param stats Statistics that the counters are added to.
+     * @return The number of comparisons that were needed.
+     */
+    @SuppressWarnings("rawtypes")
+    public static long selfCompare(Map<Integer, HashEntry> hashmap,
+                                   Space space,
+                                   final ArrayList<Pair> resultlist,
+                                   final RadiusTable radii,
+                                   final Topology topology,
+                                   Statistics stats) {
+        final HashEntry he = new HashEntry();
+        return pairCompare(hashmap, space, new PairVisitor() {
+            public boolean visit(Atom a, Atom b) {
+                if(a.getModel() != b.getModel())
+                    return false;
+                if(!radii.clashes(a, b) || topology.isExcluded(a, b))
+                    return true;
+                if(b.getSerial() < a.getSerial()) {
+                    Atom t = a;
+                    a = b;
+                    b = t;
+                }
+                long key = ((long) a.getSerial() << 32) | b.getSerial();
+                resultlist.add(he.new Pair<Long, Atom[]>(key, new Atom[] {a, b}));
+                return true;
+            }
+        }, stats);
+    }
+
     /**Method to log the given String. If the program is run through the GUI,
      * the message will be written to the GUI log. If run through the command
      * line, the message will be written to standard output.
@@ -289,9 +2007,11 @@ public class Utils {
 
     /**This method will take the name of a *.pdb file, read it, and create as
      * many Atoms as there are data in the PDB file. All created Atoms are
-     * placed in the given ArrayList. If the parameters dmin and dmax are not
-     * null, the smallest and largest coordinates of all Atoms will be found
-     * and stored in the lists.
+     * placed in the given ArrayList. Atoms following a MODEL record get
+     * the model number set; atoms outside of any model belong to model 0.
+     * If the parameters dmin and dmax are not null, the smallest and
+     * largest coordinates of all Atoms will be found and stored in the
+     * lists.
      *
      * @param arr ArrayList which will contain all atoms created from the
      *        given *.pdb-file.
@@ -305,72 +2025,263 @@ public class Utils {
                                    String filename,
                                    Double[] dmin,
                                    Double[] dmax) {
+        readPDBFile(arr, filename, dmin, dmax, Selection.ALL);
+    }
+
+    /**Same as readPDBFile(arr, filename, dmin, dmax), but only the atoms
+     * chosen by the Selection are read. The other ATOM and HETATM lines
+     * are skipped without creating any Atoms of them.
+     *
+     * @param arr ArrayList which will contain the selected atoms of the
+     *        given *.pdb-file.
+     * @param filename Name of *.pdb file to read.
+     * @param dmin If not null, this list will contain the smallest
+     *        coordinates of the selected Atoms.
+     * @param dmax If not null, this list will contain the largest
+     *        coordinates of the selected Atoms.
+     * @param selection Selection of the atoms to read.
+     */
+    public static void readPDBFile(ArrayList<Atom> arr,
+                                   String filename,
+                                   Double[] dmin,
+                                   Double[] dmax,
+                                   Selection selection) {
+        try {
+            readPDB(arr, filename, dmin, dmax, selection);
+        } catch (IOException e) {
+            log("Could not open file " + filename);
+        }
+    }
+
+    /**Reads the selected atoms of a file as readPDBFile() does, and keeps
+     * only one conformer of each residue if altLocs is OCCUPANCY. Each
+     * Atom is given its place in arr as its index, see resultKey().
+     */
+    private static void readAtoms(ArrayList<Atom> arr,
+                                  String filename,
+                                  Selection selection,
+                                  Conformers.Mode altLocs) {
+        readPDBFile(arr, filename, null, null, selection);
+        if(altLocs == Conformers.Mode.OCCUPANCY) {
+            int removed = Conformers.keepHighestOccupancy(arr);
+            if(removed > 0)
+                log("Removed " + removed + " atoms of other conformers from " +
+                    filename + ".");
+        }
+        for(int i = 0; i < arr.size(); i++)
+            arr.get(i).setIndex(i);
+    }
+
+    /**Reads a *.pdb file as readPDBFile() does, but reports problems by
+     * throwing an exception instead of logging them. The Atoms read before
+     * an invalid line are kept in arr. Files whose names end with .cif or
+     * .mmcif are read as mmCIF files by CifReader. Gzip compressed files
+     * are inflated while they are read, as openReader() describes.
+     *
+     * @param arr ArrayList which will contain all atoms created from the
+     *        given *.pdb-file.
+     * @param filename Name of *.pdb file to read.
+     * @param dmin If not null, this list will contain the smallest
+     *        coordinates of all the Atoms.
+     * @param dmax If not null, this list will contain the largest
+     *        coordinates of all the Atoms.
+     * @throws IOException If the file could not be read, or holds an
+     *         invalid number or a too short ATOM or HETATM line.
+     */
+    public static void readPDB(ArrayList<Atom> arr,
+                               String filename,
+                               Double[] dmin,
+                               Double[] dmax) throws IOException {
+        readPDB(arr, filename, dmin, dmax, Selection.ALL);
+    }
+
+    /**Same as readPDB(arr, filename, dmin, dmax), but only the atoms
+     * chosen by the Selection are read.
+     *
+     * @param arr ArrayList which will contain the selected atoms of the
+     *        given *.pdb-file.
+     * @param filename Name of *.pdb file to read.
+     * @param dmin If not null, this list will contain the smallest
+     *        coordinates of the selected Atoms.
+     * @param dmax If not null, this list will contain the largest
+     *        coordinates of the selected Atoms.
+     * @param selection Selection of the atoms to read.
+     * @throws IOException If the file could not be read, or holds an
+     *         invalid number or a too short ATOM or HETATM line.
+     */
+    public static void readPDB(ArrayList<Atom> arr,
+                               String filename,
+                               Double[] dmin,
+                               Double[] dmax,
+                               Selection selection) throws IOException {
+        if(CifReader.isCif(filename)) {
+            CifReader.read(arr, filename, dmin, dmax, selection);
+            return;
+        }
 
         String line;
-        BufferedReader br = null;
+        BufferedReader br = openReader(filename);
+        Selection.LineRecord record = new Selection.LineRecord();
+        int model = 0;
         try {
-            br = new BufferedReader(new FileReader(filename));
             while ((line = br.readLine()) != null) {
-                String fstword = line.split("\\s+")[0];
+                // The record name is the first six columns, which a
+                // HETATM record shares with serial numbers of five digits.
+                String fstword = line.substring(0, Math.min(6, line.length())).trim();
+                // Note which model the following atoms belong to. Models
+                // without a serial number are numbered in order.
+                if(fstword.equals("MODEL")) {
+                    String number = line.length() > 10 ? line.substring(10).trim() : "";
+                    model = number.length() > 0 ?
+                            Integer.parseInt(number.split("\\s+")[0]) : model + 1;
+                    continue;
+                }
                 // Only parse lines beginning with "ATOM" or "HEATM"
                 if(!fstword.equals("ATOM") && !fstword.equals("HETATM"))
                     continue;
+                // The coordinates end in column 54.
+                if(line.length() < 54)
+                    throw new IOException("Too short line in " + filename +
+                                          ": " + line);
+                // Skip the atoms that are not selected before they are
+                // parsed.
+                record.setLine(line);
+                if(!selection.matches(record))
+                    continue;
 
-                // Parse the line
-                String[] coords = new String[3];
-                int serial      = Integer.parseInt(line.substring(6, 12).trim());
-                String atomName = line.substring(12, 16).trim();
-                String altLoc   = line.substring(16, 17).trim();
-                String resName  = line.substring(17, 21).trim();
-                String chainID  = line.substring(21, 22).trim();
-                int resSeq      = Integer.parseInt(line.substring(22, 26).trim());
-                String iCode    = line.substring(26, 27).trim();
-                coords[0]       = line.substring(30, 38).trim();
-                coords[1]       = line.substring(38, 46).trim();
-                coords[2]       = line.substring(46, 54).trim();
-
-                // Create Atom from the data in line.
-                Atom atom = new Atom(serial,
-                                     atomName,
-                                     altLoc,
-                                     resName,
-                                     chainID,
-                                     resSeq,
-                                     iCode,
-                                     coords);
+                Atom atom = parseAtom(line);
+                atom.setModel(model);
 
                 // Find the largest and smallest points in among all atoms
-                if(dmin != null && dmax != null) {
-                    for(int i = 0; i < dmin.length; i++) {
-                        // Is any of atom[i]'s coordinates less than the
-                        // current minimum or greater than the current
-                        // maximum? Add some error margin.
-                        double coord = atom.getCoordinate(i);
-                        if(coord < dmin[i])
-                            dmin[i] = coord - 0.001;
-                        if(coord > dmax[i])
-                            dmax[i] = coord + 0.001;
-                    }
-                }
+                if(dmin != null && dmax != null)
+                    updateBounds(atom, dmin, dmax);
                 // Add atom to the ArrayList
                 arr.add(atom);
             }
-            br.close();
         } catch (NumberFormatException e) {
-            log("Could not open file " + filename);
+            throw new IOException("Invalid number in " + filename + ": " +
+                                  e.getMessage());
+        } finally {
+            br.close();
+        }
+    }
+
+    /**Opens a file of atoms for reading lines. A gzip compressed file,
+     * such as a *.pdb.gz file, is recognised by its first two bytes, and
+     * inflated in the background by an InflatingInputStream while the
+     * lines are read.
+     *
+     * @param filename Name of the file to open.
+     * @return BufferedReader of the lines of the file.
+     * @throws IOException If the file could not be opened, or is not a
+     *         valid gzip file.
+     */
+    public static BufferedReader openReader(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            in.mark(2);
+            int b0 = in.read();
+            int b1 = in.read();
+            in.reset();
+            if(b0 == 0x1f && b1 == 0x8b)
+                in = new InflatingInputStream(in);
         } catch (IOException e) {
-            log("Could not open file " + filename);
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in));
+    }
+
+    /**Creates an Atom from an ATOM or HETATM line of a *.pdb file.
+     *
+     * @param line The line to parse.
+     * @return The Atom described by the line.
+     * @throws NumberFormatException If the line holds invalid numbers.
+     */
+    public static Atom parseAtom(String line) {
+        String[] coords = new String[3];
+        int serial      = Integer.parseInt(line.substring(6, 12).trim());
+        String atomName = line.substring(12, 16).trim();
+        String altLoc   = line.substring(16, 17).trim();
+        String resName  = line.substring(17, 21).trim();
+        String chainID  = line.substring(21, 22).trim();
+        int resSeq      = Integer.parseInt(line.substring(22, 26).trim());
+        String iCode    = line.substring(26, 27).trim();
+        coords[0]       = line.substring(30, 38).trim();
+        coords[1]       = line.substring(38, 46).trim();
+        coords[2]       = line.substring(46, 54).trim();
+        String element  = line.length() >= 78 ?
+                          line.substring(76, 78).trim() : "";
+        if(element.length() == 0)
+            element = guessElement(line.substring(12, 16),
+                                   line.startsWith("HETATM"));
+
+        // Create Atom from the data in line.
+        Atom atom = new Atom(serial,
+                             atomName,
+                             altLoc,
+                             resName,
+                             chainID,
+                             resSeq,
+                             iCode,
+                             element,
+                             coords);
+        String occupancy = line.length() >= 60 ? line.substring(54, 60).trim() : "";
+        if(occupancy.length() > 0)
+            atom.setOccupancy(Double.parseDouble(occupancy));
+        return atom;
+    }
+
+    /**Guesses the element of an atom from its name, for *.pdb files that
+     * lack the element columns. In the name columns, a one letter element
+     * symbol is placed in the second column, and a two letter symbol in
+     * the first two columns. Since hydrogens with four letter names also
+     * start in the first column, two letter symbols are only used for
+     * HETATM records.
+     *
+     * @param name The four columns of the atom name, untrimmed.
+     * @param hetatm Whether the atom is from a HETATM record.
+     * @return The guessed element symbol.
+     */
+    public static String guessElement(String name, boolean hetatm) {
+        char c0 = name.charAt(0);
+        if(Character.isLetter(c0)) {
+            if(hetatm && Character.isLetter(name.charAt(1)))
+                return name.substring(0, 2);
+            return name.substring(0, 1);
+        }
+        return name.substring(1, 2);
+    }
+
+    /**Updates dmin and dmax, so that they hold the smallest and largest
+     * coordinates of the given Atom, if they are not already smaller or
+     * larger than those.
+     *
+     * @param atom Atom whose coordinates to include in the bounds.
+     * @param dmin List of the smallest coordinates found so far.
+     * @param dmax List of the largest coordinates found so far.
+     */
+    public static void updateBounds(Atom atom, Double[] dmin, Double[] dmax) {
+        for(int i = 0; i < dmin.length; i++) {
+            // Is any of atom[i]'s coordinates less than the
+            // current minimum or greater than the current
+            // maximum? Add some error margin.
+            double coord = atom.getCoordinate(i);
+            if(coord < dmin[i])
+                dmin[i] = coord - 0.001;
+            if(coord > dmax[i])
+                dmax[i] = coord + 0.001;
         }
     }
 
     /**Method for writing results to a given OutputStream. The ArrayList
-     * list should be Pairs of Integers and Atoms, where the Integer
+     * list should be Pairs of keys and Atoms, where the key
      * denotes the sorting order. Data from the Atoms will be written to
      * the OutputStream output, along with a counter of how many unique
      * Atoms were found (size of list).
      *
      * @param output OutputStream to write data to.
-     * @param list ArrayList of Pairs of Integers and Atoms.
+     * @param list ArrayList of Pairs of keys and Atoms.
      */
     @SuppressWarnings("rawtypes")
     public static void writeResults(OutputStream output,
@@ -391,11 +2302,14 @@ public class Utils {
     }
 
 
-    /**Method for sorting an ArrayList of Pairs of Integers and Atoms,
-     * where the Integer denotes the sorting order. The ArrayList will
-     * be sorted, and duplicate adjacent Atoms will be removed.
+    /**Method for sorting an ArrayList of Pairs of keys and Atoms, as
+     * given by resultKey(), where the key denotes the sorting order. The
+     * ArrayList will be sorted, and duplicate adjacent Atoms will be
+     * removed. Since no two Atoms share a key, every duplicate is then
+     * adjacent, and the order does not depend on the order the pairs
+     * were added in.
      *
-     * @param list ArrayList of Pairs of Integers and Atoms.
+     * @param list ArrayList of Pairs of keys and Atoms.
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public static void sortResults(ArrayList<Pair> list) {
@@ -412,6 +2326,60 @@ public class Utils {
         }
     }
 
+    /**Returns the key that the clashing Atom is sorted by in the results
+     * of run() and runResidues(). Atoms are sorted by serial number, and
+     * Atoms with the same serial number, such as in files of several
+     * models, by their index, i.e. their place in the file.
+     *
+     * @param atom Clashing Atom, whose index has been set by readAtoms().
+     * @return The sorting key of the Atom.
+     */
+    public static Long resultKey(Atom atom) {
+        return ((long) atom.getSerial() << 32) | atom.getIndex();
+    }
+
+    /**Method for sorting an ArrayList of Pairs of sorting keys and Atom
+     * pairs, as created by selfCompare(). Unlike sortResults(), nothing
+     * is removed, since every pair is only present once.
+     *
+     * @param list ArrayList of Pairs of keys and Atom pairs.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static void sortPairs(ArrayList<Pair> list) {
+        Collections.sort(list);
+    }
+
+    /**Method for writing clashing pairs of Atoms to a given OutputStream.
+     * The list should be Pairs of sorting keys and arrays of two Atoms.
+     * Each line holds the two Atoms and the distance between them,
+     * followed by a counter of how many pairs were found.
+     *
+     * @param output OutputStream to write data to.
+     * @param list ArrayList of Pairs of keys and Atom pairs.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void writePairs(OutputStream output,
+                                  ArrayList<Pair> list) {
+
+        Formatter fmt = new Formatter(output);
+        for(int i = 0; i < list.size(); i++) {
+            Atom[] pair = (Atom[])list.get(i).getR();
+            for(int j = 0; j < pair.length; j++) {
+                Atom atom = pair[j];
+                fmt.format("%d ",      atom.getSerial());
+                fmt.format(            atom.getResName());
+                fmt.format(" %s",      atom.getChainID());
+                fmt.format(" %4d",     atom.getResSeq());
+                fmt.format("  %-4s ",  atom.getAtomName());
+            }
+            fmt.format(Locale.ROOT, " %.3f%n",
+                       Math.sqrt(pair[0].getSquaredDistance(pair[1])));
+        }
+        fmt.format("Number of clashing pairs: %s%n", list.size());
+        fmt.flush();
+        fmt.close();
+    }
+
     /**Reads the file specified by the LICENSEFILE variable,
      * and returns the content of the file.
      *